@@ -3,19 +3,35 @@
  */
 package edu.ou.asgbook.core;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 
 
 
 /**
  * A geospatial grid of data in equilat equilon coordinates typically in WGS84 ellipsoid
  * 
+ * The pixels are held either as an array of rows (int[][]), as a single
+ * contiguous row-major array (int[]) where pixel (row,col) is at index
+ * row*getNumLon()+col, or in IntBuffers that each hold a block of rows.
+ * The flat layout avoids a separate object per row, which matters for very
+ * large grids, and the buffers can be memory-mapped files (see io.MappedGrid)
+ * for grids that are larger than the heap.  getData() works only on grids
+ * stored as rows and getFlatData() returns a copy unless the grid is flat, so
+ * code that has to work on every layout should use the row accessors instead.
+ * The readers in the io package create grids stored as rows, except MappedGrid.
+ * 
  * @author Valliappa.Lakshmanan
  *
  */
 public class LatLonGrid {
-	private int[][] data;
+	// exactly one of data, flat and buffers is non-null, and the layout never changes
+	private final int[][] data;
+	private final int[] flat;
+	private final IntBuffer[] buffers;
+	private final int rowsPerBuffer;
+	private final int numLat;
+	private final int numLon;
 	private int missing;
 	private LatLon nwCorner;
 	private double latRes;
@@ -32,6 +48,11 @@ public class LatLonGrid {
 			double latres, double lonres) {
 		super();
 		this.data = data;
+		this.flat = null;
+		this.buffers = null;
+		this.rowsPerBuffer = 0;
+		this.numLat = data.length;
+		this.numLon = data[0].length;
 		this.missing = missing;
 		this.nwCorner = nwCorner;
 		this.latRes = latres;
@@ -39,30 +60,121 @@ public class LatLonGrid {
 	}
 	
 	/**
-	 * Make a deep copy
+	 * @param data  Row-major pixel values, of length nrows*ncols. Holds on to provided data (does not clone the data)
+	 * @param nrows
+	 * @param ncols
+	 * @param missing  Missing data value, typically -9999 or similar
+	 * @param nwCorner the true corner, not the center of the first grid point
+	 * @param latres A positive number
+	 * @param lonres A positive number
 	 */
-	public static LatLonGrid copyOf(final LatLonGrid original){
-		int[][] copy = new int[original.getNumLat()][original.getNumLon()];
-		for (int i=0; i < original.getNumLat(); ++i){
-			for (int j=0; j < original.getNumLon(); ++j){
-				copy[i][j] = original.data[i][j];
+	public LatLonGrid(int[] data, int nrows, int ncols, int missing, LatLon nwCorner,
+			double latres, double lonres) {
+		super();
+		if (data.length != nrows * ncols){
+			throw new IllegalArgumentException("Flat array has " + data.length + " values, but grid is " + nrows + "x" + ncols);
+		}
+		this.data = null;
+		this.flat = data;
+		this.buffers = null;
+		this.rowsPerBuffer = 0;
+		this.numLat = nrows;
+		this.numLon = ncols;
+		this.missing = missing;
+		this.nwCorner = nwCorner;
+		this.latRes = latres;
+		this.lonRes = lonres;
+	}
+	
+	/**
+	 * @param buffers  Each buffer holds rowsPerBuffer rows in row-major order (the last may hold fewer).
+	 *   Holds on to provided buffers, so if they are memory-mapped, changes to the grid are written to the file.
+	 * @param rowsPerBuffer
+	 * @param nrows
+	 * @param ncols
+	 * @param missing  Missing data value, typically -9999 or similar
+	 * @param nwCorner the true corner, not the center of the first grid point
+	 * @param latres A positive number
+	 * @param lonres A positive number
+	 */
+	public LatLonGrid(IntBuffer[] buffers, int rowsPerBuffer, int nrows, int ncols, int missing, LatLon nwCorner,
+			double latres, double lonres) {
+		super();
+		for (int b=0; b < buffers.length; ++b){
+			int numrows = Math.min(rowsPerBuffer, nrows - b*rowsPerBuffer);
+			if (numrows <= 0 || buffers[b].capacity() < numrows*ncols){
+				throw new IllegalArgumentException("Buffer " + b + " has " + buffers[b].capacity() + " values, but should hold " + numrows + " rows of " + ncols);
 			}
 		}
+		if (buffers.length * (long) rowsPerBuffer < nrows){
+			throw new IllegalArgumentException(buffers.length + " buffers of " + rowsPerBuffer + " rows can not hold " + nrows + " rows");
+		}
+		this.data = null;
+		this.flat = null;
+		this.buffers = buffers;
+		this.rowsPerBuffer = rowsPerBuffer;
+		this.numLat = nrows;
+		this.numLon = ncols;
+		this.missing = missing;
+		this.nwCorner = nwCorner;
+		this.latRes = latres;
+		this.lonRes = lonres;
+	}
+	
+	/**
+	 * Initialize a grid of data at zero, stored as a single row-major array.
+	 */
+	public static LatLonGrid newFlatInstance(int nrows, int ncols, int missing, LatLon nwCorner,
+			double latres, double lonres) {
+		return new LatLonGrid(new int[nrows*ncols], nrows, ncols, missing, nwCorner, latres, lonres);
+	}
+	
+	/**
+	 * Make a deep copy. The copy uses the same storage layout as the original,
+	 * except that a grid held in buffers is copied into a flat array.
+	 */
+	public static LatLonGrid copyOf(final LatLonGrid original){
+		if (original.flat != null){
+			return new LatLonGrid(original.flat.clone(), original.numLat, original.numLon, original.missing, original.nwCorner, original.latRes, original.lonRes);
+		}
+		if (original.buffers != null){
+			return new LatLonGrid(original.copyBuffers(), original.numLat, original.numLon, original.missing, original.nwCorner, original.latRes, original.lonRes);
+		}
+		int[][] copy = new int[original.numLat][];
+		for (int i=0; i < copy.length; ++i){
+			copy[i] = original.data[i].clone();
+		}
 		return new LatLonGrid(copy, original.missing, original.nwCorner, original.latRes, original.lonRes);
 	}
 	
 	/**
-	 * Crop this grid.  Does not check dimensions
+	 * Crop this grid.  Does not check dimensions.
+	 * The cropped grid uses the same storage layout as this one,
+	 * except that a grid held in buffers is cropped into a flat array.
 	 */
 	public LatLonGrid crop(int startRow, int startCol, int numLat, int numLon){
+		LatLon origin = this.getLocation(startRow, startCol);
+		LatLon nwCorner = new LatLon( origin.getLat() + latRes/2 , origin.getLon() - lonRes/2 );
+		if (flat != null){
+			int[] copy = new int[numLat*numLon];
+			for (int i=0; i < numLat; ++i){
+				System.arraycopy(flat, (i+startRow)*this.numLon + startCol, copy, i*numLon, numLon);
+			}
+			return new LatLonGrid(copy, numLat, numLon, missing, nwCorner, latRes, lonRes);
+		}
+		if (buffers != null){
+			int[] copy = new int[numLat*numLon];
+			for (int i=0; i < numLat; ++i){
+				IntBuffer buf = rowBuffer(i+startRow);
+				buf.position(buf.position() + startCol);
+				buf.get(copy, i*numLon, numLon);
+			}
+			return new LatLonGrid(copy, numLat, numLon, missing, nwCorner, latRes, lonRes);
+		}
 		int[][] copy = new int[numLat][numLon];
 		for (int i=0; i < numLat; ++i){
-			for (int j=0; j < numLon; ++j){
-				copy[i][j] = data[i+startRow][j+startCol];
-			}
+			System.arraycopy(data[i+startRow], startCol, copy[i], 0, numLon);
 		}
-		LatLon origin = this.getLocation(startRow, startCol);
-		LatLon nwCorner = new LatLon( origin.getLat() + latRes/2 , origin.getLon() - lonRes/2 );
 		return new LatLonGrid(copy, missing, nwCorner, latRes, lonRes);
 	}
 	
@@ -81,9 +193,70 @@ public class LatLonGrid {
 		this( new int[nrows][ncols], missing, nwCorner, latres, lonres );
 	}
 
+	/**
+	 * The rows of the grid; changes made to the returned array are reflected in the grid.
+	 * @throws IllegalStateException if the grid is not stored as rows; use
+	 *   getRowValues() and setRowValues(), which work for every layout, instead
+	 */
 	public int[][] getData() {
+		if (data == null){
+			throw new IllegalStateException("The " + numLat + "x" + numLon + " grid is stored " + (isBuffered()? "in buffers" : "as a flat array")
+					+ ", not as rows; use getRowValues() and setRowValues()");
+		}
 		return data;
 	}
+	
+	/**
+	 * Returns the pixels as a single row-major array where pixel (row,col) is at
+	 * index row*getNumLon()+col. If this grid is stored as a flat array, changes made
+	 * to the returned array are reflected in the grid.  Otherwise, the returned
+	 * array is a copy and changes to it do not affect the grid.
+	 */
+	public int[] getFlatData() {
+		if (flat != null){
+			return flat;
+		}
+		if (buffers != null){
+			return copyBuffers();
+		}
+		int[] values = new int[numLat*numLon];
+		for (int i=0; i < numLat; ++i){
+			System.arraycopy(data[i], 0, values, i*numLon, numLon);
+		}
+		return values;
+	}
+	
+	/**
+	 * Is this grid stored in IntBuffers (for example, a memory-mapped file)?
+	 */
+	public boolean isBuffered() {
+		return buffers != null;
+	}
+	
+	private int[] copyBuffers(){
+		int[] values = new int[numLat*numLon];
+		for (int b=0; b < buffers.length; ++b){
+			IntBuffer buf = buffers[b].duplicate();
+			buf.rewind();
+			int start = b*rowsPerBuffer*numLon;
+			buf.get(values, start, Math.min(rowsPerBuffer*numLon, values.length - start));
+		}
+		return values;
+	}
+	
+	/** A view of the buffer holding this row, positioned at the start of the row. */
+	private IntBuffer rowBuffer(int row){
+		IntBuffer buf = buffers[row / rowsPerBuffer].duplicate();
+		buf.position((row % rowsPerBuffer)*numLon);
+		return buf;
+	}
+	
+	/**
+	 * Is this grid stored as a single row-major array?
+	 */
+	public boolean isFlat() {
+		return flat != null;
+	}
 
 	public int getMissing() {
 		return missing;
@@ -131,19 +304,110 @@ public class LatLonGrid {
 	}
 
 	public int getNumLon() {
-		return data[0].length;
+		return numLon;
 	}
 
 	public int getNumLat() {
-		return data.length;
+		return numLat;
 	}
 	
 	public int getValue(int row, int col){
+		if (flat != null){
+			return flat[row*numLon + col];
+		}
+		if (buffers != null){
+			return buffers[row / rowsPerBuffer].get((row % rowsPerBuffer)*numLon + col);
+		}
 		return data[row][col];
 	}
 	
 	public void setValue(int row, int col, int value){
-		data[row][col] = value;
+		if (flat != null){
+			flat[row*numLon + col] = value;
+		} else if (buffers != null){
+			buffers[row / rowsPerBuffer].put((row % rowsPerBuffer)*numLon + col, value);
+		} else {
+			data[row][col] = value;
+		}
+	}
+	
+	/** Total number of pixels in the grid. */
+	public int getNumPixels() {
+		return numLat * numLon;
+	}
+	
+	/** Linear (row-major) index of a pixel. */
+	public final int getIndex(int row, int col){
+		return row*numLon + col;
+	}
+	
+	/** Value at the linear (row-major) index. */
+	public int getValue(int index){
+		if (flat != null){
+			return flat[index];
+		}
+		if (buffers != null){
+			final int bufsize = rowsPerBuffer*numLon;
+			return buffers[index / bufsize].get(index % bufsize);
+		}
+		return data[index / numLon][index % numLon];
+	}
+	
+	/** Set the value at the linear (row-major) index. */
+	public void setValue(int index, int value){
+		if (flat != null){
+			flat[index] = value;
+		} else if (buffers != null){
+			final int bufsize = rowsPerBuffer*numLon;
+			buffers[index / bufsize].put(index % bufsize, value);
+		} else {
+			data[index / numLon][index % numLon] = value;
+		}
+	}
+	
+	/**
+	 * Copies one row of this grid into dest, which should have getNumLon() elements.
+	 * @return dest
+	 */
+	public int[] getRowValues(int row, int[] dest){
+		if (flat != null){
+			System.arraycopy(flat, row*numLon, dest, 0, numLon);
+		} else if (buffers != null){
+			rowBuffer(row).get(dest, 0, numLon);
+		} else {
+			System.arraycopy(data[row], 0, dest, 0, numLon);
+		}
+		return dest;
+	}
+	
+	/**
+	 * Copies numCols values of one row, starting at column startCol, into the start of dest.
+	 * @return dest
+	 */
+	public int[] getRowValues(int row, int startCol, int numCols, int[] dest){
+		if (flat != null){
+			System.arraycopy(flat, row*numLon + startCol, dest, 0, numCols);
+		} else if (buffers != null){
+			IntBuffer buf = rowBuffer(row);
+			buf.position(buf.position() + startCol);
+			buf.get(dest, 0, numCols);
+		} else {
+			System.arraycopy(data[row], startCol, dest, 0, numCols);
+		}
+		return dest;
+	}
+	
+	/**
+	 * Copies values, which should have getNumLon() elements, into one row of this grid.
+	 */
+	public void setRowValues(int row, int[] values){
+		if (flat != null){
+			System.arraycopy(values, 0, flat, row*numLon, numLon);
+		} else if (buffers != null){
+			rowBuffer(row).put(values, 0, numLon);
+		} else {
+			System.arraycopy(values, 0, data[row], 0, numLon);
+		}
 	}
 
 	public void setMissing(int i) {
@@ -161,7 +425,7 @@ public class LatLonGrid {
 	public final Pixel getPixel(LatLon location){
 		int row = getRow(location);
 		int col = getCol(location);
-		return new Pixel(row, col, data[row][col]);
+		return new Pixel(row, col, getValue(row,col));
 	}
 
 	/**
@@ -176,7 +440,7 @@ public class LatLonGrid {
 		int row = getRow(location);
 		int col = getCol(location);
 		if ( isValid(row, col) ){
-			return data[row][col];
+			return getValue(row,col);
 		}
 		return missing;
 	}
@@ -185,27 +449,49 @@ public class LatLonGrid {
 	 * Are the pixel coordinates in bounds?
 	 */
 	public final boolean isValid(int row, int col) {
-		return row >= 0 && row < data.length && col >= 0 && col < data[row].length;
+		return row >= 0 && row < numLat && col >= 0 && col < numLon;
 	}
 	
 	public void fill(int newval){
-		final int nrows = data.length;
-		final int ncols = data[0].length;
-		for (int i=0; i < nrows; ++i){
-			for (int j=0; j < ncols; ++j){
-				data[i][j] = newval;
+		if (flat != null){
+			Arrays.fill(flat, newval);
+			return;
+		}
+		if (buffers != null){
+			int[] row = new int[numLon];
+			Arrays.fill(row, newval);
+			for (int i=0; i < numLat; ++i){
+				setRowValues(i, row);
 			}
+			return;
+		}
+		for (int[] row : data){
+			Arrays.fill(row, newval);
 		}
 	}
 
 	public void replace(int oldval, int newval){
-		final int nrows = data.length;
-		final int ncols = data[0].length;
-		for (int i=0; i < nrows; ++i){
-			for (int j=0; j < ncols; ++j){
-				if (data[i][j] == oldval){
-					data[i][j] = newval;
-				}
+		if (flat != null){
+			replace(flat, oldval, newval);
+			return;
+		}
+		if (buffers != null){
+			int[] row = new int[numLon];
+			for (int i=0; i < numLat; ++i){
+				replace(getRowValues(i, row), oldval, newval);
+				setRowValues(i, row);
+			}
+			return;
+		}
+		for (int[] row : data){
+			replace(row, oldval, newval);
+		}
+	}
+	
+	private static void replace(int[] values, int oldval, int newval){
+		for (int k=0; k < values.length; ++k){
+			if (values[k] == oldval){
+				values[k] = newval;
 			}
 		}
 	}
@@ -217,17 +503,34 @@ public class LatLonGrid {
 			throw new IllegalArgumentException("Grids are of different dimensions: first grid is " + nrows + "x" + ncols + " while second grid is " + b.getNumLat() + "x" + b.getNumLon());
 		}
 		LatLonGrid result = LatLonGrid.copyOf(a);
-		for (int i=0; i < nrows; ++i) for (int j=0; j < ncols; ++j){
-			if (result.data[i][j] != result.missing){
-				int bval = b.data[i][j];
-				if (bval != b.missing){
-					result.data[i][j] += bval;
+		if (result.flat != null && b.flat != null){
+			add(result.flat, 0, b.flat, 0, result.flat.length, result.missing, b.missing);
+			return result;
+		}
+		int[] brow = new int[ncols];
+		for (int i=0; i < nrows; ++i){
+			b.getRowValues(i, brow);
+			if (result.flat != null){
+				add(result.flat, i*ncols, brow, 0, ncols, result.missing, b.missing);
+			} else {
+				add(result.data[i], 0, brow, 0, ncols, result.missing, b.missing);
+			}
+		}
+		return result;
+	}
+	
+	private static void add(int[] result, int resultStart, int[] b, int bStart, int len, int missing, int bmissing){
+		for (int k=0; k < len; ++k){
+			int rval = result[resultStart+k];
+			if (rval != missing){
+				int bval = b[bStart+k];
+				if (bval != bmissing){
+					result[resultStart+k] = rval + bval;
 				} else {
-					result.data[i][j] = result.missing;
+					result[resultStart+k] = missing;
 				}
 			}
 		}
-		return result;
 	}
 
 	public int getValue(Pixel pixel) {
@@ -235,18 +538,27 @@ public class LatLonGrid {
 	}
 	
 	public Pixel[] asPixels(){
-		List<Pixel> pixels = new ArrayList<Pixel>();
-		for (int i=0; i < data.length; ++i) for (int j=0; j < data[i].length; ++j){
-			if (data[i][j] != missing){
-				pixels.add(new Pixel(i,j,data[i][j]));
+		return asPixelList().toArray();
+	}
+	
+	/** The non-missing pixels in row-major order. */
+	public PixelList asPixelList(){
+		PixelList pixels = new PixelList();
+		int[] row = new int[numLon];
+		for (int i=0; i < numLat; ++i){
+			getRowValues(i, row);
+			for (int j=0; j < numLon; ++j){
+				if (row[j] != missing){
+					pixels.add(i,j,row[j]);
+				}
 			}
 		}
-		return pixels.toArray(new Pixel[0]);
+		return pixels;
 	}
 	
 	public int[][] longitudewrap(int Ny){
-		   int nrows = data.length;
-		   int ncols = data[0].length;
+		   int nrows = numLat;
+		   int ncols = numLon;
 		   int hy = Ny/2;
 		   int outcols = ncols + 2*hy;
 		   int[][] result = new int[nrows][outcols];
@@ -254,24 +566,38 @@ public class LatLonGrid {
 		     int incol = j - hy;
 		     if (incol < 0) incol += ncols; // wrap
 		     else if (incol >= ncols) incol -= ncols; 
-		     result[i][j] = data[i][incol];
+		     result[i][j] = getValue(i,incol);
 		   }
 		   return result;
 	}
 
+	/**
+	 * Resamples this grid onto the domain of the other grid (nearest neighbor).
+	 * The result is stored as rows if the other grid is, and as a flat array otherwise.
+	 */
 	public LatLonGrid remapTo(LatLonGrid other) {
-		LatLonGrid result = LatLonGrid.copyOf(other);
-		result.setMissing(this.getMissing());
-		for (int i=0; i < other.getNumLat(); ++i){
+		final int nrows = other.getNumLat();
+		final int ncols = other.getNumLon();
+		// the column mapping is the same for every row
+		final int[] cols = new int[ncols];
+		for (int j=0; j < ncols; ++j){
+			cols[j] = getCol( other.getLocation(0,j) );
+		}
+		LatLonGrid result = (other.data != null)?
+				new LatLonGrid(new int[nrows][ncols], missing, other.nwCorner, other.latRes, other.lonRes) :
+				new LatLonGrid(new int[nrows*ncols], nrows, ncols, missing, other.nwCorner, other.latRes, other.lonRes);
+		int[] values = new int[ncols];
+		for (int i=0; i < nrows; ++i){
 			int row = getRow( other.getLocation(i,0) );
-			for (int j=0; j < other.getNumLon(); ++j){
-				int col = getCol( other.getLocation(i,j) );
-				if (this.isValid(row,col)){
-					result.setValue(i,j, data[row][col]);
-				} else {
-					result.setValue(i,j, result.missing);
+			if (row < 0 || row >= numLat){
+				Arrays.fill(values, missing);
+			} else {
+				for (int j=0; j < ncols; ++j){
+					int col = cols[j];
+					values[j] = (col >= 0 && col < numLon)? getValue(row,col) : missing;
 				}
 			}
+			result.setRowValues(i, values);
 		}
 		return result;
 	}
@@ -1,44 +1,267 @@
 /**
- * 
+ *
  */
 package edu.ou.asgbook.core;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
 /**
  * A representation of a spatial grid as a set of levels.
- * 
+ *
+ * The pixels are counting-sorted by value into a single array of linear
+ * indices (row*ncols + col), so that the pixels at level l are
+ * getStart(l) to getEnd(l)-1.  Levels are in ascending order of value
+ * and, within a level, pixels are in row-major order.  If the values
+ * span too wide a range for a count per value, the pixels are radix
+ * sorted instead.
+ *
+ * Pixels can also be added one at a time with add(), in which case the
+ * pixels within a level are in the order in which they were added.  The
+ * levels are rebuilt the next time they are accessed.
+ *
  * @author valliappa.lakshmanan
  *
  */
 public class LevelSet {
-	private Map<Integer,List<Pixel>> data = new TreeMap<Integer, List<Pixel>>();
+	private static final int MIN_DENSE_RANGE = 1 << 16;
+	private int ncols;
+	private int[] levelValues;
+	// the pixels at level l are pixels[levelStart[l]] to pixels[levelStart[l+1]-1]
+	private int[] levelStart;
+	private int[] pixels;
+	// all the pixels, if some have been added since the levels were last built
+	private PixelList pending;
+
+	private LevelSet(int ncols, int[] levelValues, int[] levelStart, int[] pixels){
+		this.ncols = ncols;
+		this.levelValues = levelValues;
+		this.levelStart = levelStart;
+		this.pixels = pixels;
+	}
+
+	/**
+	 * An empty level set, to which pixels can be added.  Use newInstance()
+	 * to create the level set of a grid; it is much faster.
+	 */
+	public LevelSet(){
+		this(1, new int[0], new int[1], new int[0]);
+	}
+
+	/**
+	 * Adds a pixel at the level of its value.  The coordinates have to be non-negative.
+	 */
 	public void add(Pixel p){
-		List<Pixel> level = data.get(p.getValue());
-		if ( level == null ){
-			level = new ArrayList<Pixel>();
-			data.put(p.getValue(), level);
+		if (p.getX() < 0 || p.getY() < 0){
+			throw new IllegalArgumentException("Pixel coordinates have to be non-negative: " + p.getX() + "," + p.getY());
+		}
+		if (pending == null){
+			pending = new PixelList(pixels.length + 16);
+			for (int level=0; level < levelValues.length; ++level){
+				for (int k=levelStart[level]; k < levelStart[level+1]; ++k){
+					pending.add(pixels[k] / ncols, pixels[k] % ncols, levelValues[level]);
+				}
+			}
+		}
+		pending.add(p);
+	}
+
+	/** builds the levels from the pixels added since they were last built */
+	private void build(){
+		if (pending == null){
+			return;
+		}
+		int maxRow = 0;
+		int maxCol = 0;
+		for (int k=0; k < pending.size(); ++k){
+			maxRow = Math.max(maxRow, pending.getRow(k));
+			maxCol = Math.max(maxCol, pending.getCol(k));
 		}
-		level.add(p);
+		if ((long) (maxRow + 1) * (maxCol + 1) > Integer.MAX_VALUE){
+			throw new IllegalStateException("Pixels span too large a grid: " + (maxRow+1) + "x" + (maxCol+1));
+		}
+		LevelSet built = newSparseInstance(maxCol + 1, pending);
+		ncols = built.ncols;
+		levelValues = built.levelValues;
+		levelStart = built.levelStart;
+		pixels = built.pixels;
+		pending = null;
+	}
+
+	public int getNumLevels(){
+		build();
+		return levelValues.length;
+	}
+
+	public int getLevelValue(int level){
+		build();
+		return levelValues[level];
 	}
+
+	/** index of the first pixel at the level */
+	public int getStart(int level){
+		build();
+		return levelStart[level];
+	}
+
+	/** one past the index of the last pixel at the level */
+	public int getEnd(int level){
+		build();
+		return levelStart[level+1];
+	}
+
+	/** row of the k-th pixel */
+	public int getX(int k){
+		build();
+		return pixels[k] / ncols;
+	}
+
+	/** column of the k-th pixel */
+	public int getY(int k){
+		build();
+		return pixels[k] % ncols;
+	}
+
+	/**
+	 * The pixels in the highest levels, taking whole levels, highest first,
+	 * until there are at least n pixels.
+	 */
+	public PixelList getHighest(int n){
+		PixelList result = new PixelList();
+		for (int level=getNumLevels()-1; level >= 0 && result.size() < n; --level){
+			for (int k=getStart(level); k < getEnd(level); ++k){
+				result.add(getX(k), getY(k), levelValues[level]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The levels in ascending order of value.  This creates a Pixel object for
+	 * every pixel; iterate over the levels using getStart() and getEnd() to avoid that.
+	 */
 	@SuppressWarnings("unchecked")
 	public Map.Entry<Integer,List<Pixel>>[] getLevels(){
-		return data.entrySet().toArray(new Map.Entry[0]);
+		Map.Entry<Integer,List<Pixel>>[] result = new Map.Entry[getNumLevels()];
+		for (int level=0; level < result.length; ++level){
+			List<Pixel> list = new ArrayList<Pixel>(getEnd(level) - getStart(level));
+			for (int k=getStart(level); k < getEnd(level); ++k){
+				list.add(new Pixel(getX(k), getY(k), levelValues[level]));
+			}
+			result[level] = new AbstractMap.SimpleImmutableEntry<Integer,List<Pixel>>(levelValues[level], list);
+		}
+		return result;
 	}
-	
-	/** Creates a level set out of all non missing values in grid. */
+
+	/**
+	 * Creates a level set out of all non missing values in grid.  The grid is
+	 * read twice, row by row: once to count the pixels with each value and
+	 * again to place each pixel.
+	 */
 	public static LevelSet newInstance(LatLonGrid input){
-		LevelSet levelset = new LevelSet();
-		for (int i=0; i < input.getNumLat(); ++i){
-			for (int j=0; j < input.getNumLon(); ++j){
-				if ( input.getValue(i,j) != input.getMissing() ){
-					levelset.add(new Pixel(i,j,input.getValue(i,j)));
+		final int nrows = input.getNumLat();
+		final int ncols = input.getNumLon();
+		final int missing = input.getMissing();
+		// a count per value is not worth it if the range is much wider than the grid
+		final long maxRange = Math.max(MIN_DENSE_RANGE, (long) nrows * ncols);
+		int[] row = new int[ncols];
+
+		// count the pixels with each value; count[v] is for the value min+v, and grows as needed
+		int[] count = new int[0];
+		int min = 0;
+		int numValid = 0;
+		for (int i=0; i < nrows; ++i){
+			input.getRowValues(i, row);
+			for (int j=0; j < ncols; ++j){
+				final int value = row[j];
+				if ( value == missing ){
+					continue;
+				}
+				final long offset = (long) value - min;
+				if ( offset < 0 || offset >= count.length ){
+					if ( numValid == 0 ){
+						min = value;
+						count = new int[(int) Math.min(maxRange, 1024)];
+					} else {
+						long top = Math.max((long) min + count.length - 1, value);
+						long bottom = Math.min(min, value);
+						if ( top - bottom + 1 > maxRange ){
+							return newSparseInstance(ncols, input.asPixelList());
+						}
+						// at least double, so that the counts are copied only a few times
+						int len = (int) Math.min(maxRange, Math.max(top - bottom + 1, 2L * count.length));
+						long newMin = (value < min)? Math.max(Integer.MIN_VALUE, top - len + 1) : min;
+						int[] grown = new int[len];
+						System.arraycopy(count, 0, grown, (int) (min - newMin), count.length);
+						count = grown;
+						min = (int) newMin;
+					}
 				}
+				++count[value - min];
+				++numValid;
+			}
+		}
+		if ( numValid == 0 ){
+			return new LevelSet(ncols, new int[0], new int[1], new int[0]);
+		}
+
+		int numLevels = 0;
+		for (int v=0; v < count.length; ++v){
+			if ( count[v] > 0 ){
+				++numLevels;
+			}
+		}
+		int[] levelValues = new int[numLevels];
+		int[] levelStart = new int[numLevels+1];
+		int level = 0;
+		int total = 0;
+		for (int v=0; v < count.length; ++v){
+			if ( count[v] > 0 ){
+				levelValues[level] = min + v;
+				levelStart[level] = total;
+				total += count[v];
+				count[v] = levelStart[level]; // where the next pixel with this value goes
+				++level;
+			}
+		}
+		levelStart[numLevels] = total;
+
+		// place each pixel
+		int[] pixels = new int[numValid];
+		for (int i=0; i < nrows; ++i){
+			input.getRowValues(i, row);
+			for (int j=0, p=i*ncols; j < ncols; ++j, ++p){
+				if ( row[j] != missing ){
+					pixels[count[row[j] - min]++] = p;
+				}
+			}
+		}
+		return new LevelSet(ncols, levelValues, levelStart, pixels);
+	}
+
+	private static LevelSet newSparseInstance(int ncols, PixelList list){
+		list.sortByValue();
+		int numLevels = 0;
+		for (int k=0; k < list.size(); ++k){
+			if ( k == 0 || list.getValue(k) != list.getValue(k-1) ){
+				++numLevels;
+			}
+		}
+		int[] levelValues = new int[numLevels];
+		int[] levelStart = new int[numLevels+1];
+		int[] pixels = new int[list.size()];
+		int level = -1;
+		for (int k=0; k < list.size(); ++k){
+			if ( k == 0 || list.getValue(k) != list.getValue(k-1) ){
+				++level;
+				levelValues[level] = list.getValue(k);
+				levelStart[level] = k;
 			}
+			pixels[k] = list.getRow(k) * ncols + list.getCol(k);
 		}
-		return levelset;
+		levelStart[numLevels] = list.size();
+		return new LevelSet(ncols, levelValues, levelStart, pixels);
 	}
 }
@@ -67,9 +67,9 @@ public class Pixel implements Comparable<Pixel>{
 		@Override
 		public int compare(Pixel a, Pixel other) {
 			if ( other.x == a.x ){
-				return (a.y - other.y);
+				return Integer.compare(a.y, other.y);
 			} else {
-				return (a.x - other.x);
+				return Integer.compare(a.x, other.x);
 			}
 		}
 	}
@@ -77,7 +77,7 @@ public class Pixel implements Comparable<Pixel>{
 	public static class CompareValue implements Comparator<Pixel>{
 		@Override
 		public int compare(Pixel a, Pixel other) {
-			return a.value - other.value;
+			return Integer.compare(a.value, other.value);
 		}
 	}
 
@@ -94,12 +94,13 @@ public class Pixel implements Comparable<Pixel>{
 		}
 		if ( other.value == value ){
 			if ( other.x == x ){
-				return (y - other.y);
+				return Integer.compare(y, other.y);
 			} else {
-				return (x - other.x);
+				return Integer.compare(x, other.x);
 			}
 		} else {
-			return value - other.value;
+			// subtracting could overflow, e.g. if one of the values is Integer.MIN_VALUE
+			return Integer.compare(value, other.value);
 		}
 	}
 	
@@ -0,0 +1,225 @@
+/**
+ *
+ */
+package edu.ou.asgbook.core;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A list of pixels held in parallel arrays of rows, columns and values, so
+ * that millions of pixels can be stored and sorted without creating a Pixel
+ * object for each.  Use get() or toArray() where a Pixel is needed.
+ *
+ * The sorts are radix sorts and are stable, so that pixels with the same
+ * key stay in the order in which they were added.
+ *
+ * @author Valliappa.Lakshmanan
+ *
+ */
+public class PixelList {
+	private int[] rows;
+	private int[] cols;
+	private int[] values;
+	private int size = 0;
+
+	public PixelList() {
+		this(16);
+	}
+
+	public PixelList(int initialCapacity) {
+		initialCapacity = Math.max(1, initialCapacity);
+		rows = new int[initialCapacity];
+		cols = new int[initialCapacity];
+		values = new int[initialCapacity];
+	}
+
+	public void add(int row, int col, int value){
+		if (size == rows.length){
+			int capacity = 2 * size;
+			rows = Arrays.copyOf(rows, capacity);
+			cols = Arrays.copyOf(cols, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		rows[size] = row;
+		cols[size] = col;
+		values[size] = value;
+		++size;
+	}
+
+	public void add(Pixel p){
+		add(p.getX(), p.getY(), p.getValue());
+	}
+
+	/** removes the last pixel in the list */
+	public void removeLast(){
+		if (size == 0){
+			throw new IllegalStateException("The list is empty");
+		}
+		--size;
+	}
+
+	public void clear(){
+		size = 0;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	public int getX(int k){
+		checkIndex(k);
+		return rows[k];
+	}
+
+	public int getY(int k){
+		checkIndex(k);
+		return cols[k];
+	}
+
+	public int getRow(int k){
+		checkIndex(k);
+		return rows[k];
+	}
+
+	public int getCol(int k){
+		checkIndex(k);
+		return cols[k];
+	}
+
+	public int getValue(int k){
+		checkIndex(k);
+		return values[k];
+	}
+
+	/** a new Pixel object for the k-th pixel */
+	public Pixel get(int k){
+		checkIndex(k);
+		return new Pixel(rows[k], cols[k], values[k]);
+	}
+
+	public void swap(int a, int b){
+		checkIndex(a);
+		checkIndex(b);
+		int t = rows[a]; rows[a] = rows[b]; rows[b] = t;
+		t = cols[a]; cols[a] = cols[b]; cols[b] = t;
+		t = values[a]; values[a] = values[b]; values[b] = t;
+	}
+
+	public Pixel[] toArray(){
+		Pixel[] result = new Pixel[size];
+		for (int k=0; k < size; ++k){
+			result[k] = new Pixel(rows[k], cols[k], values[k]);
+		}
+		return result;
+	}
+
+	/** the arrays are larger than the list, so indices past the end have to be caught here */
+	private void checkIndex(int k){
+		if (k < 0 || k >= size){
+			throw new IndexOutOfBoundsException("Index: " + k + ", Size: " + size);
+		}
+	}
+
+	/** Sorts the pixels in ascending order of value. */
+	public void sortByValue(){
+		sortBy(values);
+	}
+
+	/**
+	 * Sorts the pixels by row and then by column.
+	 * @see Pixel.CompareLocation
+	 */
+	public void sortByLocation(){
+		sortBy(cols);
+		sortBy(rows);
+	}
+
+	/**
+	 * Sorts the pixels by value, then by row and then by column.
+	 * @see Pixel#compareTo(Pixel)
+	 */
+	public void sort(){
+		sortByLocation();
+		sortByValue();
+	}
+
+	/**
+	 * Stable least-significant-digit radix sort, one byte at a time, of the
+	 * pixels by the given key array, which is one of rows, cols or values.
+	 */
+	private void sortBy(int[] keys){
+		int[] key = new int[size];
+		int[] order = new int[size];
+		for (int k=0; k < size; ++k){
+			key[k] = keys[k] ^ Integer.MIN_VALUE; // so that negative numbers come first
+			order[k] = k;
+		}
+		int[] nextKey = new int[size];
+		int[] nextOrder = new int[size];
+		int[] start = new int[257];
+		for (int shift=0; shift < 32; shift += 8){
+			Arrays.fill(start, 0);
+			for (int k=0; k < size; ++k){
+				++start[((key[k] >>> shift) & 0xFF) + 1];
+			}
+			if (size == 0 || start[((key[0] >>> shift) & 0xFF) + 1] == size){
+				continue; // all the keys have the same byte here
+			}
+			for (int b=0; b < 256; ++b){
+				start[b+1] += start[b];
+			}
+			for (int k=0; k < size; ++k){
+				int pos = start[(key[k] >>> shift) & 0xFF]++;
+				nextKey[pos] = key[k];
+				nextOrder[pos] = order[k];
+			}
+			int[] t = key; key = nextKey; nextKey = t;
+			t = order; order = nextOrder; nextOrder = t;
+		}
+		rows = permute(rows, order);
+		cols = permute(cols, order);
+		values = permute(values, order);
+	}
+
+	private int[] permute(int[] a, int[] order){
+		int[] result = new int[a.length];
+		for (int k=0; k < size; ++k){
+			result[k] = a[order[k]];
+		}
+		return result;
+	}
+
+	public static void main(String[] args){
+		final int size = 1000;
+		int[][] data = new int[size][size];
+		Random random = new Random(0);
+		for (int i=0; i < size; ++i){
+			for (int j=0; j < size; ++j){
+				data[i][j] = random.nextInt(2000) - 1000;
+			}
+		}
+		LatLonGrid grid = new LatLonGrid(data, 0, new LatLon(0, 0), 0.01, 0.01);
+
+		long start = System.currentTimeMillis();
+		PixelList list = grid.asPixelList();
+		list.sort();
+		long mid = System.currentTimeMillis();
+		Pixel[] pixels = grid.asPixels();
+		Arrays.sort(pixels);
+		long end = System.currentTimeMillis();
+
+		int numdiff = 0;
+		for (int k=0; k < pixels.length; ++k){
+			if (!pixels[k].equals(list.get(k))){
+				++numdiff;
+			}
+		}
+		System.out.println("Sorted " + list.size() + " pixels: radix sort " + (mid-start) + " ms; Arrays.sort " + (end-mid) + " ms; "
+				+ numdiff + " pixels differ");
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ *
+ */
+package edu.ou.asgbook.core;
+
+import java.util.Arrays;
+
+/**
+ * A spatial index over observation points.  The bounding box of the points is
+ * divided into square cells and the points in each cell are listed
+ * together, so that finding the points near a location requires looking only
+ * at the cells around it rather than at every point.  Distances are in degrees,
+ * as in the objective analysis techniques.
+ *
+ * @author valliappa.lakshmanan
+ *
+ */
+public class PointIndex {
+	private final PointObservations.ObservationPoint[] points;
+	private final double minlat;
+	private final double minlon;
+	private final double cellSize;
+	private final int nrows;
+	private final int ncols;
+	// the points in cell c are cellPoints[cellStart[c]] to cellPoints[cellStart[c+1]-1]
+	private final int[] cellStart;
+	private final int[] cellPoints;
+
+	/**
+	 * Chooses a cell size so that there are about two points in each cell.
+	 */
+	public PointIndex(PointObservations.ObservationPoint[] points) {
+		this(points, getDefaultCellSize(points));
+	}
+
+	public PointIndex(PointObservations.ObservationPoint[] points, double cellSize) {
+		if (!(cellSize > 0)){
+			throw new IllegalArgumentException("Cell size has to be positive: " + cellSize);
+		}
+		this.points = points;
+		this.cellSize = cellSize;
+		double[] bounds = getBounds(points);
+		this.minlat = bounds[0];
+		this.minlon = bounds[2];
+		this.nrows = (int) ((bounds[1] - bounds[0]) / cellSize) + 1;
+		this.ncols = (int) ((bounds[3] - bounds[2]) / cellSize) + 1;
+
+		// counting sort of the points by cell
+		int[] cell = new int[points.length];
+		this.cellStart = new int[nrows * ncols + 1];
+		for (int k=0; k < points.length; ++k){
+			cell[k] = getRow(points[k].getLat()) * ncols + getCol(points[k].getLon());
+			++cellStart[cell[k] + 1];
+		}
+		for (int c=0; c < nrows * ncols; ++c){
+			cellStart[c+1] += cellStart[c];
+		}
+		this.cellPoints = new int[points.length];
+		int[] next = Arrays.copyOf(cellStart, nrows * ncols);
+		for (int k=0; k < points.length; ++k){
+			cellPoints[next[cell[k]]++] = k;
+		}
+	}
+
+	/** minlat, maxlat, minlon, maxlon; all zero if there are no points */
+	private static double[] getBounds(PointObservations.ObservationPoint[] points){
+		if (points.length == 0){
+			return new double[4];
+		}
+		double[] bounds = { Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE };
+		for (int k=0; k < points.length; ++k){
+			bounds[0] = Math.min(bounds[0], points[k].getLat());
+			bounds[1] = Math.max(bounds[1], points[k].getLat());
+			bounds[2] = Math.min(bounds[2], points[k].getLon());
+			bounds[3] = Math.max(bounds[3], points[k].getLon());
+		}
+		return bounds;
+	}
+
+	private static double getDefaultCellSize(PointObservations.ObservationPoint[] points){
+		double[] bounds = getBounds(points);
+		double height = bounds[1] - bounds[0];
+		double width = bounds[3] - bounds[2];
+		int n = Math.max(1, points.length);
+		double cellSize = Math.sqrt(2 * height * width / n);
+		if (cellSize > 0){
+			return cellSize;
+		}
+		// the points are on a line
+		cellSize = 2 * Math.max(height, width) / n;
+		return (cellSize > 0)? cellSize : 1;
+	}
+
+	private int getRow(double lat){
+		int row = (int) Math.floor((lat - minlat) / cellSize);
+		return Math.max(0, Math.min(nrows-1, row));
+	}
+
+	private int getCol(double lon){
+		int col = (int) Math.floor((lon - minlon) / cellSize);
+		return Math.max(0, Math.min(ncols-1, col));
+	}
+
+	public PointObservations.ObservationPoint[] getPoints() {
+		return points;
+	}
+
+	/**
+	 * The indices, in increasing order, of the points that are no more than radius away.
+	 */
+	public int[] findWithin(double lat, double lon, double radius){
+		final double radiussq = radius * radius;
+		final int r0 = getRow(lat - radius);
+		final int r1 = getRow(lat + radius);
+		final int c0 = getCol(lon - radius);
+		final int c1 = getCol(lon + radius);
+		int[] result = new int[8];
+		int n = 0;
+		for (int r=r0; r <= r1; ++r){
+			for (int c=c0; c <= c1; ++c){
+				final int cell = r * ncols + c;
+				for (int p=cellStart[cell]; p < cellStart[cell+1]; ++p){
+					final int k = cellPoints[p];
+					double latdist = points[k].getLat() - lat;
+					double londist = points[k].getLon() - lon;
+					if (latdist*latdist + londist*londist <= radiussq){
+						if (n == result.length){
+							result = Arrays.copyOf(result, 2*n);
+						}
+						result[n++] = k;
+					}
+				}
+			}
+		}
+		result = Arrays.copyOf(result, n);
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * The index of the point closest to the location, other than the point at
+	 * index exclude (pass -1 to consider all points), or -1 if there is no such point.
+	 */
+	public int findNearest(double lat, double lon, int exclude){
+		final int row = getRow(lat);
+		final int col = getCol(lon);
+		int best = -1;
+		double bestdistsq = Double.MAX_VALUE;
+		// look at rings of cells around the location until the ring is further than the best point
+		for (int ring=0; ring < Math.max(nrows, ncols); ++ring){
+			double ringdist = (ring - 1) * cellSize;
+			if (best >= 0 && ring > 0 && bestdistsq <= ringdist * ringdist){
+				break;
+			}
+			for (int r=row-ring; r <= row+ring; ++r){
+				if (r < 0 || r >= nrows){
+					continue;
+				}
+				final boolean edgeRow = (r == row-ring || r == row+ring);
+				final int step = edgeRow? 1 : 2*ring;
+				for (int c=col-ring; c <= col+ring; c += Math.max(1, step)){
+					if (c < 0 || c >= ncols){
+						continue;
+					}
+					final int cell = r * ncols + c;
+					for (int p=cellStart[cell]; p < cellStart[cell+1]; ++p){
+						final int k = cellPoints[p];
+						if (k != exclude){
+							double latdist = points[k].getLat() - lat;
+							double londist = points[k].getLon() - lon;
+							double distsq = latdist*latdist + londist*londist;
+							if (distsq < bestdistsq || (distsq == bestdistsq && k < best)){
+								best = k;
+								bestdistsq = distsq;
+							}
+						}
+					}
+				}
+			}
+		}
+		return best;
+	}
+}
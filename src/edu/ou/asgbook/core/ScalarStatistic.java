@@ -57,6 +57,18 @@ public class ScalarStatistic {
 		N += other.N;
 	}
 	
+	/**
+	 * Replaces the statistic with one that has the given sums, as when the
+	 * sums come from a SummedAreaTable.  The min and max are not known.
+	 */
+	void setSums(double sumx, double sumx2, int N){
+		this.sumx = sumx;
+		this.sumx2 = sumx2;
+		this.N = N;
+		this.N_at_lastcompute = 0;
+		this.min = this.max = 0;
+	}
+
 	private void compute(){
 		if ( N != N_at_lastcompute){ // N > 0 for this to ever happen
 			mean = sumx / N;
@@ -0,0 +1,85 @@
+/**
+ *
+ */
+package edu.ou.asgbook.core;
+
+/**
+ * The maximum or minimum of the non-missing values in a rectangular window
+ * around every pixel, with windows clipped at the edges of the grid.
+ * The window is separable, so this slides a one-dimensional window along
+ * every row and then along every column.  Each pass keeps a deque of the
+ * positions whose values could still be the extremum, in monotonic order of
+ * value, so that every pixel is added and removed at most once whatever
+ * the size of the window.
+ *
+ * @author v.lakshmanan
+ *
+ */
+public class SlidingExtremum {
+	/**
+	 * Pixels with no valid value in their window are missing.
+	 * @param hx the window extends hx rows on either side
+	 * @param hy the window extends hy columns on either side
+	 */
+	public static LatLonGrid max(LatLonGrid input, int hx, int hy){
+		return compute(input, hx, hy, true);
+	}
+
+	/** @see #max(LatLonGrid, int, int) */
+	public static LatLonGrid min(LatLonGrid input, int hx, int hy){
+		return compute(input, hx, hy, false);
+	}
+
+	private static LatLonGrid compute(LatLonGrid input, int hx, int hy, boolean findMax){
+		final int nrows = input.getNumLat();
+		final int ncols = input.getNumLon();
+		final int missing = input.getMissing();
+		final int[] result = new int[nrows*ncols];
+		final int[] in = new int[Math.max(nrows, ncols)];
+		final int[] out = new int[in.length];
+		final int[] deque = new int[in.length];
+
+		// along rows
+		for (int i=0; i < nrows; ++i){
+			input.getRowValues(i, in);
+			slide(in, ncols, hy, missing, findMax, out, deque);
+			System.arraycopy(out, 0, result, i*ncols, ncols);
+		}
+
+		// along columns
+		for (int j=0; j < ncols; ++j){
+			for (int i=0, k=j; i < nrows; ++i, k += ncols){
+				in[i] = result[k];
+			}
+			slide(in, nrows, hx, missing, findMax, out, deque);
+			for (int i=0, k=j; i < nrows; ++i, k += ncols){
+				result[k] = out[i];
+			}
+		}
+		return new LatLonGrid(result, nrows, ncols, missing, input.getNwCorner(), input.getLatRes(), input.getLonRes());
+	}
+
+	/**
+	 * out[k] is the extremum of the valid values in[k-half] through in[k+half].
+	 */
+	private static void slide(int[] in, int n, int half, int missing, boolean findMax, int[] out, int[] deque){
+		int head = 0, tail = 0; // deque[head..tail) holds positions
+		for (int k=0; k < n + half; ++k){
+			if (k < n && in[k] != missing){
+				final int v = in[k];
+				// drop positions that can no longer be the extremum
+				while (tail > head && (findMax? in[deque[tail-1]] <= v : in[deque[tail-1]] >= v)){
+					--tail;
+				}
+				deque[tail++] = k;
+			}
+			final int center = k - half;
+			if (center >= 0){
+				while (tail > head && deque[head] < center - half){
+					++head;
+				}
+				out[center] = (tail > head)? in[deque[head]] : missing;
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ *
+ */
+package edu.ou.asgbook.core;
+
+/**
+ * An integral image of a grid: the sum, sum of squares and number of the
+ * non-missing values above and to the left of every pixel.  Once built,
+ * the sum, mean or standard deviation over any rectangular window is found
+ * with four lookups regardless of the size of the window.
+ *
+ * The sums are held as longs.  Because window sums are differences of the
+ * running sums, they are correct as long as the sum within the window fits in a long.
+ *
+ * @author v.lakshmanan
+ *
+ */
+public class SummedAreaTable {
+	private final int nrows;
+	private final int ncols;
+	private final int stride;
+	private final long[] sum;
+	private final long[] sumsq;
+	private final int[] count;
+
+	public SummedAreaTable(LatLonGrid grid) {
+		this.nrows = grid.getNumLat();
+		this.ncols = grid.getNumLon();
+		this.stride = ncols + 1;
+		this.sum = new long[(nrows+1)*stride];
+		this.sumsq = new long[sum.length];
+		this.count = new int[sum.length];
+		final int missing = grid.getMissing();
+		int[] row = new int[ncols];
+		for (int i=0; i < nrows; ++i){
+			grid.getRowValues(i, row);
+			long rowsum = 0, rowsumsq = 0;
+			int rowcount = 0;
+			final int above = i*stride + 1;
+			final int k = above + stride;
+			for (int j=0; j < ncols; ++j){
+				int v = row[j];
+				if (v != missing){
+					rowsum += v;
+					rowsumsq += ((long) v)*v;
+					++rowcount;
+				}
+				sum[k+j] = sum[above+j] + rowsum;
+				sumsq[k+j] = sumsq[above+j] + rowsumsq;
+				count[k+j] = count[above+j] + rowcount;
+			}
+		}
+	}
+
+	public int getNumLat() {
+		return nrows;
+	}
+
+	public int getNumLon() {
+		return ncols;
+	}
+
+	/**
+	 * Number of non-missing pixels in the window from (row0,col0) to (row1,col1), both inclusive.
+	 * The window is clipped to the grid.
+	 */
+	public int getCount(int row0, int col0, int row1, int col1){
+		row0 = Math.max(row0, 0);
+		col0 = Math.max(col0, 0);
+		row1 = Math.min(row1, nrows-1) + 1;
+		col1 = Math.min(col1, ncols-1) + 1;
+		if (row0 >= row1 || col0 >= col1){
+			return 0;
+		}
+		return count[row1*stride+col1] - count[row0*stride+col1] - count[row1*stride+col0] + count[row0*stride+col0];
+	}
+
+	/** Sum of the non-missing pixels in the window. @see #getCount(int, int, int, int) */
+	public long getSum(int row0, int col0, int row1, int col1){
+		return windowSum(sum, row0, col0, row1, col1);
+	}
+
+	/** Sum of the squares of the non-missing pixels in the window. @see #getCount(int, int, int, int) */
+	public long getSumOfSquares(int row0, int col0, int row1, int col1){
+		return windowSum(sumsq, row0, col0, row1, col1);
+	}
+
+	/**
+	 * Sets the statistic to the sums over the window, so that one statistic
+	 * can be reused for every pixel.  The statistic does not know the min and
+	 * max of the window; use SlidingExtremum for those.
+	 * @return stat
+	 */
+	public ScalarStatistic getStatistic(int row0, int col0, int row1, int col1, ScalarStatistic stat){
+		stat.setSums(getSum(row0, col0, row1, col1), getSumOfSquares(row0, col0, row1, col1), getCount(row0, col0, row1, col1));
+		return stat;
+	}
+
+	private long windowSum(long[] table, int row0, int col0, int row1, int col1){
+		row0 = Math.max(row0, 0);
+		col0 = Math.max(col0, 0);
+		row1 = Math.min(row1, nrows-1) + 1;
+		col1 = Math.min(col1, ncols-1) + 1;
+		if (row0 >= row1 || col0 >= col1){
+			return 0;
+		}
+		return table[row1*stride+col1] - table[row0*stride+col1] - table[row1*stride+col0] + table[row0*stride+col0];
+	}
+}
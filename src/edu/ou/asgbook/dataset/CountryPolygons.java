@@ -19,6 +19,7 @@ import org.w3c.dom.NodeList;
 
 import edu.ou.asgbook.core.LatLon;
 import edu.ou.asgbook.core.LatLonGrid;
+import edu.ou.asgbook.io.BinaryGrid;
 import edu.ou.asgbook.io.EsriGrid;
 import edu.ou.asgbook.io.KmlWriter;
 import edu.ou.asgbook.io.OutputDirectory;
@@ -81,8 +82,11 @@ public class CountryPolygons {
 		return readKml(f);
 	}
 	
+	/**
+	 * reads data from a ESRI grid file, using a binary copy cached next to the file if possible.
+	 */
 	public static LatLonGrid readGrid(File file) throws Exception {
-		return EsriGrid.read(file, new LinearScaling(1));
+		return BinaryGrid.readCached(file, new LinearScaling(1));
 	}
 	
 	private static Country[] readKml(InputStream f) throws Exception {
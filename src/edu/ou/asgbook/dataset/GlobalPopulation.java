@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.io.Reader;
 
 import edu.ou.asgbook.core.LatLonGrid;
+import edu.ou.asgbook.io.BinaryGrid;
 import edu.ou.asgbook.io.EsriGrid;
 import edu.ou.asgbook.io.KmlWriter;
 import edu.ou.asgbook.io.OutputDirectory;
@@ -27,12 +28,24 @@ public class GlobalPopulation {
 		public LogScaling(){
 			super(100);
 		}
+
+		/** only the scale is fixed, so the data are cached under the parent's name */
+		@Override
+		public String getName(){
+			return super.getName();
+		}
 	}
 
 	public static class LinearScaling extends edu.ou.asgbook.linearity.LinearScaling {
 		public LinearScaling(){
 			super(0.001);
 		}
+
+		/** only the scale is fixed, so the data are cached under the parent's name */
+		@Override
+		public String getName(){
+			return super.getName();
+		}
 	}
 	
 	public static LatLonGrid read(Reader inputFile, DataTransform t) {
@@ -45,9 +58,10 @@ public class GlobalPopulation {
 	
 	/**
 	 * reads data from a File. The File can be gzipped or uncompressed.
+	 * A binary copy is cached next to the file to speed up later reads.
 	 */
 	public static LatLonGrid read(File file, DataTransform t) throws IOException {
-		return EsriGrid.read(file, t);
+		return BinaryGrid.readCached(file, t);
 	}
 
 	public static LatLonGrid read(File file) throws IOException {
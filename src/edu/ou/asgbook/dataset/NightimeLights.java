@@ -7,7 +7,7 @@ import java.io.File;
 import java.io.IOException;
 
 import edu.ou.asgbook.core.LatLonGrid;
-import edu.ou.asgbook.io.EsriGrid;
+import edu.ou.asgbook.io.BinaryGrid;
 import edu.ou.asgbook.io.KmlWriter;
 import edu.ou.asgbook.io.OutputDirectory;
 import edu.ou.asgbook.io.PngWriter;
@@ -24,7 +24,7 @@ public class NightimeLights {
 	public static File WORLD = new File("data/nighttime/nighttimelights.txt.gz");
 	
 	public static LatLonGrid read(File file) throws IOException {
-		return EsriGrid.read(file, new LinearScaling(100.0/63)); // 0-100
+		return BinaryGrid.readCached(file, new LinearScaling(100.0/63)); // 0-100
 	}
 	
 	public static void main(String[] args) throws Exception {
@@ -17,6 +17,7 @@ import java.util.TreeMap;
 import java.util.zip.GZIPInputStream;
 
 import edu.ou.asgbook.core.LatLonGrid;
+import edu.ou.asgbook.io.BinaryGrid;
 import edu.ou.asgbook.io.EsriGrid;
 import edu.ou.asgbook.io.KmlWriter;
 import edu.ou.asgbook.io.OutputDirectory;
@@ -82,9 +83,10 @@ public class WorldBankGDI {
 	
 	/**
 	 * reads data from a ESRI grid file. The File can be gzipped or uncompressed.
+	 * A binary copy is cached next to the file to speed up later reads.
 	 */
 	public static LatLonGrid readGrid(File file) throws IOException {
-		return EsriGrid.read(file, new LinearScaling(1));
+		return BinaryGrid.readCached(file, new LinearScaling(1));
 	}
 	
 	private static CountryDI[] read(Reader f) throws IOException {
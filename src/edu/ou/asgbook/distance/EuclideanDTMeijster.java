@@ -0,0 +1,227 @@
+/**
+ *
+ */
+package edu.ou.asgbook.distance;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import edu.ou.asgbook.core.LatLonGrid;
+import edu.ou.asgbook.dataset.GlobalPopulation;
+import edu.ou.asgbook.io.KmlWriter;
+import edu.ou.asgbook.io.OutputDirectory;
+import edu.ou.asgbook.io.PngWriter;
+
+/**
+ * The Meijster technique of computing the exact distance transform in time
+ * that is linear in the number of pixels.  The first stage is the same as in
+ * Saito's method.  In the second stage, instead of trying every row, each
+ * column keeps the lower envelope of the parabolas (x-i)^2 + G(i), so that
+ * every row is added to and removed from the envelope only once.  Rows are
+ * independent of each other in the first stage and columns in the second,
+ * so both stages are carried out in parallel.
+ *
+ * The result is identical to that of EuclideanDTSaito.
+ *
+ * @author v.lakshmanan
+ *
+ */
+public class EuclideanDTMeijster implements EuclideanDT {
+	private final ForkJoinPool pool;
+
+	/**
+	 * Uses the common fork-join pool.
+	 */
+	public EuclideanDTMeijster() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	public EuclideanDTMeijster(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	@Override
+	public LatLonGrid getDistanceTransform(final LatLonGrid data, final int thresh) {
+		final int nrows = data.getNumLat();
+		final int ncols = data.getNumLon();
+		final int MAXDIST = nrows * nrows + ncols * ncols;
+		final int[] dist = new int[nrows * ncols];
+		final int numTasks = 4 * pool.getParallelism();
+
+		// first stage: distance to nearest point in the same row
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int t=0; t < numTasks; ++t){
+			final int start = (int) ((long) nrows * t / numTasks);
+			final int end = (int) ((long) nrows * (t+1) / numTasks);
+			tasks.add(new Callable<Void>(){
+				@Override
+				public Void call() {
+					int[] row = new int[ncols];
+					for (int i=start; i < end; ++i){
+						data.getRowValues(i, row);
+						computeFirstStage(row, thresh, MAXDIST, dist, i*ncols);
+					}
+					return null;
+				}
+			});
+		}
+		invokeAll(tasks);
+
+		// second stage: combine the rows within each column
+		tasks.clear();
+		for (int t=0; t < numTasks; ++t){
+			final int start = (int) ((long) ncols * t / numTasks);
+			final int end = (int) ((long) ncols * (t+1) / numTasks);
+			tasks.add(new Callable<Void>(){
+				@Override
+				public Void call() {
+					int[] g = new int[nrows];
+					int[] s = new int[nrows];
+					int[] w = new int[nrows];
+					for (int j=start; j < end; ++j){
+						computeSecondStage(dist, j, ncols, nrows, MAXDIST, g, s, w);
+					}
+					return null;
+				}
+			});
+		}
+		invokeAll(tasks);
+
+		return new LatLonGrid(dist, nrows, ncols, MAXDIST,
+				data.getNwCorner(), data.getLatRes(), data.getLonRes());
+	}
+
+	/**
+	 * Square of the distance to the nearest pixel > thresh in the row, or MAXDIST
+	 */
+	private static void computeFirstStage(int[] row, int thresh, int MAXDIST, int[] dist, int offset) {
+		final int ncols = row.length;
+		int prev = -1;
+		for (int j = 0; j < ncols; ++j) {
+			if (row[j] > thresh) {
+				prev = j;
+				dist[offset + j] = 0;
+			} else if (prev < 0) {
+				dist[offset + j] = MAXDIST;
+			} else {
+				dist[offset + j] = (j - prev) * (j - prev);
+			}
+		}
+		prev = -1;
+		for (int j = ncols - 1; j >= 0; --j) {
+			if (row[j] > thresh) {
+				prev = j;
+			} else if (prev >= 0) {
+				dist[offset + j] = Math.min(dist[offset + j], (j - prev) * (j - prev));
+			}
+		}
+	}
+
+	/**
+	 * Replaces column j of dist by min over x of (i-x)^2 + G(x), capped at MAXDIST.
+	 * s holds the rows whose parabolas form the lower envelope and w the row
+	 * from which each of them is the lowest.
+	 */
+	private static void computeSecondStage(int[] dist, int j, int ncols, int nrows, int MAXDIST, int[] g, int[] s, int[] w) {
+		for (int x = 0, k = j; x < nrows; ++x, k += ncols) {
+			g[x] = dist[k];
+		}
+		int q = 0;
+		s[0] = 0;
+		w[0] = 0;
+		for (int u = 1; u < nrows; ++u) {
+			while (q >= 0 && f(w[q], s[q], g) > f(w[q], u, g)) {
+				--q;
+			}
+			if (q < 0) {
+				q = 0;
+				s[0] = u;
+			} else {
+				long sep = 1 + sep(s[q], u, g);
+				if (sep < nrows) {
+					++q;
+					s[q] = u;
+					w[q] = (int) sep;
+				}
+			}
+		}
+		for (int u = nrows - 1, k = u*ncols + j; u >= 0; --u, k -= ncols) {
+			dist[k] = (int) Math.min(MAXDIST, f(u, s[q], g));
+			if (u == w[q]) {
+				--q;
+			}
+		}
+	}
+
+	private static long f(int x, int i, int[] g) {
+		return (long) (x - i) * (x - i) + g[i];
+	}
+
+	/**
+	 * The last row at which the parabola of row i is no higher than that of row u > i
+	 */
+	private static long sep(int i, int u, int[] g) {
+		long num = (long) u * u - (long) i * i + g[u] - g[i];
+		return Math.floorDiv(num, 2L * (u - i));
+	}
+
+	private void invokeAll(List<Callable<Void>> tasks) {
+		try {
+			for (Future<Void> result : pool.invokeAll(tasks)){
+				result.get();
+			}
+		} catch (InterruptedException e){
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e){
+			if (e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		File out = OutputDirectory.getDefault("euclideandt");
+		LatLonGrid popdensity = GlobalPopulation
+				.read(GlobalPopulation.NORTHAMERICA);
+
+		// validate against the other techniques on a part of the grid
+		LatLonGrid crop = popdensity.crop(900, 2500, 400, 400);
+		LatLonGrid meijster = new EuclideanDTMeijster().getDistanceTransform(crop, 50);
+		LatLonGrid saito = new EuclideanDTSaito().getDistanceTransform(crop, 50);
+		LatLonGrid propagation = new EuclideanDTPropagation().getDistanceTransform(crop, 50);
+		int numdiffSaito = 0, numdiffPropagation = 0;
+		for (int i=0; i < crop.getNumLat(); ++i) for (int j=0; j < crop.getNumLon(); ++j){
+			if (meijster.getValue(i,j) != saito.getValue(i,j)){
+				++numdiffSaito;
+			}
+			// propagation stops at 250 pixels
+			if (meijster.getValue(i,j) < 250*250 && meijster.getValue(i,j) != propagation.getValue(i,j)){
+				++numdiffPropagation;
+			}
+		}
+		System.out.println(numdiffSaito + " pixels differ from Saito; " + numdiffPropagation + " from propagation within 250 pixels");
+
+		// the whole grid
+		long start = System.currentTimeMillis();
+		LatLonGrid edt = new EuclideanDTMeijster().getDistanceTransform(popdensity, 50);
+		long end = System.currentTimeMillis();
+		System.out.println("Distance transform of " + popdensity.getNumLat() + "x" + popdensity.getNumLon() + " grid took " + (end-start) + " ms");
+
+		// write it clamped out at a reasonable distance
+		final int maxdist = 250 * 250;
+		for (int i=0; i < edt.getNumLat(); ++i){
+			for (int j=0; j < edt.getNumLon(); ++j){
+				if ( edt.getValue(i,j) > maxdist){
+					edt.setValue(i,j, edt.getMissing() );
+				}
+			}
+		}
+		KmlWriter.write(edt, out, "edtmeijster", PngWriter.createCoolToWarmColormap());
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ *
+ */
+package edu.ou.asgbook.filters;
+
+import java.io.File;
+
+import edu.ou.asgbook.core.LatLonGrid;
+import edu.ou.asgbook.core.SummedAreaTable;
+import edu.ou.asgbook.dataset.GlobalPopulation;
+import edu.ou.asgbook.io.KmlWriter;
+import edu.ou.asgbook.io.OutputDirectory;
+import edu.ou.asgbook.io.PngWriter;
+
+/**
+ * Smooths an image by averaging the non-missing values in a rectangular window.
+ * This gives the same result as smoothing with ConvolutionFilter.boxcar()
+ * but uses a summed-area table, so the time taken does not depend on the size
+ * of the window.
+ *
+ * @author Valliappa.Lakshmanan
+ *
+ */
+public class BoxcarFilter implements LocalSpatialFilter {
+	private final int hx;
+	private final int hy;
+
+	/**
+	 * @param hx the window extends hx rows on either side
+	 * @param hy the window extends hy columns on either side
+	 */
+	public BoxcarFilter(int hx, int hy) {
+		this.hx = hx;
+		this.hy = hy;
+	}
+
+	/**
+	 * Pixels within the half-size of the edge, and pixels with no valid values in their window, are missing.
+	 */
+	public LatLonGrid smooth(final LatLonGrid input){
+		LatLonGrid output = LatLonGrid.copyOf(input);
+		output.fill(output.getMissing());
+		SummedAreaTable table = new SummedAreaTable(input);
+		final int nx = output.getNumLat();
+		final int ny = output.getNumLon();
+		int[] row = new int[ny];
+		for (int i=hx; i < (nx-hx); ++i){
+			output.getRowValues(i, row);
+			for (int j=hy; j < (ny-hy); ++j){
+				int count = table.getCount(i-hx, j-hy, i+hx, j+hy);
+				if ( count > 0 ){
+					row[j] = (int)( Math.round(table.getSum(i-hx, j-hy, i+hx, j+hy) / (double) count) );
+				}
+			}
+			output.setRowValues(i, row);
+		}
+		return output;
+	}
+
+	@Override
+	public int getHaloRows() {
+		return hx;
+	}
+
+	@Override
+	public int getHaloCols() {
+		return hy;
+	}
+
+	@Override
+	public LatLonGrid filter(LatLonGrid input) {
+		return smooth(input);
+	}
+
+	public static void main(String[] args) throws Exception {
+		// create output directory
+		File out = OutputDirectory.getDefault("boxcar");
+
+		// read input
+		LatLonGrid popdensity = GlobalPopulation.read(GlobalPopulation.NORTHAMERICA, new GlobalPopulation.LogScaling()).crop(600, 2000, 800, 1200);
+
+		// summed-area table versus convolution
+		for (int halfSize=1; halfSize <= 16; halfSize *= 2){
+			long start = System.currentTimeMillis();
+			LatLonGrid a = new ConvolutionFilter(ConvolutionFilter.boxcar(2*halfSize+1, 2*halfSize+1)).smooth(popdensity);
+			long mid = System.currentTimeMillis();
+			LatLonGrid b = new BoxcarFilter(halfSize, halfSize).smooth(popdensity);
+			long end = System.currentTimeMillis();
+			int numdiff = 0;
+			for (int i=0; i < a.getNumLat(); ++i) for (int j=0; j < a.getNumLon(); ++j){
+				if (a.getValue(i,j) != b.getValue(i,j)){
+					++numdiff;
+				}
+			}
+			System.out.println("halfSize=" + halfSize + ": convolution " + (mid-start) + " ms; summed-area table " + (end-mid) + " ms; " + numdiff + " pixels differ");
+			KmlWriter.write(b, out, "boxcar_" + (2*halfSize+1), PngWriter.createCoolToWarmColormap());
+		}
+	}
+}
@@ -17,7 +17,7 @@ import edu.ou.asgbook.io.PngWriter;
  * @author Valliappa.Lakshmanan
  *
  */
-public class ConvolutionFilter implements SpatialFilter {
+public class ConvolutionFilter implements LocalSpatialFilter {
 	private double[][] coeffs;
 	
 	public ConvolutionFilter(double[][] coeffs) {
@@ -42,20 +42,22 @@ public class ConvolutionFilter implements SpatialFilter {
 	public LatLonGrid smooth(final LatLonGrid input){
 		LatLonGrid output = LatLonGrid.copyOf(input);
 		output.fill(output.getMissing());
-		int[][] outData = output.getData();
-		int[][] inData = input.getData();
 		final int hx = coeffs.length / 2;
 		final int hy = coeffs[0].length / 2;
 		final int nx = output.getNumLat();
 		final int ny = output.getNumLon();
+		RowWindow inData = new RowWindow(input, hx);
+		int[] outRow = new int[ny];
 		for (int i=hx; i < (nx-hx); ++i){
+			output.getRowValues(i, outRow);
 			for (int j=hy; j < (ny-hy); ++j){
 				double tot = 0;
 				double wt = 0;
 				for (int m=-hx; m <= hx; ++m){
+					int[] inRow = inData.getRow(i+m);
 					for (int n=-hy; n <= hy; ++n){
 						double coeff = coeffs[m+hx][n+hy];
-						int inval = inData[i+m][j+n];
+						int inval = inRow[j+n];
 						if (inval != input.getMissing()){
 							tot += inval*coeff;
 							wt += coeff;
@@ -63,9 +65,10 @@ public class ConvolutionFilter implements SpatialFilter {
 					}
 				}
 				if ( wt > 0 ){
-					outData[i][j] = (int)( Math.round(tot / wt) );
+					outRow[j] = (int)( Math.round(tot / wt) );
 				}
 			}
+			output.setRowValues(i, outRow);
 		}
 		return output;
 	}
@@ -77,26 +80,29 @@ public class ConvolutionFilter implements SpatialFilter {
 	public LatLonGrid convolve(final LatLonGrid input){
 		LatLonGrid output = LatLonGrid.copyOf(input);
 		output.fill(output.getMissing());
-		int[][] outData = output.getData();
-		int[][] inData = input.getData();
 		final int hx = coeffs.length / 2;
 		final int hy = coeffs[0].length / 2;
 		final int nx = output.getNumLat();
 		final int ny = output.getNumLon();
+		RowWindow inData = new RowWindow(input, hx);
+		int[] outRow = new int[ny];
 		for (int i=hx; i < (nx-hx); ++i){
+			output.getRowValues(i, outRow);
 			for (int j=hy; j < (ny-hy); ++j){
 				double tot = 0;
 				for (int m=-hx; m <= hx; ++m){
+					int[] inRow = inData.getRow(i+m);
 					for (int n=-hy; n <= hy; ++n){
 						double coeff = coeffs[m+hx][n+hy];
-						int inval = inData[i+m][j+n];
+						int inval = inRow[j+n];
 						if (inval != input.getMissing()){
 							tot += inval*coeff;
 						}
 					}
 				}
-				outData[i][j] = (int) Math.round(tot);
+				outRow[j] = (int) Math.round(tot);
 			}
+			output.setRowValues(i, outRow);
 		}
 		return output;
 	}
@@ -162,6 +168,16 @@ public class ConvolutionFilter implements SpatialFilter {
 		}
 	}
 
+	@Override
+	public int getHaloRows() {
+		return coeffs.length / 2;
+	}
+
+	@Override
+	public int getHaloCols() {
+		return coeffs[0].length / 2;
+	}
+
 	@Override
 	public LatLonGrid filter(LatLonGrid input) {
 		return convolve(input);
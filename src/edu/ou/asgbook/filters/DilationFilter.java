@@ -17,34 +17,61 @@ import edu.ou.asgbook.io.PngWriter;
  * @author Valliappa.Lakshmanan
  *
  */
-public class DilationFilter implements SpatialFilter {
+public class DilationFilter implements LocalSpatialFilter {
 	private int halfSize;
 	
 	public DilationFilter(int halfSize) {
 		this.halfSize = halfSize;
 	}
 	
+	@Override
+	public int getHaloRows() {
+		return halfSize;
+	}
+
+	@Override
+	public int getHaloCols() {
+		return halfSize;
+	}
+
 	@Override
 	public LatLonGrid filter(LatLonGrid input) {
 		return dilate(input);
 	}
 
+	/**
+	 * Uses the van Herk/Gil-Werman algorithm, whose cost per pixel does not
+	 * depend on the size of the window.
+	 */
 	public LatLonGrid dilate(final LatLonGrid input){
+		LatLonGrid output = RunningExtremum.compute(input, halfSize, true);
+		if (output == null){
+			return dilateByScan(input);
+		}
+		return output;
+	}
+
+	/**
+	 * Finds the maximum by scanning the entire window around every pixel.
+	 */
+	public LatLonGrid dilateByScan(final LatLonGrid input){
 		LatLonGrid output = LatLonGrid.copyOf(input);
 		output.fill(output.getMissing());
-		int[][] outData = output.getData();
-		int[][] inData = input.getData();
 		int hx = halfSize;
 		int hy = halfSize;
-		int nx = inData.length;
-		int ny = inData[0].length;
+		int nx = input.getNumLat();
+		int ny = input.getNumLon();
+		RowWindow inData = new RowWindow(input, hx);
+		int[] outRow = new int[ny];
 		for (int i=hx; i < (nx-hx); ++i){
+			output.getRowValues(i, outRow);
 			for (int j=hy; j < (ny-hy); ++j){
 				int max = input.getMissing();
 				boolean set = false;
 				for (int m=-hx; m <= hx; ++m){
+					int[] inRow = inData.getRow(i+m);
 					for (int n=-hy; n <= hy; ++n){
-						int inval = inData[i+m][j+n];
+						int inval = inRow[j+n];
 						if (inval != input.getMissing()){
 							if ( !set || inval > max ){
 								max = inval;
@@ -54,9 +81,10 @@ public class DilationFilter implements SpatialFilter {
 					}
 				}
 				if ( set ){
-					outData[i][j] = max;
+					outRow[j] = max;
 				}
 			}
+			output.setRowValues(i, outRow);
 		}
 		return output;
 	}
@@ -76,5 +104,23 @@ public class DilationFilter implements SpatialFilter {
 		KmlWriter.write(dilate3, out, "dilate_7", PngWriter.createCoolToWarmColormap());
 		LatLonGrid dilate5 = new DilationFilter(5).dilate(popdensity);
 		KmlWriter.write(dilate5, out, "dilate_11", PngWriter.createCoolToWarmColormap());
+		
+		// running maximum versus scanning the window on a larger area
+		LatLonGrid large = GlobalPopulation.read(GlobalPopulation.NORTHAMERICA, new GlobalPopulation.LogScaling()).crop(600, 2000, 800, 1200);
+		for (int halfSize=1; halfSize <= 16; halfSize *= 2){
+			DilationFilter filter = new DilationFilter(halfSize);
+			long start = System.currentTimeMillis();
+			LatLonGrid a = filter.dilateByScan(large);
+			long mid = System.currentTimeMillis();
+			LatLonGrid b = filter.dilate(large);
+			long end = System.currentTimeMillis();
+			int numdiff = 0;
+			for (int i=0; i < a.getNumLat(); ++i) for (int j=0; j < a.getNumLon(); ++j){
+				if (a.getValue(i,j) != b.getValue(i,j)){
+					++numdiff;
+				}
+			}
+			System.out.println("halfSize=" + halfSize + ": scan " + (mid-start) + " ms; van Herk/Gil-Werman " + (end-mid) + " ms; " + numdiff + " pixels differ");
+		}
 	}
 }
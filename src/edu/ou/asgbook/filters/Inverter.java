@@ -24,14 +24,15 @@ public class Inverter implements SpatialFilter {
 
 	public LatLonGrid invert(final LatLonGrid input){
 		LatLonGrid output = LatLonGrid.copyOf(input);
-		int[][] outData = output.getData();
-		int[][] inData = input.getData();
+		int[] row = new int[output.getNumLon()];
 		for (int i=0; i < output.getNumLat(); ++i){
-			for (int j=0; j < output.getNumLon(); ++j){
-				if ( inData[i][j] != input.getMissing() ){
-					outData[i][j] = A - inData[i][j];
+			output.getRowValues(i, row);
+			for (int j=0; j < row.length; ++j){
+				if ( row[j] != input.getMissing() ){
+					row[j] = A - row[j];
 				}
 			}
+			output.setRowValues(i, row);
 		}
 		return output;
 	}
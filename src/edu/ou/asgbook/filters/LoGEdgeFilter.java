@@ -14,7 +14,7 @@ import edu.ou.asgbook.linearity.DataTransform;
  * @author valliappa.lakshmanan
  *
  */
-public class LoGEdgeFilter implements SpatialFilter {
+public class LoGEdgeFilter implements LocalSpatialFilter {
 	private final ConvolutionFilter log;
 	private final int thresh;
 	
@@ -37,6 +37,17 @@ public class LoGEdgeFilter implements SpatialFilter {
 		this.thresh = edgethresh;
 	}
 	
+	/** zero crossings are only looked for this far from the edge of the grid */
+	@Override
+	public int getHaloRows() {
+		return log.getFilterNumRows();
+	}
+
+	@Override
+	public int getHaloCols() {
+		return log.getFilterNumRows();
+	}
+
 	@Override
 	public LatLonGrid filter(LatLonGrid input) {
 		return edgeFilter(input);
@@ -0,0 +1,18 @@
+package edu.ou.asgbook.filters;
+
+/**
+ * A spatial filter whose output at a pixel depends only on the input pixels
+ * within a fixed neighborhood of that pixel.  Such filters can be applied
+ * to overlapping tiles of a grid independently.
+ *
+ * @see TiledFilter
+ * @author Valliappa.Lakshmanan
+ *
+ */
+public interface LocalSpatialFilter extends SpatialFilter {
+	/** Number of rows on either side of a pixel that its output depends on. */
+	public int getHaloRows();
+
+	/** Number of columns on either side of a pixel that its output depends on. */
+	public int getHaloCols();
+}
@@ -18,7 +18,7 @@ import edu.ou.asgbook.io.PngWriter;
  * @author Valliappa.Lakshmanan
  *
  */
-public class MatchedFilter implements SpatialFilter {
+public class MatchedFilter implements LocalSpatialFilter {
 	private double[][] coeffs;
 	
 	public MatchedFilter(double[][] coeffs) {
@@ -51,20 +51,22 @@ public class MatchedFilter implements SpatialFilter {
 		LatLonGrid output = LatLonGrid.copyOf(input);
 		output.setMissing(-1);
 		output.fill(output.getMissing());
-		int[][] outData = output.getData();
-		int[][] inData = input.getData();
 		final int hx = coeffs.length / 2;
 		final int hy = coeffs[0].length / 2;
 		final int nx = output.getNumLat();
 		final int ny = output.getNumLon();
+		RowWindow inData = new RowWindow(input, hx);
+		int[] outRow = new int[ny];
 		for (int i=hx; i < (nx-hx); ++i){
+			output.getRowValues(i, outRow);
 			for (int j=hy; j < (ny-hy); ++j){
 				double tot = 0;
 				int totval = 0; // normalize values in window
 				for (int m=-hx; m <= hx; ++m){
+					int[] inRow = inData.getRow(i+m);
 					for (int n=-hy; n <= hy; ++n){
 						double coeff = coeffs[m+hx][n+hy];
-						int inval = inData[i+m][j+n];
+						int inval = inRow[j+n];
 						if (inval != input.getMissing()){
 							tot += inval*coeff;
 							totval += inval;
@@ -72,9 +74,10 @@ public class MatchedFilter implements SpatialFilter {
 					}
 				}
 				if (totval != 0){
-					outData[i][j] = (int) Math.round(10000 * tot / totval);
+					outRow[j] = (int) Math.round(10000 * tot / totval);
 				}
 			}
+			output.setRowValues(i, outRow);
 		}
 		return output;
 	}
@@ -120,6 +123,16 @@ public class MatchedFilter implements SpatialFilter {
 		}
 	}
 
+	@Override
+	public int getHaloRows() {
+		return coeffs.length / 2;
+	}
+
+	@Override
+	public int getHaloCols() {
+		return coeffs[0].length / 2;
+	}
+
 	@Override
 	public LatLonGrid filter(LatLonGrid input) {
 		return match(input);
@@ -25,25 +25,26 @@ public class MaxValueFilter {
 	}
 	
 	public Result findHighestValued(LatLonGrid input){
-		int[][] data = input.getData();
 		int x = -1;
 		int y = -1;
 		int maxval = input.getMissing();
+		int[] row = new int[input.getNumLon()];
 		for (int i=0; i < input.getNumLat(); ++i){
+			input.getRowValues(i, row);
 			for (int j=0; j < input.getNumLon(); ++j){
-				if ( data[i][j] != input.getMissing() ){
+				if ( row[j] != input.getMissing() ){
 					if ( maxval == input.getMissing() ||
-						 maxval < data[i][j] ){
+						 maxval < row[j] ){
 						x = i; // new maximum
 						y = j;
-						maxval = data[x][y];
+						maxval = row[j];
 					}
 				}
 			}
 		}
 		if ( x >=0 && y >= 0 ){
 			LatLon loc = input.getLocation(x, y);
-			return new Result(data[x][y], loc);
+			return new Result(maxval, loc);
 		}
 		return null;
 	}
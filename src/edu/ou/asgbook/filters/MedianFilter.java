@@ -4,6 +4,7 @@
 package edu.ou.asgbook.filters;
 
 import java.io.File;
+import java.util.Arrays;
 
 import edu.ou.asgbook.core.LatLonGrid;
 import edu.ou.asgbook.dataset.GlobalPopulation;
@@ -14,37 +15,89 @@ import edu.ou.asgbook.io.PngWriter;
 /**
  * A smoothing operation that involves replacing a pixel by the local median.
  * 
+ * If the data are quantized to a modest range of values, the median is found
+ * from a running histogram of the window (Perreault and Hebert, 2007): a
+ * histogram is kept for each column of the window, and the window's
+ * histogram is updated by adding the column that enters and subtracting the
+ * column that leaves.  Histograms are kept at two levels (coarse bins of
+ * about the square root of the range, and the individual values) so that the
+ * cost per pixel does not depend on the size of the window.  smooth() uses the
+ * histograms only where it estimates that they are faster than selection,
+ * which is for large windows or narrow ranges.
+ * 
  * @author Valliappa.Lakshmanan
  *
  */
-public class MedianFilter implements SpatialFilter {
+public class MedianFilter implements LocalSpatialFilter {
+	/** Data with a wider range of values are filtered by selection instead. */
+	public static final int MAX_HISTOGRAM_RANGE = 1 << 16;
+	/** Limits the memory used for column histograms. */
+	private static final int MAX_COLUMN_HISTOGRAM_SIZE = 1 << 22;
+	/** Relative cost of selection per pixel in the window, measured against a histogram bin operation. */
+	private static final double SELECTION_COST = 10;
 	private int halfSize;
 	
 	public MedianFilter(int halfSize) {
 		this.halfSize = halfSize;
 	}
 	
+	@Override
+	public int getHaloRows() {
+		return halfSize;
+	}
+
+	@Override
+	public int getHaloCols() {
+		return halfSize;
+	}
+
 	@Override
 	public LatLonGrid filter(LatLonGrid input) {
 		return smooth(input);
 	}
 
 	public LatLonGrid smooth(final LatLonGrid input){
+		// range of valid values
+		final int missing = input.getMissing();
+		int minval = Integer.MAX_VALUE;
+		int maxval = Integer.MIN_VALUE;
+		int[] row = new int[input.getNumLon()];
+		for (int i=0; i < input.getNumLat(); ++i){
+			input.getRowValues(i, row);
+			for (int j=0; j < row.length; ++j){
+				if (row[j] != missing){
+					minval = Math.min(minval, row[j]);
+					maxval = Math.max(maxval, row[j]);
+				}
+			}
+		}
+		if (minval > maxval || (long) maxval - minval >= MAX_HISTOGRAM_RANGE || !isHistogramFaster(minval, maxval)){
+			return smoothBySelection(input);
+		}
+		return smoothByHistogram(input, minval, maxval);
+	}
+	
+	/**
+	 * Finds the median of every window using QuickSelect.
+	 */
+	public LatLonGrid smoothBySelection(final LatLonGrid input){
 		LatLonGrid output = LatLonGrid.copyOf(input);
 		output.fill(output.getMissing());
-		int[][] outData = output.getData();
-		int[][] inData = input.getData();
 		int hx = halfSize;
 		int hy = halfSize;
-		int nx = inData.length;
-		int ny = inData[0].length;
+		int nx = input.getNumLat();
+		int ny = input.getNumLon();
+		RowWindow inData = new RowWindow(input, hx);
+		int[] outRow = new int[ny];
 		int[] arr = new int[(2*hx+1)*(2*hy+1)];
 		for (int i=hx; i < (nx-hx); ++i){
+			output.getRowValues(i, outRow);
 			for (int j=hy; j < (ny-hy); ++j){
 				int nelements = 0;
 				for (int m=-hx; m <= hx; ++m){
+					int[] inRow = inData.getRow(i+m);
 					for (int n=-hy; n <= hy; ++n){
-						int inval = inData[i+m][j+n];
+						int inval = inRow[j+n];
 						if (inval != input.getMissing()){
 							arr[nelements] = inval;
 							++nelements;
@@ -52,13 +105,170 @@ public class MedianFilter implements SpatialFilter {
 					}
 				}
 				if (nelements > 0){
-					outData[i][j] = QuickSelect.kth_element(arr, nelements, nelements/2);
+					outRow[j] = QuickSelect.kth_element(arr, nelements, nelements/2);
 				}
 			}
+			output.setRowValues(i, outRow);
 		}
 		return output;
 	}
 
+	/**
+	 * Finds the median of every window from running histograms.
+	 * All valid values in the grid have to be in [minval,maxval].
+	 */
+	public LatLonGrid smoothByHistogram(final LatLonGrid input, int minval, int maxval){
+		LatLonGrid output = LatLonGrid.copyOf(input);
+		output.fill(output.getMissing());
+		final int missing = input.getMissing();
+		final int hx = halfSize;
+		final int hy = halfSize;
+		final int nx = input.getNumLat();
+		final int ny = input.getNumLon();
+		int[] outRow = new int[ny];
+		final int wx = 2*hx + 1;
+		final int wy = 2*hy + 1;
+		final int fineBits = getFineBits(minval, maxval);
+		final int fineBins = 1 << fineBits;
+		final int nfine = ((maxval - minval) / fineBins + 1) * fineBins;
+		final int ncoarse = nfine / fineBins;
+		
+		// process vertical strips of the grid so that column histograms fit in memory
+		final int stripCols = getStripCols(nfine);
+		for (int stripStart = hy; stripStart < (ny-hy); stripStart += stripCols){
+			final int stripEnd = Math.min(ny-hy, stripStart + stripCols);
+			// histograms of input columns [stripStart-hy, stripEnd+hy)
+			final int ncols = stripEnd - stripStart + 2*hy;
+			final int col0 = stripStart - hy;
+			int[] colFine = new int[ncols * nfine];
+			int[] colCoarse = new int[ncols * ncoarse];
+			int[] colCount = new int[ncols];
+			int[] kernelFine = new int[nfine];
+			int[] kernelCoarse = new int[ncoarse];
+			// the window position at which the fine histogram of each coarse bin was last brought up to date
+			int[] fineUpdatedAt = new int[ncoarse];
+			// the row that leaves the window is used before the row that enters is read into its place
+			RowWindow inData = new RowWindow(input, hx);
+			
+			for (int i=hx; i < (nx-hx); ++i){
+				// slide the column histograms down to hold rows [i-hx, i+hx]
+				if (i == hx){
+					for (int m=0; m < wx; ++m){
+						updateColumns(inData.getRow(m), col0, ncols, missing, minval, fineBits, nfine, ncoarse, colFine, colCoarse, colCount, 1);
+					}
+				} else {
+					updateColumns(inData.getRow(i-hx-1), col0, ncols, missing, minval, fineBits, nfine, ncoarse, colFine, colCoarse, colCount, -1);
+					updateColumns(inData.getRow(i+hx), col0, ncols, missing, minval, fineBits, nfine, ncoarse, colFine, colCoarse, colCount, 1);
+				}
+				output.getRowValues(i, outRow);
+				
+				// window at position p covers columns [p, p+wy) of the strip
+				Arrays.fill(kernelCoarse, 0);
+				Arrays.fill(fineUpdatedAt, -wy);
+				int count = 0;
+				for (int c=0; c < wy; ++c){
+					addHistogram(kernelCoarse, 0, colCoarse, c*ncoarse, ncoarse, 1);
+					count += colCount[c];
+				}
+				for (int p=0; p < (stripEnd - stripStart); ++p){
+					if (p > 0){
+						addHistogram(kernelCoarse, 0, colCoarse, (p+wy-1)*ncoarse, ncoarse, 1);
+						addHistogram(kernelCoarse, 0, colCoarse, (p-1)*ncoarse, ncoarse, -1);
+						count += colCount[p+wy-1] - colCount[p-1];
+					}
+					if (count == 0){
+						continue;
+					}
+					// the median is the k-th smallest, as in QuickSelect
+					int k = count / 2;
+					int bin = 0;
+					while (kernelCoarse[bin] <= k){
+						k -= kernelCoarse[bin];
+						++bin;
+					}
+					// bring the fine histogram of this coarse bin up to date
+					final int fineStart = bin * fineBins;
+					int last = fineUpdatedAt[bin];
+					if (p - last >= wy){
+						Arrays.fill(kernelFine, fineStart, fineStart + fineBins, 0);
+						for (int c=p; c < p+wy; ++c){
+							addHistogram(kernelFine, fineStart, colFine, c*nfine + fineStart, fineBins, 1);
+						}
+					} else {
+						for (int q=last+1; q <= p; ++q){
+							addHistogram(kernelFine, fineStart, colFine, (q+wy-1)*nfine + fineStart, fineBins, 1);
+							addHistogram(kernelFine, fineStart, colFine, (q-1)*nfine + fineStart, fineBins, -1);
+						}
+					}
+					fineUpdatedAt[bin] = p;
+					int fine = fineStart;
+					while (kernelFine[fine] <= k){
+						k -= kernelFine[fine];
+						++fine;
+					}
+					outRow[stripStart + p] = minval + fine;
+				}
+				output.setRowValues(i, outRow);
+			}
+		}
+		return output;
+	}
+	
+	/**
+	 * Estimates whether running histograms are faster than selection for data
+	 * in [minval,maxval].  Selection costs about 10 bin operations for every
+	 * pixel in the window.  The histograms cost a few passes over the coarse
+	 * and fine bins per pixel, plus a rebuild of the window's coarse histogram
+	 * at the start of each row of each strip, which matters when the range is
+	 * so wide that the strips are narrow.
+	 */
+	private boolean isHistogramFaster(int minval, int maxval){
+		final int fineBins = 1 << getFineBits(minval, maxval);
+		final int nfine = ((maxval - minval) / fineBins + 1) * fineBins;
+		final int ncoarse = nfine / fineBins;
+		final int w = 2*halfSize + 1;
+		final int stripCols = getStripCols(nfine);
+		double histogramCost = 3.0*ncoarse + 2.0*fineBins + (w*(double)ncoarse + 2.0*(stripCols + 2*halfSize)) / stripCols;
+		double selectionCost = SELECTION_COST * w * w;
+		return histogramCost < selectionCost;
+	}
+	
+	/** The number of output columns whose column histograms fit in memory at once. */
+	private int getStripCols(int nfine){
+		return Math.max(1, MAX_COLUMN_HISTOGRAM_SIZE / nfine - 2*halfSize);
+	}
+	
+	/** The number of values in a coarse bin is about the square root of the range. */
+	private static int getFineBits(int minval, int maxval){
+		int rangeBits = 32 - Integer.numberOfLeadingZeros(maxval - minval);
+		return Math.max(1, (rangeBits + 1) / 2);
+	}
+	
+	private static void updateColumns(int[] inRow, int col0, int ncols, int missing, int minval, int fineBits, int nfine, int ncoarse,
+			int[] colFine, int[] colCoarse, int[] colCount, int change){
+		for (int c=0; c < ncols; ++c){
+			int inval = inRow[col0 + c];
+			if (inval != missing){
+				int bin = inval - minval;
+				colFine[c*nfine + bin] += change;
+				colCoarse[c*ncoarse + (bin >> fineBits)] += change;
+				colCount[c] += change;
+			}
+		}
+	}
+	
+	private static void addHistogram(int[] to, int toStart, int[] from, int fromStart, int len, int sign){
+		if (sign > 0){
+			for (int b=0; b < len; ++b){
+				to[toStart+b] += from[fromStart+b];
+			}
+		} else {
+			for (int b=0; b < len; ++b){
+				to[toStart+b] -= from[fromStart+b];
+			}
+		}
+	}
+
 	public static void main(String[] args) throws Exception {
 		// create output directory
 		File out = OutputDirectory.getDefault("median");
@@ -74,5 +284,23 @@ public class MedianFilter implements SpatialFilter {
 		KmlWriter.write(dilate3, out, "median_7", PngWriter.createCoolToWarmColormap());
 		LatLonGrid dilate5 = new MedianFilter(5).smooth(popdensity);
 		KmlWriter.write(dilate5, out, "median_11", PngWriter.createCoolToWarmColormap());
+		
+		// running histograms versus selection on a larger area
+		LatLonGrid large = GlobalPopulation.read(GlobalPopulation.NORTHAMERICA, new GlobalPopulation.LogScaling()).crop(600, 2000, 800, 1200);
+		for (int halfSize=1; halfSize <= 16; halfSize *= 2){
+			MedianFilter filter = new MedianFilter(halfSize);
+			long start = System.currentTimeMillis();
+			LatLonGrid a = filter.smoothBySelection(large);
+			long mid = System.currentTimeMillis();
+			LatLonGrid b = filter.smooth(large);
+			long end = System.currentTimeMillis();
+			int numdiff = 0;
+			for (int i=0; i < a.getNumLat(); ++i) for (int j=0; j < a.getNumLon(); ++j){
+				if (a.getValue(i,j) != b.getValue(i,j)){
+					++numdiff;
+				}
+			}
+			System.out.println("halfSize=" + halfSize + ": selection " + (mid-start) + " ms; histogram " + (end-mid) + " ms; " + numdiff + " pixels differ");
+		}
 	}
 }
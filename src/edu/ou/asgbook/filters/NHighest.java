@@ -10,6 +10,7 @@ import java.util.List;
 import edu.ou.asgbook.core.LatLon;
 import edu.ou.asgbook.core.LatLonGrid;
 import edu.ou.asgbook.core.Pixel;
+import edu.ou.asgbook.core.PixelList;
 import edu.ou.asgbook.dataset.GlobalPopulation;
 import edu.ou.asgbook.io.KmlWriter;
 import edu.ou.asgbook.io.OutputDirectory;
@@ -30,33 +31,21 @@ public class NHighest {
 	
 	public Pixel[] findHighestValued(LatLonGrid input){
 		// create array of pixels
-		int[][] data = input.getData();
-		final int initialCapacity = (input.getNumLat() * input.getNumLon())  / 10;
-		List<Pixel> a = new ArrayList<Pixel>(initialCapacity);
-		for (int i=0; i < input.getNumLat(); ++i){
-			for (int j=0; j < input.getNumLon(); ++j){
-				if ( data[i][j] != input.getMissing() ){
-					a.add(new Pixel(i,j,data[i][j]));
-				}
-			}
-		}
+		PixelList a = input.asPixelList();
 		System.out.println("Finding the " + n + " highest values out of " + a.size() + " pixels");
 		
 		// selection sort this array to find n highest
 		Pixel[] result = new Pixel[n];
-		Pixel.CompareValue comparator = new Pixel.CompareValue();
 		for (int i=0; i < n; ++i){
 			int p = i;
 			for (int j=i; j < a.size(); ++j){
-				if ( comparator.compare(a.get(j), a.get(p)) > 0 ){
+				if ( a.getValue(j) > a.getValue(p) ){
 					p = j;
 				}
 			}
 			result[i] = a.get(p);
 			// swap a[i] and a[p]
-			Pixel temp = a.get(i);
-			a.set(i, a.get(p));
-			a.set(p, temp);
+			a.swap(i, p);
 		}
 		return result;
 	}
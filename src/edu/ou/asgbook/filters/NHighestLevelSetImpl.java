@@ -6,7 +6,6 @@ package edu.ou.asgbook.filters;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import edu.ou.asgbook.core.LatLon;
 import edu.ou.asgbook.core.LatLonGrid;
@@ -35,16 +34,8 @@ public class NHighestLevelSetImpl {
 		// create level set
 		LevelSet levelset = LevelSet.newInstance(input);
 		
-		// find the top n pixels
-		Map.Entry<Integer, List<Pixel>>[] levels = levelset.getLevels();
-		List<Pixel> result = new ArrayList<Pixel>();
-		int curr = levels.length;
-		while (result.size() < nth && curr > 0){
-			--curr; // next
-			result.addAll(levels[curr].getValue()); // all pixels at this level
-		}
-		
-		return result.toArray(new Pixel[0]);
+		// find the top n pixels: all the pixels at the highest levels
+		return levelset.getHighest(nth).toArray();
 	}
 	
 	public static void main(String[] args) throws Exception {
@@ -0,0 +1,41 @@
+/**
+ *
+ */
+package edu.ou.asgbook.filters;
+
+import java.util.Arrays;
+
+import edu.ou.asgbook.core.LatLonGrid;
+
+/**
+ * The rows of a grid around the row being filtered, read with getRowValues()
+ * so that a filter does not need the whole grid as an int[][], which would
+ * mean copying a flat or memory-mapped grid into memory.  Each row is read
+ * once as long as the rows are asked for in increasing order, no more than
+ * halfSize behind the latest row.
+ *
+ * @author v.lakshmanan
+ *
+ */
+class RowWindow {
+	private final LatLonGrid grid;
+	private final int[][] rows;
+	private final int[] rowInSlot;
+
+	RowWindow(LatLonGrid grid, int halfSize) {
+		this.grid = grid;
+		this.rows = new int[2*halfSize + 1][grid.getNumLon()];
+		this.rowInSlot = new int[rows.length];
+		Arrays.fill(rowInSlot, -1);
+	}
+
+	/** The values in the row; the array is reused for a later row. */
+	int[] getRow(int row){
+		final int slot = row % rows.length;
+		if (rowInSlot[slot] != row){
+			grid.getRowValues(row, rows[slot]);
+			rowInSlot[slot] = row;
+		}
+		return rows[slot];
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ *
+ */
+package edu.ou.asgbook.filters;
+
+import java.util.Arrays;
+
+import edu.ou.asgbook.core.LatLonGrid;
+
+/**
+ * Finds the maximum (or minimum) of the valid values in a square window
+ * around every pixel using the van Herk/Gil-Werman algorithm.  The window is
+ * separated into a pass along rows and a pass along columns.  Each pass
+ * breaks the data into blocks the size of the window and precomputes running
+ * maxima from the start and from the end of every block, so that the maximum
+ * of any window is the larger of two precomputed values.  This takes about
+ * three comparisons per pixel regardless of the size of the window.
+ *
+ * @author Valliappa.Lakshmanan
+ *
+ */
+class RunningExtremum {
+	/** Stands for "no valid value" during the computation. */
+	private static final int NONE = Integer.MIN_VALUE;
+
+	/**
+	 * Pixels within halfSize of the edge, and pixels with no valid value in
+	 * their window, are missing.
+	 * @param findMax  true for the maximum, false for the minimum
+	 * @return null if the grid contains values that can not be handled
+	 *   (Integer.MIN_VALUE), in which case the caller should scan the windows directly
+	 */
+	static LatLonGrid compute(final LatLonGrid input, final int halfSize, final boolean findMax){
+		final int missing = input.getMissing();
+		final int nx = input.getNumLat();
+		final int ny = input.getNumLon();
+		final int w = 2*halfSize + 1;
+		LatLonGrid output = LatLonGrid.copyOf(input);
+		output.fill(missing);
+		if (nx < w || ny < w){
+			return output;
+		}
+
+		// pass along rows; minima are found as maxima of negated values
+		final int[] rowResult = new int[nx*ny];
+		final int[] in = new int[ny];
+		final int[] prefix = new int[ny];
+		final int[] suffix = new int[ny];
+		for (int i=0; i < nx; ++i){
+			input.getRowValues(i, in);
+			for (int j=0; j < ny; ++j){
+				int v = in[j];
+				if (v == missing){
+					in[j] = NONE;
+				} else if (v == NONE){
+					return null;
+				} else if (!findMax){
+					in[j] = -v;
+				}
+			}
+			runningMax(in, prefix, suffix, ny, w);
+			final int offset = i*ny;
+			for (int j=halfSize; j < (ny-halfSize); ++j){
+				rowResult[offset + j] = Math.max(suffix[j-halfSize], prefix[j+halfSize]);
+			}
+		}
+
+		// pass along columns, a whole row at a time so that memory is accessed in order
+		final int j0 = halfSize;
+		final int j1 = ny - halfSize;
+		final int[] colSuffix = new int[nx*ny];
+		for (int start=0; start < nx; start += w){
+			final int end = Math.min(nx, start + w);
+			System.arraycopy(rowResult, (end-1)*ny + j0, colSuffix, (end-1)*ny + j0, j1-j0);
+			for (int r=end-2; r >= start; --r){
+				final int off = r*ny;
+				for (int j=j0; j < j1; ++j){
+					colSuffix[off+j] = Math.max(colSuffix[off+ny+j], rowResult[off+j]);
+				}
+			}
+			// prefix maxima are computed in place
+			for (int r=start+1; r < end; ++r){
+				final int off = r*ny;
+				for (int j=j0; j < j1; ++j){
+					rowResult[off+j] = Math.max(rowResult[off-ny+j], rowResult[off+j]);
+				}
+			}
+		}
+		final int[] out = new int[ny];
+		Arrays.fill(out, missing);
+		for (int i=halfSize; i < (nx-halfSize); ++i){
+			final int suf = (i-halfSize)*ny;
+			final int pre = (i+halfSize)*ny;
+			for (int j=j0; j < j1; ++j){
+				int v = Math.max(colSuffix[suf+j], rowResult[pre+j]);
+				if (v == NONE){
+					out[j] = missing;
+				} else {
+					out[j] = findMax? v : -v;
+				}
+			}
+			output.setRowValues(i, out);
+		}
+		return output;
+	}
+
+	/**
+	 * Running maxima from the start and from the end of each block of w values.
+	 */
+	private static void runningMax(int[] in, int[] prefix, int[] suffix, int n, int w){
+		for (int start=0; start < n; start += w){
+			final int end = Math.min(n, start + w);
+			prefix[start] = in[start];
+			for (int k=start+1; k < end; ++k){
+				prefix[k] = Math.max(prefix[k-1], in[k]);
+			}
+			suffix[end-1] = in[end-1];
+			for (int k=end-2; k >= start; --k){
+				suffix[k] = Math.max(suffix[k+1], in[k]);
+			}
+		}
+	}
+}
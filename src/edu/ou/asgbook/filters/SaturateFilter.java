@@ -25,17 +25,18 @@ public class SaturateFilter implements SpatialFilter {
 
 	public LatLonGrid saturate(final LatLonGrid input){
 		LatLonGrid output = LatLonGrid.copyOf(input);
-		int[][] outData = output.getData();
-		int[][] inData = input.getData();
+		int[] row = new int[output.getNumLon()];
 		for (int i=0; i < output.getNumLat(); ++i){
-			for (int j=0; j < output.getNumLon(); ++j){
-				int inval = inData[i][j];
+			output.getRowValues(i, row);
+			for (int j=0; j < row.length; ++j){
+				int inval = row[j];
 				if ( inval < min || inval == input.getMissing() ){
-					outData[i][j] = min;
+					row[j] = min;
 				} else if ( inval > max ){
-					outData[i][j] = max;
+					row[j] = max;
 				}
 			}
+			output.setRowValues(i, row);
 		}
 		return output;
 	}
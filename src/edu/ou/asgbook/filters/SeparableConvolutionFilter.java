@@ -4,6 +4,7 @@
 package edu.ou.asgbook.filters;
 
 import java.io.File;
+import java.util.Arrays;
 
 import edu.ou.asgbook.core.LatLonGrid;
 import edu.ou.asgbook.dataset.GlobalPopulation;
@@ -17,7 +18,7 @@ import edu.ou.asgbook.io.PngWriter;
  * @author Valliappa.Lakshmanan
  *
  */
-public class SeparableConvolutionFilter implements SpatialFilter {
+public class SeparableConvolutionFilter implements LocalSpatialFilter {
 	private double[] coeffs_x;
 	private double[] coeffs_y;
 	
@@ -37,55 +38,113 @@ public class SeparableConvolutionFilter implements SpatialFilter {
 	}
 
 	public LatLonGrid smooth(final LatLonGrid input){
-		int[][] inData = input.getData();
 		final int nx = input.getNumLat();
 		final int ny = input.getNumLon();
-		
-		// filter the rows
 		final int hx = coeffs_x.length / 2;
-		int[][] rowResult = new int[nx][ny];
-		for (int j=0; j < ny; ++j){
-			for (int i=hx; i < (nx-hx); ++i){
+		final int hy = coeffs_y.length / 2;
+		RowWindow inData = new RowWindow(input, hx);
+		LatLonGrid output = LatLonGrid.copyOf(input);
+		output.fill(output.getMissing());
+		
+		// each row of the output needs only the same row of the result of filtering along the rows
+		int[] rowResult = new int[ny];
+		int[] outRow = new int[ny];
+		for (int i=0; i < nx; ++i){
+			// filter the rows; rows within hx of the edge are left at zero
+			Arrays.fill(rowResult, 0);
+			if (i >= hx && i < (nx-hx)){
+				for (int j=0; j < ny; ++j){
+					double tot = 0;
+					double wt = 0;
+					for (int m=-hx; m <= hx; ++m){
+						double coeff = coeffs_x[m+hx];
+						int inval = inData.getRow(i+m)[j];
+						if (inval != input.getMissing()){
+							tot += inval*coeff;
+							wt += coeff;
+						}
+					}
+					if ( wt > 0 ){
+						rowResult[j] = (int)( Math.round(tot / wt) );
+					}
+				}
+			}
+			
+			// now filter the columns of rowResult
+			output.getRowValues(i, outRow);
+			for (int j=hy; j < (ny-hy); ++j){
 				double tot = 0;
 				double wt = 0;
-				for (int m=-hx; m <= hx; ++m){
-					double coeff = coeffs_x[m+hx];
-					int inval = inData[i+m][j];
+				for (int n=-hy; n <= hy; ++n){
+					double coeff = coeffs_y[n+hy];
+					int inval = rowResult[j+n];
 					if (inval != input.getMissing()){
 						tot += inval*coeff;
 						wt += coeff;
 					}
 				}
 				if ( wt > 0 ){
-					rowResult[i][j] = (int)( Math.round(tot / wt) );
+					outRow[j] = (int)( Math.round(tot / wt) );
 				}
 			}
+			output.setRowValues(i, outRow);
 		}
 		
-		// now filter the columns of rowResult
-		inData = rowResult;
+		return output;
+	}
+	
+	/**
+	 * Uses the coefficients and returns the convolved value without dividing by sum of weights.
+	 * Gives the same result as ConvolutionFilter.convolve() on the outer product
+	 * of the two sets of coefficients: missing values contribute nothing and
+	 * pixels within the half-size of the edge are missing.
+	 */
+	public LatLonGrid convolve(final LatLonGrid input){
+		final int nx = input.getNumLat();
+		final int ny = input.getNumLon();
+		final int hx = coeffs_x.length / 2;
+		final int hy = coeffs_y.length / 2;
 		LatLonGrid output = LatLonGrid.copyOf(input);
 		output.fill(output.getMissing());
-		final int hy = coeffs_y.length / 2;
-		int[][] outData = output.getData();
+		if (nx <= 2*hx || ny <= 2*hy){
+			return output;
+		}
+		
+		// the input, with missing values replaced by zero
+		double[][] inData = new double[nx][ny];
+		int[] row = new int[ny];
 		for (int i=0; i < nx; ++i){
+			input.getRowValues(i, row);
+			for (int j=0; j < ny; ++j){
+				if (row[j] != input.getMissing()){
+					inData[i][j] = row[j];
+				}
+			}
+		}
+		
+		// filter along the rows, keeping the intermediate result unrounded
+		double[] rowResult = new double[ny];
+		for (int i=hx; i < (nx-hx); ++i){
+			Arrays.fill(rowResult, 0);
+			for (int m=-hx; m <= hx; ++m){
+				double coeff = coeffs_x[m+hx];
+				double[] in = inData[i+m];
+				for (int j=0; j < ny; ++j){
+					rowResult[j] += coeff * in[j];
+				}
+			}
+			
+			// then along the columns
+			output.getRowValues(i, row);
 			for (int j=hy; j < (ny-hy); ++j){
 				double tot = 0;
-				double wt = 0;
 				for (int n=-hy; n <= hy; ++n){
-					double coeff = coeffs_y[n+hy];
-					int inval = inData[i][j+n];
-					if (inval != input.getMissing()){
-						tot += inval*coeff;
-						wt += coeff;
-					}
-				}
-				if ( wt > 0 ){
-					outData[i][j] = (int)( Math.round(tot / wt) );
+					tot += coeffs_y[n+hy] * rowResult[j+n];
 				}
+				row[j] = (int) Math.round(tot);
 			}
-		}		
-		
+			output.setRowValues(i, row);
+		}
 		return output;
 	}
 	
@@ -138,6 +197,16 @@ public class SeparableConvolutionFilter implements SpatialFilter {
 		}
 	}
 
+	@Override
+	public int getHaloRows() {
+		return coeffs_x.length / 2;
+	}
+
+	@Override
+	public int getHaloCols() {
+		return coeffs_y.length / 2;
+	}
+
 	@Override
 	public LatLonGrid filter(LatLonGrid input) {
 		return smooth(input);
@@ -32,12 +32,13 @@ public class SimpleThresholder implements SpatialFilter {
 
 	public LatLonGrid threshold(final LatLonGrid input){
 		LatLonGrid output = LatLonGrid.copyOf(input);
-		int[][] outData = output.getData();
-		int[][] inData = input.getData();
+		int[] row = new int[output.getNumLon()];
 		for (int i=0; i < output.getNumLat(); ++i){
-			for (int j=0; j < output.getNumLon(); ++j){
-				outData[i][j] = (inData[i][j] >= thresh)? 1 : 0;
+			output.getRowValues(i, row);
+			for (int j=0; j < row.length; ++j){
+				row[j] = (row[j] >= thresh)? 1 : 0;
 			}
+			output.setRowValues(i, row);
 		}
 		return output;
 	}
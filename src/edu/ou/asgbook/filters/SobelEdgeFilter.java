@@ -15,7 +15,7 @@ import edu.ou.asgbook.linearity.DataTransform;
  * @author valliappa.lakshmanan
  *
  */
-public class SobelEdgeFilter implements SpatialFilter {
+public class SobelEdgeFilter implements LocalSpatialFilter {
 	private final ConvolutionFilter gx;
 	private final ConvolutionFilter gy;
 	
@@ -45,6 +45,16 @@ public class SobelEdgeFilter implements SpatialFilter {
 		return result;
 	}
 	
+	@Override
+	public int getHaloRows() {
+		return Math.max(gx.getHaloRows(), gy.getHaloRows());
+	}
+
+	@Override
+	public int getHaloCols() {
+		return Math.max(gx.getHaloCols(), gy.getHaloCols());
+	}
+
 	@Override
 	public LatLonGrid filter(LatLonGrid input) {
 		return edgeFilter(input);
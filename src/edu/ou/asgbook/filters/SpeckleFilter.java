@@ -18,7 +18,7 @@ import edu.ou.asgbook.io.PngWriter;
  * @author Valliappa.Lakshmanan
  *
  */
-public class SpeckleFilter implements SpatialFilter {
+public class SpeckleFilter implements LocalSpatialFilter {
 	private final MedianFilter smFilter;
 	private final int maxChange;
 	
@@ -27,6 +27,16 @@ public class SpeckleFilter implements SpatialFilter {
 		this.maxChange = maxChange;
 	}
 	
+	@Override
+	public int getHaloRows() {
+		return smFilter.getHaloRows();
+	}
+
+	@Override
+	public int getHaloCols() {
+		return smFilter.getHaloCols();
+	}
+
 	@Override
 	public LatLonGrid filter(LatLonGrid input) {
 		return speckleFilter(input);
@@ -35,20 +45,27 @@ public class SpeckleFilter implements SpatialFilter {
 	public LatLonGrid speckleFilter(final LatLonGrid input){
 		LatLonGrid smoothed = smFilter.filter(input);
 		LatLonGrid output = LatLonGrid.copyOf(input);
-		int[][] inData = input.getData();
-		int[][] smData = smoothed.getData();
-		int nx = inData.length;
-		int ny = inData[0].length;
+		int nx = input.getNumLat();
+		int ny = input.getNumLon();
+		int[] inRow = new int[ny];
+		int[] smRow = new int[ny];
 		for (int i=0; i < nx; ++i){
+			input.getRowValues(i, inRow);
+			smoothed.getRowValues(i, smRow);
+			boolean changed = false;
 			for (int j=0; j < ny; ++j){
-				if (inData[i][j] != input.getMissing() &&
-					smData[i][j] != smoothed.getMissing()){
-					int diff = Math.abs(inData[i][j] - smData[i][j]);
+				if (inRow[j] != input.getMissing() &&
+					smRow[j] != smoothed.getMissing()){
+					int diff = Math.abs(inRow[j] - smRow[j]);
 					if (diff > maxChange){ // noise
-						output.setValue(i,j, smData[i][j]);
+						inRow[j] = smRow[j];
+						changed = true;
 					}
 				}
 			}
+			if (changed){
+				output.setRowValues(i, inRow);
+			}
 		}
 		return output;
 	}
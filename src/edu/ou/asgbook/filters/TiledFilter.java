@@ -0,0 +1,151 @@
+/**
+ *
+ */
+package edu.ou.asgbook.filters;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import edu.ou.asgbook.core.LatLonGrid;
+import edu.ou.asgbook.dataset.GlobalPopulation;
+import edu.ou.asgbook.io.KmlWriter;
+import edu.ou.asgbook.io.OutputDirectory;
+import edu.ou.asgbook.io.PngWriter;
+
+/**
+ * Applies a local filter to a grid in parallel by breaking the grid into tiles.
+ * Each tile is padded by the filter's halo so that the result is identical to
+ * applying the filter to the entire grid at once.  The result is a flat grid.
+ *
+ * @author Valliappa.Lakshmanan
+ *
+ */
+public class TiledFilter implements SpatialFilter {
+	public static final int DEFAULT_TILE_SIZE = 256;
+	private final LocalSpatialFilter filter;
+	private final int tileSize;
+	private final ForkJoinPool pool;
+
+	/**
+	 * Uses the default tile size and the common fork-join pool.
+	 */
+	public TiledFilter(LocalSpatialFilter filter) {
+		this(filter, DEFAULT_TILE_SIZE, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param tileSize Tiles are this many pixels on a side, but at least four times the halo so that the overlap stays small
+	 */
+	public TiledFilter(LocalSpatialFilter filter, int tileSize, ForkJoinPool pool) {
+		if (tileSize < 1){
+			throw new IllegalArgumentException("Tile size has to be positive: " + tileSize);
+		}
+		this.filter = filter;
+		this.tileSize = tileSize;
+		this.pool = pool;
+	}
+
+	@Override
+	public LatLonGrid filter(final LatLonGrid input) {
+		final int nrows = input.getNumLat();
+		final int ncols = input.getNumLon();
+		final int tileRows = Math.max(tileSize, 4*filter.getHaloRows());
+		final int tileCols = Math.max(tileSize, 4*filter.getHaloCols());
+		if (nrows <= tileRows && ncols <= tileCols){
+			return filter.filter(input);
+		}
+
+		final int[] out = new int[nrows*ncols];
+		List<Tile> tiles = new ArrayList<Tile>();
+		for (int r=0; r < nrows; r += tileRows){
+			for (int c=0; c < ncols; c += tileCols){
+				tiles.add(new Tile(input, out, r, c, Math.min(nrows, r+tileRows), Math.min(ncols, c+tileCols)));
+			}
+		}
+		int missing = input.getMissing();
+		try {
+			for (Future<Integer> result : pool.invokeAll(tiles)){
+				missing = result.get();
+			}
+		} catch (InterruptedException e){
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e){
+			if (e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+		return new LatLonGrid(out, nrows, ncols, missing, input.getNwCorner(), input.getLatRes(), input.getLonRes());
+	}
+
+	/**
+	 * Filters the halo-padded tile and copies the interior into the output.
+	 * Returns the missing value of the filter's output.
+	 */
+	private class Tile implements Callable<Integer> {
+		private final LatLonGrid input;
+		private final int[] out;
+		private final int startRow, startCol, endRow, endCol;
+
+		Tile(LatLonGrid input, int[] out, int startRow, int startCol, int endRow, int endCol){
+			this.input = input;
+			this.out = out;
+			this.startRow = startRow;
+			this.startCol = startCol;
+			this.endRow = endRow;
+			this.endCol = endCol;
+		}
+
+		@Override
+		public Integer call() {
+			final int ncols = input.getNumLon();
+			int r0 = Math.max(0, startRow - filter.getHaloRows());
+			int c0 = Math.max(0, startCol - filter.getHaloCols());
+			int r1 = Math.min(input.getNumLat(), endRow + filter.getHaloRows());
+			int c1 = Math.min(ncols, endCol + filter.getHaloCols());
+			LatLonGrid result = filter.filter(input.crop(r0, c0, r1-r0, c1-c0));
+			int[] row = new int[result.getNumLon()];
+			for (int i=startRow; i < endRow; ++i){
+				result.getRowValues(i-r0, row);
+				System.arraycopy(row, startCol-c0, out, i*ncols + startCol, endCol-startCol);
+			}
+			return result.getMissing();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		// create output directory
+		File out = OutputDirectory.getDefault("tiled");
+
+		// read input
+		LatLonGrid popdensity = GlobalPopulation.read(GlobalPopulation.NORTHAMERICA, new GlobalPopulation.LogScaling()).crop(600, 2000, 800, 1200);
+
+		LocalSpatialFilter[] filters = {
+				new ConvolutionFilter(ConvolutionFilter.gauss(11, 11)),
+				new MedianFilter(3),
+				new DilationFilter(3),
+				new SobelEdgeFilter(),
+				new LoGEdgeFilter(5, 400)
+		};
+		for (LocalSpatialFilter filter : filters){
+			long start = System.currentTimeMillis();
+			LatLonGrid serial = filter.filter(popdensity);
+			long mid = System.currentTimeMillis();
+			LatLonGrid tiled = new TiledFilter(filter).filter(popdensity);
+			long end = System.currentTimeMillis();
+			int numdiff = 0;
+			for (int i=0; i < serial.getNumLat(); ++i) for (int j=0; j < serial.getNumLon(); ++j){
+				if (serial.getValue(i,j) != tiled.getValue(i,j)){
+					++numdiff;
+				}
+			}
+			System.out.println(filter.getClass().getSimpleName() + ": serial " + (mid-start) + " ms; tiled on " + ForkJoinPool.commonPool().getParallelism() + " threads " + (end-mid) + " ms; " + numdiff + " pixels differ");
+			KmlWriter.write(tiled, out, filter.getClass().getSimpleName(), PngWriter.createCoolToWarmColormap());
+		}
+	}
+}
@@ -6,12 +6,12 @@ package edu.ou.asgbook.gmm;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import edu.ou.asgbook.core.LatLon;
 import edu.ou.asgbook.core.LatLonGrid;
 import edu.ou.asgbook.core.LevelSet;
 import edu.ou.asgbook.core.Pixel;
+import edu.ou.asgbook.core.PixelList;
 import edu.ou.asgbook.dataset.GlobalPopulation;
 import edu.ou.asgbook.io.KmlWriter;
 import edu.ou.asgbook.io.OutputDirectory;
@@ -62,18 +62,17 @@ public class GaussianMixtureModel {
 	
 	private void initGMM(LevelSet levelset, int numModels, int MIN_DISTSQ){
 		// determine initial centers based on levelset i.e. peaks
-		Map.Entry<Integer, List<Pixel>>[] levels = levelset.getLevels();
-		List<Pixel> result = new ArrayList<Pixel>();
-		int curr = levels.length;
+		PixelList result = new PixelList();
+		int curr = levelset.getNumLevels();
 		while (result.size() < numModels && curr > 0){
 			--curr; // next
-			List<Pixel> level = levels[curr].getValue(); // all pixels at this level
+			// all pixels at this level
 			// prune so that we do not add any points too close to earlier
-			for (Pixel cand : level){
+			for (int k=levelset.getStart(curr); k < levelset.getEnd(curr); ++k){
 				boolean canAdd = true;
-				for (Pixel center : result){
-					int distx = cand.getX() - center.getX();
-					int disty = cand.getY() - center.getY();
+				for (int c=0; c < result.size(); ++c){
+					int distx = levelset.getX(k) - result.getX(c);
+					int disty = levelset.getY(k) - result.getY(c);
 					int distsq = distx*distx + disty*disty;
 					if (distsq < MIN_DISTSQ){
 						canAdd = false;
@@ -81,7 +80,7 @@ public class GaussianMixtureModel {
 					}
 				}
 				if (canAdd){
-					result.add(cand);
+					result.add(levelset.getX(k), levelset.getY(k), levelset.getLevelValue(curr));
 				}
 			}
 		}
@@ -89,7 +88,7 @@ public class GaussianMixtureModel {
 		mixture.clear();
 		numModels = Math.min(result.size(), numModels);
 		for (int i=0; i < numModels; ++i){
-			GaussianComponent gc = new GaussianComponent(result.get(i).getX(),result.get(i).getY(),MIN_DISTSQ,MIN_DISTSQ,0,1.0/numModels);
+			GaussianComponent gc = new GaussianComponent(result.getX(i),result.getY(i),MIN_DISTSQ,MIN_DISTSQ,0,1.0/numModels);
 			mixture.add(gc);
 		}
 	}
@@ -7,6 +7,8 @@ import java.io.File;
 
 import edu.ou.asgbook.core.LatLonGrid;
 import edu.ou.asgbook.core.ScalarStatistic;
+import edu.ou.asgbook.core.SlidingExtremum;
+import edu.ou.asgbook.core.SummedAreaTable;
 import edu.ou.asgbook.dataset.GlobalPopulation;
 import edu.ou.asgbook.io.KmlWriter;
 import edu.ou.asgbook.io.OutputDirectory;
@@ -44,43 +46,37 @@ public class LocalMeasures {
 		this.input = input;
 		this.mean = LatLonGrid.copyOf(input);
 		this.stdev  = LatLonGrid.copyOf(input);
-		this.min  = LatLonGrid.copyOf(input);
-		this.max  = LatLonGrid.copyOf(input);
 		compute();
 	}
 	
-	private ScalarStatistic computeLocalStatistic(int x, int y){
-		ScalarStatistic stat = new ScalarStatistic();
-		for (int m=-hx; m <= hx; ++m){
-			for (int n=-hy; n <= hy; ++n){
-				if ( input.isValid(x+m,y+n) ){
-					int inval = input.getValue(x+m,y+n);
-					if (inval != input.getMissing()){
-						stat.update(inval);
-					}
-				}
-			}
-		}
-		return stat;
-	}
-	
+	/**
+	 * The mean and standard deviation come from a summed-area table and the
+	 * min and max from sliding windows, so the time taken does not depend on
+	 * the size of the neighborhood.
+	 */
 	private void compute(){
 		int nrows = input.getNumLat();
 		int ncols = input.getNumLon();
-		for (int i=0; i < nrows; ++i) for (int j=0; j < ncols; ++j){
-			ScalarStatistic stat = computeLocalStatistic(i, j);
-			if (stat.getNumSamples() > 0){
-				mean.setValue(i, j, (int)Math.round(stat.getMean()));
-				stdev.setValue(i,j, (int)Math.round(stat.getStdDeviation()));
-				min.setValue(i,j, (int)Math.round(stat.getMin()));
-				max.setValue(i,j, (int)Math.round(stat.getMax()));
-			} else {
-				mean.setValue(i, j, input.getMissing());
-				stdev.setValue(i, j, input.getMissing());
-				min.setValue(i, j, input.getMissing());
-				max.setValue(i, j, input.getMissing());
+		SummedAreaTable table = new SummedAreaTable(input);
+		int[] meanRow = new int[ncols];
+		int[] stdevRow = new int[ncols];
+		ScalarStatistic stat = new ScalarStatistic();
+		for (int i=0; i < nrows; ++i){
+			for (int j=0; j < ncols; ++j){
+				table.getStatistic(i-hx, j-hy, i+hx, j+hy, stat);
+				if (stat.getNumSamples() > 0){
+					meanRow[j] = (int)Math.round(stat.getMean());
+					stdevRow[j] = (int)Math.round(stat.getStdDeviation());
+				} else {
+					meanRow[j] = input.getMissing();
+					stdevRow[j] = input.getMissing();
+				}
 			}
+			mean.setRowValues(i, meanRow);
+			stdev.setRowValues(i, stdevRow);
 		}
+		min = SlidingExtremum.min(input, hx, hy);
+		max = SlidingExtremum.max(input, hx, hy);
 	}
 	
 	public static void main(String[] args) throws Exception {
@@ -0,0 +1,169 @@
+/**
+ *
+ */
+package edu.ou.asgbook.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits an ASCII grid into whitespace-separated tokens directly from the bytes
+ * of a stream, without creating a String per line or per token.  The current
+ * token is the range [start,end) of the buffer.
+ *
+ * @author valliappa.lakshmanan
+ *
+ */
+final class AsciiGridTokenizer {
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1;
+		for (int i=1; i < POW10.length; ++i){
+			POW10[i] = POW10[i-1] * 10;
+		}
+	}
+
+	private final InputStream in;
+	final byte[] buf = new byte[BUFFER_SIZE];
+	private int pos = 0;
+	private int limit = 0;
+	int start = 0;
+	int end = 0;
+
+	AsciiGridTokenizer(InputStream in){
+		this.in = in;
+	}
+
+	/**
+	 * Moves to the next token.
+	 * @return false if there are no more tokens
+	 */
+	boolean next() throws IOException {
+		// skip whitespace
+		while (true){
+			if (pos == limit){
+				pos = limit = 0;
+				if (!fill()){
+					return false;
+				}
+			}
+			if (buf[pos] > ' '){
+				break;
+			}
+			++pos;
+		}
+		start = pos;
+		while (true){
+			if (pos == limit){
+				// move the partial token to the front of the buffer and read more
+				int len = pos - start;
+				if (len == buf.length){
+					throw new IOException("Token longer than " + buf.length + " bytes");
+				}
+				System.arraycopy(buf, start, buf, 0, len);
+				start = 0;
+				pos = limit = len;
+				if (!fill()){
+					break;
+				}
+			}
+			if (buf[pos] <= ' '){
+				break;
+			}
+			++pos;
+		}
+		end = pos;
+		return true;
+	}
+
+	/** Reads the value of the next "key value" header line. */
+	String nextHeaderValue() throws IOException {
+		if (!next() || !next()){
+			throw new IOException("Unexpected end of header");
+		}
+		return tokenAsString();
+	}
+
+	String tokenAsString(){
+		return new String(buf, start, end-start, StandardCharsets.US_ASCII);
+	}
+
+	boolean tokenEquals(byte[] other){
+		return equals(buf, start, end, other);
+	}
+
+	static boolean equals(byte[] b, int start, int end, byte[] other){
+		if (end - start != other.length){
+			return false;
+		}
+		for (int i=0; i < other.length; ++i){
+			if (b[start+i] != other[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parses a decimal number in b[start,end), giving exactly the same result as
+	 * Double.parseDouble.  Plain decimals of up to 15 significant digits are
+	 * converted without creating any objects; anything else (exponents, very long
+	 * numbers, NaN) is handed to Double.parseDouble.
+	 */
+	static double parseDouble(byte[] b, int start, int end){
+		int i = start;
+		boolean negative = false;
+		if (i < end && (b[i] == '-' || b[i] == '+')){
+			negative = (b[i] == '-');
+			++i;
+		}
+		long mantissa = 0;
+		int numdigits = 0;
+		int scale = 0;
+		boolean seenDigit = false;
+		boolean seenPoint = false;
+		for (; i < end; ++i){
+			int c = b[i];
+			if (c >= '0' && c <= '9'){
+				seenDigit = true;
+				if (mantissa != 0 || c != '0'){
+					if (++numdigits > 15){
+						return slowParseDouble(b, start, end);
+					}
+				}
+				mantissa = 10*mantissa + (c - '0');
+				if (seenPoint){
+					++scale;
+				}
+			} else if (c == '.' && !seenPoint){
+				seenPoint = true;
+			} else {
+				return slowParseDouble(b, start, end);
+			}
+		}
+		if (!seenDigit || scale >= POW10.length){
+			return slowParseDouble(b, start, end);
+		}
+		// both operands are exact, so the division is correctly rounded
+		double value = mantissa / POW10[scale];
+		return negative? -value : value;
+	}
+
+	private static double slowParseDouble(byte[] b, int start, int end){
+		return Double.parseDouble(new String(b, start, end-start, StandardCharsets.US_ASCII));
+	}
+
+	private boolean fill() throws IOException {
+		int n;
+		do {
+			n = in.read(buf, limit, buf.length - limit);
+		} while (n == 0);
+		if (n < 0){
+			return false;
+		}
+		limit += n;
+		return true;
+	}
+}
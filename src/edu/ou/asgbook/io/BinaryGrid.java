@@ -0,0 +1,408 @@
+/**
+ *
+ */
+package edu.ou.asgbook.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import edu.ou.asgbook.core.LatLon;
+import edu.ou.asgbook.core.LatLonGrid;
+import edu.ou.asgbook.dataset.GlobalPopulation;
+import edu.ou.asgbook.linearity.DataTransform;
+
+/**
+ * Reads and writes spatial grids in a compact binary form that is much faster
+ * to load than ESRI ASCII grids.
+ *
+ * The file is a 64-byte header followed by the pixel values, row-major, as
+ * big-endian 32-bit integers.  If the grid is compressed, the header is followed
+ * instead by the compressed length of each tile of rows and then by the tiles,
+ * each compressed separately with DEFLATE.  Uncompressed files can also be
+ * memory-mapped using MappedGrid.
+ *
+ * @author valliappa.lakshmanan
+ *
+ */
+public class BinaryGrid {
+	static final int MAGIC = 0x41534742; // "ASGB"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 64;
+	static final int NO_COMPRESSION = 0;
+	static final int DEFLATE = 1;
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * The header of a binary grid file.
+	 */
+	static class Header {
+		int nrows;
+		int ncols;
+		int missing;
+		int compression;
+		LatLon nwCorner;
+		double latres;
+		double lonres;
+		int rowsPerTile;
+
+		Header(LatLonGrid grid, int compression, int rowsPerTile){
+			this.nrows = grid.getNumLat();
+			this.ncols = grid.getNumLon();
+			this.missing = grid.getMissing();
+			this.compression = compression;
+			this.nwCorner = grid.getNwCorner();
+			this.latres = grid.getLatRes();
+			this.lonres = grid.getLonRes();
+			this.rowsPerTile = rowsPerTile;
+		}
+
+		Header(int nrows, int ncols, int missing, LatLon nwCorner, double latres, double lonres){
+			this.nrows = nrows;
+			this.ncols = ncols;
+			this.missing = missing;
+			this.compression = NO_COMPRESSION;
+			this.nwCorner = nwCorner;
+			this.latres = latres;
+			this.lonres = lonres;
+			this.rowsPerTile = nrows;
+		}
+
+		private Header(){
+		}
+
+		static Header read(FileChannel channel, File file) throws IOException {
+			ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(channel, buf, file);
+			buf.flip();
+			if (buf.getInt() != MAGIC){
+				throw new IOException(file + " is not a binary grid");
+			}
+			int version = buf.getInt();
+			if (version != VERSION){
+				throw new IOException(file + " has unsupported version " + version);
+			}
+			Header h = new Header();
+			h.nrows = buf.getInt();
+			h.ncols = buf.getInt();
+			h.missing = buf.getInt();
+			h.compression = buf.getInt();
+			double nwlat = buf.getDouble();
+			double nwlon = buf.getDouble();
+			h.nwCorner = new LatLon(nwlat, nwlon);
+			h.latres = buf.getDouble();
+			h.lonres = buf.getDouble();
+			h.rowsPerTile = buf.getInt();
+			if (h.rowsPerTile <= 0){
+				h.rowsPerTile = h.nrows;
+			}
+			return h;
+		}
+
+		void write(FileChannel channel) throws IOException {
+			ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+			buf.putInt(MAGIC).putInt(VERSION).putInt(nrows).putInt(ncols).putInt(missing).putInt(compression);
+			buf.putDouble(nwCorner.getLat()).putDouble(nwCorner.getLon());
+			buf.putDouble(latres).putDouble(lonres);
+			buf.putInt(rowsPerTile);
+			buf.rewind();
+			writeFully(channel, buf);
+		}
+
+		int getNumTiles(){
+			return (nrows + rowsPerTile - 1) / rowsPerTile;
+		}
+	}
+
+	/**
+	 * Reads the entire grid into memory, as an array of rows.  Use MappedGrid
+	 * for grids that are too large for that.
+	 */
+	public static LatLonGrid read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			Header h = Header.read(channel, file);
+			int[][] values = new int[h.nrows][h.ncols];
+			if (h.compression == NO_COMPRESSION){
+				readValues(channel, values, file);
+			} else if (h.compression == DEFLATE){
+				readCompressed(channel, h, values, file);
+			} else {
+				throw new IOException(file + " uses unknown compression " + h.compression);
+			}
+			return new LatLonGrid(values, h.missing, h.nwCorner, h.latres, h.lonres);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes out the grid, optionally compressing it.  Compression works well
+	 * on grids with large areas of constant value.
+	 */
+	public static void write(LatLonGrid grid, File file, boolean compress) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			if (compress){
+				// about a million pixels per tile
+				int rowsPerTile = Math.max(1, Math.min(grid.getNumLat(), BUFFER_SIZE / grid.getNumLon()));
+				Header h = new Header(grid, DEFLATE, rowsPerTile);
+				h.write(channel);
+				writeCompressed(channel, h, grid);
+			} else {
+				Header h = new Header(grid, NO_COMPRESSION, grid.getNumLat());
+				h.write(channel);
+				writeValues(channel, grid);
+			}
+		} finally {
+			raf.close();
+		}
+		System.out.println("Successfully wrote " + file);
+	}
+
+	/**
+	 * The file used to cache the binary form of an ESRI grid read with the given transform.
+	 * Returns null if the transform can not be identified.  A subclass that does
+	 * not declare getName() itself is not identified by the name it inherits,
+	 * since it may transform the data differently.
+	 */
+	public static File getCacheFile(File esriFile, DataTransform t){
+		String name = t.getName();
+		if (name == null || !declaresGetName(t.getClass())){
+			return null;
+		}
+		String base = esriFile.getPath();
+		if (base.endsWith(".gz")){
+			base = base.substring(0, base.length() - 3);
+		}
+		return new File(base + "." + name + ".grid");
+	}
+
+	/**
+	 * Reads the ESRI grid, using the binary cache next to it if it is up-to-date,
+	 * and creating the cache if it is not.  If the cache can not be written,
+	 * the ESRI grid is simply read.
+	 */
+	public static LatLonGrid readCached(File esriFile, DataTransform t) throws IOException {
+		File cache = getCacheFile(esriFile, t);
+		if (cache == null){
+			return EsriGrid.readParallel(esriFile, t);
+		}
+		if (cache.exists() && cache.lastModified() >= esriFile.lastModified()){
+			try {
+				return read(cache);
+			} catch (IOException e){
+				System.err.println("Ignoring unreadable cache " + cache + ": " + e);
+			}
+		}
+		LatLonGrid grid = EsriGrid.readParallel(esriFile, t);
+		// write to a temporary file and rename it, so that a reader never sees a partly written cache
+		File tmp = null;
+		try {
+			tmp = File.createTempFile(cache.getName(), ".tmp", cache.getAbsoluteFile().getParentFile());
+			write(grid, tmp, false);
+			try {
+				Files.move(tmp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e){
+				Files.move(tmp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e){
+			System.err.println("Unable to cache " + esriFile + " as " + cache + ": " + e);
+			if (tmp != null){
+				tmp.delete();
+			}
+		}
+		return grid;
+	}
+
+	private static boolean declaresGetName(Class<?> c){
+		try {
+			return c.getMethod("getName").getDeclaringClass() == c;
+		} catch (NoSuchMethodException e){
+			return false;
+		}
+	}
+
+	/**
+	 * Converts an ESRI grid into a binary grid.
+	 */
+	public static void convert(File esriFile, DataTransform t, File out, boolean compress) throws IOException {
+		write(EsriGrid.readParallel(esriFile, t), out, compress);
+	}
+
+	private static void readValues(FileChannel channel, int[][] values, File file) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.BIG_ENDIAN);
+		buf.limit(0);
+		for (int i=0; i < values.length; ++i){
+			int[] row = values[i];
+			int pos = 0;
+			while (pos < row.length){
+				if (buf.remaining() < 4){
+					buf.compact(); // keep any partial value
+					if (channel.read(buf) < 0){
+						throw new EOFException(file + " ends in row " + i + " of " + values.length);
+					}
+					buf.flip();
+					continue;
+				}
+				int n = Math.min(buf.remaining() / 4, row.length - pos);
+				buf.asIntBuffer().get(row, pos, n);
+				buf.position(buf.position() + 4*n);
+				pos += n;
+			}
+		}
+	}
+
+	private static void writeValues(FileChannel channel, LatLonGrid grid) throws IOException {
+		final int ncols = grid.getNumLon();
+		ByteBuffer buf = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, 4*ncols)).order(ByteOrder.BIG_ENDIAN);
+		int[] row = new int[ncols];
+		for (int i=0; i < grid.getNumLat(); ++i){
+			if (buf.remaining() < 4*ncols){
+				buf.flip();
+				writeFully(channel, buf);
+				buf.clear();
+			}
+			buf.asIntBuffer().put(grid.getRowValues(i, row));
+			buf.position(buf.position() + 4*ncols);
+		}
+		buf.flip();
+		writeFully(channel, buf);
+	}
+
+	private static void readCompressed(FileChannel channel, Header h, int[][] values, File file) throws IOException {
+		final int numTiles = h.getNumTiles();
+		ByteBuffer index = ByteBuffer.allocate(8 * numTiles);
+		readFully(channel, index, file);
+		index.flip();
+		byte[] tile = new byte[4 * h.rowsPerTile * h.ncols];
+		IntBuffer tileValues = ByteBuffer.wrap(tile).order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+		Inflater inflater = new Inflater();
+		try {
+			for (int t=0; t < numTiles; ++t){
+				ByteBuffer compressed = ByteBuffer.allocate((int) index.getLong());
+				readFully(channel, compressed, file);
+				int numRows = Math.min(h.rowsPerTile, h.nrows - t*h.rowsPerTile);
+				int numValues = numRows * h.ncols;
+				inflater.reset();
+				inflater.setInput(compressed.array());
+				int len = 0;
+				while (len < 4*numValues && !inflater.finished()){
+					len += inflater.inflate(tile, len, 4*numValues - len);
+					if (inflater.needsInput()){
+						break;
+					}
+				}
+				if (len != 4*numValues){
+					throw new IOException(file + " tile " + t + " holds " + len + " bytes, expected " + (4*numValues));
+				}
+				tileValues.clear();
+				for (int r=0; r < numRows; ++r){
+					tileValues.get(values[t * h.rowsPerTile + r]);
+				}
+			}
+		} catch (DataFormatException e){
+			throw new IOException(file + " is corrupt", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static void writeCompressed(FileChannel channel, Header h, LatLonGrid grid) throws IOException {
+		final int numTiles = h.getNumTiles();
+		// leave room for the index of tile lengths, and fill it in at the end
+		ByteBuffer index = ByteBuffer.allocate(8 * numTiles);
+		long indexPosition = channel.position();
+		channel.position(indexPosition + index.capacity());
+
+		byte[] tile = new byte[4 * h.rowsPerTile * h.ncols];
+		IntBuffer tileValues = ByteBuffer.wrap(tile).order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+		byte[] compressed = new byte[BUFFER_SIZE];
+		int[] row = new int[h.ncols];
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			for (int t=0; t < numTiles; ++t){
+				int startRow = t * h.rowsPerTile;
+				int numRows = Math.min(h.rowsPerTile, h.nrows - startRow);
+				tileValues.clear();
+				for (int i=0; i < numRows; ++i){
+					tileValues.put(grid.getRowValues(startRow + i, row));
+				}
+				deflater.reset();
+				deflater.setInput(tile, 0, 4 * numRows * h.ncols);
+				deflater.finish();
+				long len = 0;
+				while (!deflater.finished()){
+					int n = deflater.deflate(compressed);
+					writeFully(channel, ByteBuffer.wrap(compressed, 0, n));
+					len += n;
+				}
+				index.putLong(len);
+			}
+		} finally {
+			deflater.end();
+		}
+		index.flip();
+		channel.position(indexPosition);
+		writeFully(channel, index);
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buf, File file) throws IOException {
+		while (buf.hasRemaining()){
+			if (channel.read(buf) < 0){
+				throw new EOFException("Unexpected end of " + file);
+			}
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()){
+			channel.write(buf);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		File out = OutputDirectory.getDefault("binarygrid");
+		DataTransform t = new GlobalPopulation.LogScaling();
+
+		// convert the ESRI grid
+		long start = System.currentTimeMillis();
+		LatLonGrid popdensity = EsriGrid.read(GlobalPopulation.NORTHAMERICA, t);
+		long read = System.currentTimeMillis();
+		System.out.println("Reading ESRI grid took " + (read-start) + " ms");
+
+		File raw = new File(out, "popdensity.grid");
+		File compressed = new File(out, "popdensity_compressed.grid");
+		BinaryGrid.write(popdensity, raw, false);
+		BinaryGrid.write(popdensity, compressed, true);
+		System.out.println("Binary grid is " + raw.length() + " bytes; compressed grid is " + compressed.length() + " bytes; ESRI grid is " + GlobalPopulation.NORTHAMERICA.length() + " bytes");
+
+		// read back
+		for (File f : new File[]{raw, compressed}){
+			start = System.currentTimeMillis();
+			LatLonGrid grid = BinaryGrid.read(f);
+			long end = System.currentTimeMillis();
+			int numdiff = 0;
+			for (int i=0; i < grid.getNumLat(); ++i) for (int j=0; j < grid.getNumLon(); ++j){
+				if (grid.getValue(i,j) != popdensity.getValue(i,j)){
+					++numdiff;
+				}
+			}
+			System.out.println("Reading " + f + " took " + (end-start) + " ms; " + numdiff + " pixels differ from the ESRI grid");
+		}
+	}
+}
@@ -8,16 +8,19 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import edu.ou.asgbook.core.LatLon;
 import edu.ou.asgbook.core.LatLonGrid;
+import edu.ou.asgbook.dataset.GlobalPopulation;
 import edu.ou.asgbook.linearity.DataTransform;
 
 /**
@@ -27,15 +30,117 @@ import edu.ou.asgbook.linearity.DataTransform;
  *
  */
 public class EsriGrid {
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	/**
+	 * reads data from a File. The File can be gzipped or uncompressed.
+	 */
 	public static LatLonGrid read(File file, DataTransform t) throws IOException, FileNotFoundException {
-		Reader f = null;
+		return read(open(file), t);
+	}
+	
+	/**
+	 * reads data from a File, parsing it on the common fork-join pool.
+	 * @see #readParallel(File, DataTransform, ForkJoinPool)
+	 */
+	public static LatLonGrid readParallel(File file, DataTransform t) throws IOException, FileNotFoundException {
+		return readParallel(file, t, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * reads data from a File, splitting it into chunks of rows that are parsed
+	 * concurrently on the pool.  The File can be gzipped or uncompressed.
+	 * The results are identical to read(File,DataTransform), which is used instead
+	 * if the lines of the file are not the rows of the grid.
+	 */
+	public static LatLonGrid readParallel(File file, DataTransform t, ForkJoinPool pool) throws IOException, FileNotFoundException {
+		InputStream f = open(file);
+		try {
+			return new ParallelAsciiGridReader(f, t, pool).read();
+		} catch (ParallelAsciiGridReader.RowLayoutException e){
+			System.out.println(file + " does not hold one row per line (" + e.getMessage() + "); reading it serially");
+		} catch (Exception e){
+			System.err.println("Error reading file: " + e);
+			throw new IllegalArgumentException(e);
+		} finally {
+			f.close();
+		}
+		return read(file, t);
+	}
+	
+	private static InputStream open(File file) throws IOException {
+		InputStream f = new FileInputStream(file);
 		if (file.getAbsolutePath().endsWith(".gz")) {
-			f = new InputStreamReader(new GZIPInputStream(new FileInputStream(
-					file)));
-		} else {
-			f = new FileReader(file);
+			f = new GZIPInputStream(f, BUFFER_SIZE);
+		}
+		return f;
+	}
+
+	/**
+	 * Parses the grid directly from the bytes of the stream, without creating
+	 * any objects per line or per value.  The results
+	 * are identical to read(Reader,DataTransform).
+	 */
+	public static LatLonGrid read(InputStream input, DataTransform t) {
+		try {
+			AsciiGridTokenizer tokens = new AsciiGridTokenizer(input);
+			// read header
+			int ncols = Integer.parseInt( tokens.nextHeaderValue() );
+			int nrows = Integer.parseInt( tokens.nextHeaderValue() );
+			double cornerlon = Double.parseDouble( tokens.nextHeaderValue() );
+			double cornerlat = Double.parseDouble( tokens.nextHeaderValue() );
+			double latres = Double.parseDouble( tokens.nextHeaderValue() );
+			double lonres = latres;
+			String missingValue = tokens.nextHeaderValue();
+			int missing = Integer.parseInt(missingValue);
+			byte[] missingToken = missingValue.getBytes(StandardCharsets.US_ASCII);
+
+			// read in data
+			int[][] data = new int[nrows][ncols];
+			int numvalid = 0;
+			int nummissing = 0;
+			int numzero = 0;
+			int minval = Integer.MAX_VALUE;
+			int maxval = 0;
+			int i = 0;
+			int j = 0;
+			final byte[] buf = tokens.buf;
+			while ( tokens.next() ){
+				if (i == nrows){
+					throw new IllegalArgumentException("More than " + nrows + "x" + ncols + " values in grid");
+				}
+				if (tokens.tokenEquals(missingToken)){
+					data[i][j] = missing;
+					++nummissing;
+				} else {
+					int value = t.transformAndRoundoff(AsciiGridTokenizer.parseDouble(buf, tokens.start, tokens.end));
+					data[i][j] = value;
+					if ( value != 0 ){
+						++numvalid;
+						minval = Math.min(minval, value);
+						maxval = Math.max(maxval, value);
+					} else {
+						++numzero;
+					}
+				}
+				if (++j == ncols){
+					j = 0;
+					++i;
+				}
+			}
+			System.out.println(numvalid + " valid pixels; " + numzero + " zero; " + nummissing + " " + missing + " range=[" + minval + "," + maxval +"]");
+			LatLon nwCorner = new LatLon(cornerlat + latres*nrows, cornerlon);
+			return new LatLonGrid(data, missing, nwCorner, latres, lonres);
+		} catch (Exception e){
+			System.err.println("Error reading file: " + e);
+			throw new IllegalArgumentException(e);
+		} finally {
+			try{
+				input.close();
+			} catch (Exception e){
+				// okay
+			}
 		}
-		return read(f, t);
 	}
 
 	public static LatLonGrid read(Reader inputFile, DataTransform t) {
@@ -140,4 +245,38 @@ public class EsriGrid {
 		}
 	}
 	
+	public static void main(String[] args) throws Exception {
+		// throughput of the two parsers on the North American population grid
+		File file = GlobalPopulation.NORTHAMERICA;
+		DataTransform t = new GlobalPopulation.LinearScaling();
+		for (int trial=0; trial < 3; ++trial){
+			long start = System.nanoTime();
+			InputStream in = new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE);
+			byte[] buf = new byte[BUFFER_SIZE];
+			long numbytes = 0;
+			int n;
+			while ( (n = in.read(buf)) >= 0 ){
+				numbytes += n;
+			}
+			in.close();
+			long decompressed = System.nanoTime();
+			LatLonGrid a = EsriGrid.read(new InputStreamReader(new GZIPInputStream(new FileInputStream(file))), t);
+			long readerDone = System.nanoTime();
+			LatLonGrid b = EsriGrid.read(file, t);
+			long streamDone = System.nanoTime();
+			LatLonGrid c = EsriGrid.readParallel(file, t);
+			long parallelDone = System.nanoTime();
+
+			int numdiff = 0;
+			for (int i=0; i < a.getNumLat(); ++i) for (int j=0; j < a.getNumLon(); ++j){
+				if (a.getValue(i,j) != b.getValue(i,j) || a.getValue(i,j) != c.getValue(i,j)){
+					++numdiff;
+				}
+			}
+			double mb = numbytes / 1.0e6;
+			System.out.println(String.format("%.1f MB: decompress only %.1f MB/s; Reader parser %.1f MB/s; byte parser %.1f MB/s; parallel byte parser (%d threads) %.1f MB/s; %d pixels differ",
+					mb, mb / ((decompressed-start)/1e9), mb / ((readerDone-decompressed)/1e9), mb / ((streamDone-readerDone)/1e9),
+					ForkJoinPool.commonPool().getParallelism(), mb / ((parallelDone-streamDone)/1e9), numdiff));
+		}
+	}
 }
@@ -0,0 +1,121 @@
+/**
+ *
+ */
+package edu.ou.asgbook.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import edu.ou.asgbook.core.LatLon;
+import edu.ou.asgbook.core.LatLonGrid;
+import edu.ou.asgbook.dataset.GlobalPopulation;
+import edu.ou.asgbook.filters.ConvolutionFilter;
+
+/**
+ * Keeps a spatial grid in a memory-mapped file rather than on the Java heap,
+ * so that grids larger than the heap can be processed and so that reopening a
+ * grid that has already been written costs almost nothing.
+ *
+ * The file is an uncompressed binary grid (see BinaryGrid).  Files larger
+ * than 2 GB are mapped as several blocks of rows.
+ *
+ * @author valliappa.lakshmanan
+ *
+ */
+public class MappedGrid {
+	/**
+	 * Opens a grid previously written by write() or create(), or an uncompressed BinaryGrid.
+	 * @param writable if true, changes made to the grid are written to the file
+	 */
+	public static LatLonGrid open(File file, boolean writable) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, writable? "rw" : "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			BinaryGrid.Header h = BinaryGrid.Header.read(channel, file);
+			if (h.compression != BinaryGrid.NO_COMPRESSION){
+				throw new IOException(file + " is compressed and can not be memory-mapped");
+			}
+			return map(channel, writable, h.nrows, h.ncols, h.missing, h.nwCorner, h.latres, h.lonres);
+		} finally {
+			// the mapping remains valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Creates a new file holding a grid of zeros and maps it read-write.
+	 */
+	public static LatLonGrid create(File file, int nrows, int ncols, int missing, LatLon nwCorner,
+			double latres, double lonres) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			new BinaryGrid.Header(nrows, ncols, missing, nwCorner, latres, lonres).write(channel);
+			raf.setLength(BinaryGrid.HEADER_SIZE + 4L * nrows * ncols);
+			return map(channel, true, nrows, ncols, missing, nwCorner, latres, lonres);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes out the grid to the file, a row at a time.
+	 * @return the grid, now backed by the file
+	 */
+	public static LatLonGrid write(LatLonGrid grid, File file) throws IOException {
+		LatLonGrid result = create(file, grid.getNumLat(), grid.getNumLon(), grid.getMissing(), grid.getNwCorner(), grid.getLatRes(), grid.getLonRes());
+		int[] row = new int[grid.getNumLon()];
+		for (int i=0; i < grid.getNumLat(); ++i){
+			result.setRowValues(i, grid.getRowValues(i, row));
+		}
+		System.out.println("Successfully wrote " + file);
+		return result;
+	}
+
+	private static LatLonGrid map(FileChannel channel, boolean writable, int nrows, int ncols, int missing, LatLon nwCorner,
+			double latres, double lonres) throws IOException {
+		// each mapping is limited to 2 GB, so map whole rows in blocks that fit
+		int rowsPerBuffer = Math.max(1, Math.min(nrows, Integer.MAX_VALUE / (4 * ncols)));
+		int numBuffers = (nrows + rowsPerBuffer - 1) / rowsPerBuffer;
+		IntBuffer[] buffers = new IntBuffer[numBuffers];
+		FileChannel.MapMode mode = writable? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+		for (int b=0; b < numBuffers; ++b){
+			int numrows = Math.min(rowsPerBuffer, nrows - b*rowsPerBuffer);
+			long start = BinaryGrid.HEADER_SIZE + 4L * b * rowsPerBuffer * ncols;
+			long size = 4L * numrows * ncols;
+			buffers[b] = channel.map(mode, start, size).order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+		}
+		return new LatLonGrid(buffers, rowsPerBuffer, nrows, ncols, missing, nwCorner, latres, lonres);
+	}
+
+	public static void main(String[] args) throws Exception {
+		// create output directory
+		File out = OutputDirectory.getDefault("mappedgrid");
+		File file = new File(out, "popdensity.grid");
+
+		// read input and write it out as a mapped grid
+		long start = System.currentTimeMillis();
+		LatLonGrid popdensity = EsriGrid.read(GlobalPopulation.NORTHAMERICA, new GlobalPopulation.LogScaling());
+		long read = System.currentTimeMillis();
+		MappedGrid.write(popdensity, file);
+		long written = System.currentTimeMillis();
+		System.out.println("Reading ESRI grid took " + (read-start) + " ms; writing mapped grid took " + (written-read) + " ms");
+
+		// reopen; this takes almost no time
+		start = System.currentTimeMillis();
+		LatLonGrid mapped = MappedGrid.open(file, false);
+		long opened = System.currentTimeMillis();
+		System.out.println("Opening " + mapped.getNumLat() + "x" + mapped.getNumLon() + " mapped grid took " + (opened-start) + " ms");
+
+		// the mapped grid can be used like any other grid
+		LatLonGrid crop = mapped.crop(900, 2500, 200, 200);
+		KmlWriter.write(crop, out, "orig", PngWriter.createCoolToWarmColormap());
+		LatLonGrid sm = new ConvolutionFilter(ConvolutionFilter.gauss(11, 11)).smooth(crop);
+		KmlWriter.write(sm, out, "gauss", PngWriter.createCoolToWarmColormap());
+	}
+}
@@ -0,0 +1,281 @@
+/**
+ *
+ */
+package edu.ou.asgbook.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import edu.ou.asgbook.core.LatLon;
+import edu.ou.asgbook.core.LatLonGrid;
+import edu.ou.asgbook.linearity.DataTransform;
+
+/**
+ * Reads an ESRI ASCII grid by splitting its body into chunks of whole lines
+ * and parsing the chunks concurrently.  Each line is assumed to hold one row
+ * of the grid, so every chunk writes directly into its own range of rows.
+ * Reading the (possibly gzipped) stream remains sequential.
+ *
+ * @author valliappa.lakshmanan
+ *
+ */
+final class ParallelAsciiGridReader {
+	private static final int CHUNK_SIZE = 1 << 22;
+	private static final int NUM_HEADER_LINES = 6;
+
+	/** Thrown if a chunk does not hold one row per line. */
+	static class RowLayoutException extends IllegalStateException {
+		private static final long serialVersionUID = 1L;
+		RowLayoutException(String message){
+			super(message);
+		}
+	}
+
+	/** The summary that EsriGrid prints after reading a grid. */
+	static class Statistics {
+		int numvalid = 0;
+		int nummissing = 0;
+		int numzero = 0;
+		int minval = Integer.MAX_VALUE;
+		int maxval = 0;
+
+		void update(Statistics other){
+			numvalid += other.numvalid;
+			nummissing += other.nummissing;
+			numzero += other.numzero;
+			minval = Math.min(minval, other.minval);
+			maxval = Math.max(maxval, other.maxval);
+		}
+	}
+
+	private final InputStream in;
+	private final DataTransform t;
+	private final ForkJoinPool pool;
+	private boolean eof = false;
+
+	private int nrows;
+	private int ncols;
+	private int missing;
+	private byte[] missingToken;
+	private int[][] data;
+
+	ParallelAsciiGridReader(InputStream in, DataTransform t, ForkJoinPool pool){
+		this.in = in;
+		this.t = t;
+		this.pool = pool;
+	}
+
+	/**
+	 * @throws RowLayoutException if the lines of the file are not the rows of the grid
+	 */
+	LatLonGrid read() throws IOException {
+		byte[] buf = new byte[CHUNK_SIZE];
+		int len = fill(buf, 0);
+
+		// header
+		int pos = 0;
+		for (int line=0; line < NUM_HEADER_LINES; ++line){
+			pos = indexOf(buf, pos, len, (byte) '\n') + 1;
+			if (pos == 0){
+				throw new IOException("Incomplete header");
+			}
+		}
+		AsciiGridTokenizer header = new AsciiGridTokenizer(new ByteArrayInputStream(buf, 0, pos));
+		ncols = Integer.parseInt( header.nextHeaderValue() );
+		nrows = Integer.parseInt( header.nextHeaderValue() );
+		double cornerlon = Double.parseDouble( header.nextHeaderValue() );
+		double cornerlat = Double.parseDouble( header.nextHeaderValue() );
+		double latres = Double.parseDouble( header.nextHeaderValue() );
+		double lonres = latres;
+		String missingValue = header.nextHeaderValue();
+		missing = Integer.parseInt(missingValue);
+		missingToken = missingValue.getBytes(StandardCharsets.US_ASCII);
+		data = new int[nrows][ncols];
+
+		// hand out chunks of whole lines, keeping a bounded number in flight
+		final int maxInFlight = 2 * pool.getParallelism();
+		ArrayDeque<ForkJoinTask<Statistics>> tasks = new ArrayDeque<ForkJoinTask<Statistics>>();
+		ArrayDeque<byte[]> buffers = new ArrayDeque<byte[]>();
+		ArrayDeque<byte[]> free = new ArrayDeque<byte[]>();
+		Statistics stats = new Statistics();
+		int row = 0;
+		int start = pos;
+		while (start < len || !eof){
+			int end = eof? len : lastIndexOf(buf, start, len, (byte) '\n') + 1;
+			if (end <= start){
+				// a line longer than the buffer
+				buf = Arrays.copyOf(buf, 2*buf.length);
+				len = fill(buf, len);
+				continue;
+			}
+			int numlines = countLines(buf, start, end);
+			if (numlines > 0){
+				tasks.add(pool.submit(new Chunk(buf, start, end, row, numlines)));
+				buffers.add(buf);
+				row += numlines;
+			} else {
+				free.add(buf);
+			}
+			if (tasks.size() >= maxInFlight){
+				stats.update(join(tasks.remove()));
+				free.add(buffers.remove());
+			}
+
+			// carry the partial line over to the next buffer
+			byte[] next = free.isEmpty()? new byte[CHUNK_SIZE] : free.remove();
+			if (next.length < len - end){
+				next = new byte[buf.length];
+			}
+			System.arraycopy(buf, end, next, 0, len - end);
+			len = len - end;
+			start = 0;
+			buf = next;
+			if (!eof){
+				len = fill(buf, len);
+			}
+		}
+		while (!tasks.isEmpty()){
+			stats.update(join(tasks.remove()));
+		}
+
+		System.out.println(stats.numvalid + " valid pixels; " + stats.numzero + " zero; " + stats.nummissing + " " + missing + " range=[" + stats.minval + "," + stats.maxval +"]");
+		LatLon nwCorner = new LatLon(cornerlat + latres*nrows, cornerlon);
+		return new LatLonGrid(data, missing, nwCorner, latres, lonres);
+	}
+
+	/** Parses a range of lines into the corresponding rows of the grid. */
+	private class Chunk implements Callable<Statistics> {
+		private final byte[] buf;
+		private final int start;
+		private final int end;
+		private final int startRow;
+		private final int numRows;
+
+		Chunk(byte[] buf, int start, int end, int startRow, int numRows){
+			this.buf = buf;
+			this.start = start;
+			this.end = end;
+			this.startRow = startRow;
+			this.numRows = numRows;
+		}
+
+		@Override
+		public Statistics call() {
+			if (startRow + numRows > nrows){
+				throw new RowLayoutException("More than " + nrows + " lines in grid");
+			}
+			Statistics stats = new Statistics();
+			int i = startRow;
+			int j = 0;
+			final int lastRow = startRow + numRows;
+			int pos = start;
+			while (true){
+				while (pos < end && buf[pos] <= ' '){
+					++pos;
+				}
+				if (pos == end){
+					break;
+				}
+				int tokenStart = pos;
+				while (pos < end && buf[pos] > ' '){
+					++pos;
+				}
+				if (i == lastRow){
+					throw new RowLayoutException("Lines " + startRow + "-" + (startRow+numRows) + " hold more than " + ncols + " values each");
+				}
+				if (AsciiGridTokenizer.equals(buf, tokenStart, pos, missingToken)){
+					data[i][j] = missing;
+					++stats.nummissing;
+				} else {
+					int value = t.transformAndRoundoff(AsciiGridTokenizer.parseDouble(buf, tokenStart, pos));
+					data[i][j] = value;
+					if ( value != 0 ){
+						++stats.numvalid;
+						stats.minval = Math.min(stats.minval, value);
+						stats.maxval = Math.max(stats.maxval, value);
+					} else {
+						++stats.numzero;
+					}
+				}
+				if (++j == ncols){
+					j = 0;
+					++i;
+				}
+			}
+			if (i != lastRow){
+				throw new RowLayoutException("Lines " + startRow + "-" + (startRow+numRows) + " hold fewer than " + ncols + " values each");
+			}
+			return stats;
+		}
+	}
+
+	private static Statistics join(ForkJoinTask<Statistics> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e){
+			throw new IOException(e);
+		} catch (ExecutionException e){
+			if (e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/** Reads until the buffer is full or the stream ends. */
+	private int fill(byte[] buf, int len) throws IOException {
+		while (len < buf.length){
+			int n = in.read(buf, len, buf.length - len);
+			if (n < 0){
+				eof = true;
+				break;
+			}
+			len += n;
+		}
+		return len;
+	}
+
+	/** Number of lines that hold something other than whitespace. */
+	private static int countLines(byte[] b, int start, int end){
+		int numlines = 0;
+		boolean blank = true;
+		for (int i=start; i < end; ++i){
+			byte c = b[i];
+			if (c == '\n'){
+				if (!blank){
+					++numlines;
+				}
+				blank = true;
+			} else if (c > ' '){
+				blank = false;
+			}
+		}
+		return blank? numlines : numlines+1;
+	}
+
+	private static int indexOf(byte[] b, int start, int end, byte c){
+		for (int i=start; i < end; ++i){
+			if (b[i] == c){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int lastIndexOf(byte[] b, int start, int end, byte c){
+		for (int i=end-1; i >= start; --i){
+			if (b[i] == c){
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -23,20 +23,21 @@ import edu.ou.asgbook.core.LatLonGrid;
 public class PngWriter {	
 	static final byte DEFAULT_TRANSPARENCY = (byte) 200; // 255 is opaque
 	static public void writeAutoScaled(LatLonGrid grid, File outputFile, ColorModel colormap) throws Exception {
-		// find min, max in data
-		int[][] data = grid.getData();
+		// find min, max in data; read a row at a time so that grids held off-heap stay there
+		int[] data = new int[grid.getNumLon()];
 		int min = Integer.MAX_VALUE;
 		int max = Integer.MIN_VALUE;
 		int numvalid = 0;
-		for (int i=0; i < data.length; ++i){
-			for (int j=0; j < data[0].length; ++j){
-				if ( data[i][j] != grid.getMissing() ){
+		for (int i=0; i < grid.getNumLat(); ++i){
+			grid.getRowValues(i, data);
+			for (int j=0; j < data.length; ++j){
+				if ( data[j] != grid.getMissing() ){
 					++numvalid;
-					if ( data[i][j] < min ){
-						min = data[i][j];
+					if ( data[j] < min ){
+						min = data[j];
 					}
-					if ( data[i][j] > max ){
-						max = data[i][j];
+					if ( data[j] > max ){
+						max = data[j];
 					}
 				}
 			}
@@ -166,21 +167,22 @@ public class PngWriter {
 	
 	static public void writeScaled(LatLonGrid grid, File outputFile, int min, int max, ColorModel colormap) throws Exception {	
 		// scale the data and lookup the color
-		int[][] data = grid.getData();
+		int[] data = new int[grid.getNumLon()];
 		double scale = 255.0 / (max - min + 1); // first is for 'missing'
 		BufferedImage result = new BufferedImage(grid.getNumLon(), grid.getNumLat(), BufferedImage.TYPE_INT_ARGB);
-		for (int i=0; i < data.length; ++i){
-			for (int j=0; j < data[0].length; ++j){
+		for (int i=0; i < grid.getNumLat(); ++i){
+			grid.getRowValues(i, data);
+			for (int j=0; j < data.length; ++j){
 				int scaled = 0;
-				if ( data[i][j] == grid.getMissing() ){
+				if ( data[j] == grid.getMissing() ){
 					scaled = 0;
-				} else if ( data[i][j] < min ){
-					// System.out.println(data[i][j] + " " + scaled);
+				} else if ( data[j] < min ){
+					// System.out.println(data[j] + " " + scaled);
 					scaled = 0;
-				} else if ( data[i][j] >= max ){
+				} else if ( data[j] >= max ){
 					scaled = 255;
 				} else {
-					scaled = (int) ( (data[i][j]-min) * scale + 1.5);
+					scaled = (int) ( (data[j]-min) * scale + 1.5);
 				}
 				
 				result.setRGB(j, i, colormap.getRGB(scaled));
@@ -1,4 +1,4 @@
 /**
- * Helper classes to read ESRI grids and write out KML/PNG.
+ * Helper classes to read ESRI grids, keep grids in memory-mapped files and write out KML/PNG.
  */
 package edu.ou.asgbook.io;
\ No newline at end of file
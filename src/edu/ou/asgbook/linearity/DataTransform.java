@@ -16,4 +16,14 @@ public abstract class DataTransform {
 	}
 	public abstract double transform(double value);
 	public abstract double inverse(double value);
+	
+	/**
+	 * Identifies this transform, including its parameters, so that transformed
+	 * data can be cached.  Returns null if the transform can not be identified.
+	 * Subclasses that change the transform have to declare this method again,
+	 * or their data will not be cached.
+	 */
+	public String getName(){
+		return null;
+	}
 }
@@ -27,4 +27,9 @@ public class LinearScaling extends DataTransform {
 	public double inverse(double value) {
 		return (value / scale);
 	}
+
+	@Override
+	public String getName() {
+		return "linear" + scale;
+	}
 }
@@ -34,4 +34,9 @@ public class LogScaling extends DataTransform {
 			return Math.pow(10, value/scale);
 		}
 	}
+
+	@Override
+	public String getName() {
+		return "log" + scale;
+	}
 }
@@ -9,7 +9,7 @@ import java.util.Date;
 import edu.ou.asgbook.core.LatLonGrid;
 import edu.ou.asgbook.core.Pair;
 import edu.ou.asgbook.dataset.SeviriInfraredTemperature;
-import edu.ou.asgbook.filters.ConvolutionFilter;
+import edu.ou.asgbook.filters.BoxcarFilter;
 import edu.ou.asgbook.io.KmlWriter;
 import edu.ou.asgbook.io.OutputDirectory;
 import edu.ou.asgbook.io.PngWriter;
@@ -68,7 +68,7 @@ public class HornSchunk implements MotionEstimator {
 				meanu = LatLonGrid.copyOf(u);
 				meanv = LatLonGrid.copyOf(v);
 			} else {
-				ConvolutionFilter boxcar = new ConvolutionFilter(ConvolutionFilter.boxcar(2*SM_HALFSIZE_NS+1, 2*SM_HALFSIZE_EW+1));
+				BoxcarFilter boxcar = new BoxcarFilter(SM_HALFSIZE_NS, SM_HALFSIZE_EW);
 				meanu = boxcar.smooth(u);
 				meanv = boxcar.smooth(v);
 			}
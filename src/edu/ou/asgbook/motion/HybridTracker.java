@@ -10,7 +10,6 @@ import java.util.List;
 
 import edu.ou.asgbook.core.LatLonGrid;
 import edu.ou.asgbook.core.Pair;
-import edu.ou.asgbook.core.Pixel;
 import edu.ou.asgbook.dataset.SeviriInfraredTemperature;
 import edu.ou.asgbook.filters.MedianFilter;
 import edu.ou.asgbook.filters.SaturateFilter;
@@ -18,6 +17,7 @@ import edu.ou.asgbook.io.KmlWriter;
 import edu.ou.asgbook.io.OutputDirectory;
 import edu.ou.asgbook.io.PngWriter;
 import edu.ou.asgbook.segmentation.LabelResult;
+import edu.ou.asgbook.segmentation.RegionPixels;
 import edu.ou.asgbook.segmentation.RegionProperty;
 import edu.ou.asgbook.segmentation.Segmenter;
 
@@ -60,13 +60,13 @@ public class HybridTracker implements MotionEstimator {
 		}
 		
 		// find motion for each region and apply it to all pixels for that region
-		Pixel[][] regions = RegionProperty.getPixelsInRegions(data1, objects1);
+		RegionPixels regions = new RegionPixels(objects1);
 		LatLonGrid u = new LatLonGrid(data0.getNumLat(), data0.getNumLon(), 0, data0.getNwCorner(), data0.getLatRes(), data0.getLonRes());
 		LatLonGrid v = LatLonGrid.copyOf(u);
 		RegionProperty[] regprop = RegionProperty.compute(objects1, data1);
 		List<Centroid> centroids = new ArrayList<Centroid>();
-		for (int reg=1; reg < regions.length; ++reg){
-			Pair<Integer,Integer> motion = computeMotion(regions[reg], data0);
+		for (int reg=1; reg <= regions.getMaxLabel(); ++reg){
+			Pair<Integer,Integer> motion = computeMotion(regions, reg, data1, data0);
 			int motx = motion.first;
 			int moty = motion.second;
 			Centroid c = new Centroid();
@@ -76,9 +76,9 @@ public class HybridTracker implements MotionEstimator {
 			c.moty = moty;
 			c.size = regprop[reg].getSize();
 			centroids.add(c);
-			for (Pixel p : regions[reg]){
-				u.setValue(p.getX(), p.getY(), motx);
-				v.setValue(p.getX(), p.getY(), moty);
+			for (int k=regions.getStart(reg); k < regions.getEnd(reg); ++k){
+				u.setValue(regions.getX(k), regions.getY(k), motx);
+				v.setValue(regions.getX(k), regions.getY(k), moty);
 			}
 		}
 		
@@ -127,17 +127,26 @@ public class HybridTracker implements MotionEstimator {
 		return new Pair<LatLonGrid,LatLonGrid>(u,v);
 	}
 	
-	private Pair<Integer, Integer> computeMotion(Pixel[] region, LatLonGrid data) {
+	private Pair<Integer, Integer> computeMotion(RegionPixels regions, int reg, LatLonGrid data1, LatLonGrid data) {
+		final int size = regions.getSize(reg);
+		final int[] xs = new int[size];
+		final int[] ys = new int[size];
+		final int[] vals = new int[size];
+		for (int k=0; k < size; ++k){
+			xs[k] = regions.getX(regions.getStart(reg) + k);
+			ys[k] = regions.getY(regions.getStart(reg) + k);
+			vals[k] = data1.getValue(xs[k], ys[k]);
+		}
 		int bestm = 0;
 		int bestn = 0;
 		int besterror = Integer.MAX_VALUE;
 		for (int m=-MAX_U; m <= MAX_U; ++m) for (int n=-MAX_V; n <= MAX_V; ++n){
 			int tot_error = 0;
-			for (Pixel p : region){
-				int oldx = p.getX() - m;
-				int oldy = p.getY() - n;
+			for (int k=0; k < size; ++k){
+				int oldx = xs[k] - m;
+				int oldy = ys[k] - n;
 				if (data.isValid(oldx, oldy)){
-					int error = Math.abs(p.getValue() - data.getValue(oldx, oldy)); // abs error
+					int error = Math.abs(vals[k] - data.getValue(oldx, oldy)); // abs error
 					tot_error += error;
 				}
 			}
@@ -15,8 +15,8 @@ import edu.ou.asgbook.filters.SobelEdgeFilter;
 import edu.ou.asgbook.io.KmlWriter;
 import edu.ou.asgbook.io.OutputDirectory;
 import edu.ou.asgbook.io.PngWriter;
+import edu.ou.asgbook.transforms.ComplexGrid;
 import edu.ou.asgbook.transforms.FFT2D;
-import edu.ou.asgbook.transforms.FFT.Complex;
 
 /**
  * Estimate motion based on FFT.
@@ -35,7 +35,10 @@ public class PhaseCorrelation {
 	public Pair<Integer,Integer> compute(LatLonGrid data0, LatLonGrid data1){
 		int motNS = 0, motEW = 0;
 		// a
-		Complex[][] in1 = FFT2D.fft(FFT2D.zeropad(data0));
+		final int nrows = FFT2D.getPaddedSize(data0.getNumLat());
+		final int ncols = FFT2D.getPaddedSize(data0.getNumLon());
+		ComplexGrid in1 = ComplexGrid.zeropad(data0, nrows, ncols);
+		FFT2D.fftReal(in1, data0.getNumLat());
 		
 		// zero-out an area of thickness MAXU/MAXV around the boundary to avoid boundary issues
 		LatLonGrid centerb = LatLonGrid.copyOf(data1);
@@ -50,38 +53,38 @@ public class PhaseCorrelation {
 				}
 			}
 		}
-		Complex[][] in2 = FFT2D.fft(FFT2D.zeropad(centerb));
+		ComplexGrid in2 = ComplexGrid.zeropad(centerb, nrows, ncols);
+		FFT2D.fftReal(in2, centerb.getNumLat());
 		
 		// find phase shift at this point
-		for (int i=0; i < in1.length; ++i) for (int j=0; j < in1[0].length; ++j){
-			in1[i][j] = in1[i][j].multiply(in2[i][j].conjugate());
-			in1[i][j] = in1[i][j].multiply( 1.0 / in1[i][j].norm() );
-		}
-		// take ifft
-		Complex[][] result = FFT2D.ifft(in1);
+		in1.multiplyByConjugate(in2);
+		in1.normalize();
+		// take ifft; the result is real
+		ComplexGrid result = in1;
+		FFT2D.ifftReal(result, nrows);
 		
 		// find location at which the cross-power specturm is maximum
 		double bestValue = Integer.MIN_VALUE;
-		int startx = 0; // result.length/2 - MAXU;
-		int starty = 0; // result[0].length/2 - MAXV;
-		int endx = result.length; // /2 + MAXU;
-		int endy = result[0].length; // /2 + MAXV;
+		int startx = 0; // result.getNumRows()/2 - MAXU;
+		int starty = 0; // result.getNumCols()/2 - MAXV;
+		int endx = result.getNumRows(); // /2 + MAXU;
+		int endy = result.getNumCols(); // /2 + MAXV;
 		for (int i=startx; i < endx; ++i) for (int j=starty; j < endy; ++j){
-			if ( result[i][j].normsq() > bestValue ){
-				bestValue = result[i][j].real;
+			if ( result.normsq(i,j) > bestValue ){
+				bestValue = result.getReal(i,j);
 				motNS = -i;
 				motEW = -j;
 			}
 		}
 		
 		// we don't want a 345-degree phase shift; we want it to be 15-degrees
-		if ( Math.abs(motNS) > result.length/2 ){
-			if (motNS < 0) motNS += result.length;
-			else motNS -= result.length;
+		if ( Math.abs(motNS) > result.getNumRows()/2 ){
+			if (motNS < 0) motNS += result.getNumRows();
+			else motNS -= result.getNumRows();
 		}
-		if ( Math.abs(motEW) > result[0].length/2 ){
-			if (motEW < 0) motEW += result[0].length;
-			else motEW -= result[0].length;
+		if ( Math.abs(motEW) > result.getNumCols()/2 ){
+			if (motEW < 0) motEW += result.getNumCols();
+			else motEW -= result.getNumCols();
 		}
 		
 		return new Pair<Integer,Integer>(motNS, motEW);
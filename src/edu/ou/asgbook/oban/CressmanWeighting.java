@@ -38,6 +38,21 @@ public class CressmanWeighting implements WeightFunction {
 		return (1 - factor)/(1 + factor);
 	}
 	
+	@Override
+	public void computeWts(double[] latdist, double[] londist, int n, double[] wts){
+		for (int k=0; k < n; ++k){
+			double r2 = latdist[k] * latdist[k] + londist[k] * londist[k];
+			double factor = r2/R2;
+			double wt = (1 - factor)/(1 + factor);
+			wts[k] = ( r2 > R2 )? INVALID_WEIGHT : wt;
+		}
+	}
+	
+	@Override
+	public double getMaxDistance(){
+		return Math.sqrt(R2);
+	}
+	
 	public static void main(String[] args) throws Exception {
 		PointObservations data = DailyRainfall.read(DailyRainfall.TN_Oct2010);
 		
@@ -15,31 +15,83 @@ import edu.ou.asgbook.io.PngWriter;
 /**
  * An interpolation method that uses exp(-1/r^2)
  * 
+ * The exponential can optionally be looked up from a table indexed by the
+ * square of the distance, interpolating linearly between entries.
+ * 
  * @author Valliappa.Lakshmanan
  *
  */
 public class GaussWeighting implements WeightFunction {
+	public static final int DEFAULT_TABLE_SIZE = 4096;
 	private final double sigmasq;
 	private final double epsilonDistSq;
+	// null if exp() is to be computed
+	private final double[] table;
+	private final double tableScale;
 		
 	/**
 	 * @param sigma    Set extent of gaussian in degrees
 	 */
 	public GaussWeighting(double sigma) {
+		this(sigma, 0);
+	}
+	
+	/**
+	 * @param sigma    Set extent of gaussian in degrees
+	 * @param tableSize    Number of entries in the lookup table; 0 to compute exp() every time
+	 */
+	public GaussWeighting(double sigma, int tableSize) {
 		this.sigmasq = sigma * sigma;
 		this.epsilonDistSq = (3*3)*(2*sigmasq); // at distance of 3*sigma in both directions
+		if ( tableSize > 0 ){
+			this.table = new double[tableSize + 1];
+			this.tableScale = tableSize / epsilonDistSq;
+			for (int i=0; i < table.length; ++i){
+				table[i] = Math.exp(-(i / tableScale) / (2*sigmasq));
+			}
+		} else {
+			this.table = null;
+			this.tableScale = 0;
+		}
 	}
 
 	@Override
 	public double computeWt(double latdist, double londist){
 		double r2 = latdist * latdist + londist * londist;
 		if ( r2 < epsilonDistSq ){
-			return Math.exp(-r2 / (2*sigmasq));
+			return (table == null)? Math.exp(-r2 / (2*sigmasq)) : lookup(r2);
 		} else {
 			return INVALID_WEIGHT;
 		}
 	}
 	
+	private double lookup(double r2){
+		double x = r2 * tableScale;
+		int i = (int) x;
+		double frac = x - i;
+		return table[i] + frac * (table[i+1] - table[i]);
+	}
+	
+	@Override
+	public void computeWts(double[] latdist, double[] londist, int n, double[] wts){
+		if ( table == null ){
+			for (int k=0; k < n; ++k){
+				double r2 = latdist[k] * latdist[k] + londist[k] * londist[k];
+				wts[k] = ( r2 < epsilonDistSq )? Math.exp(-r2 / (2*sigmasq)) : INVALID_WEIGHT;
+			}
+		} else {
+			for (int k=0; k < n; ++k){
+				double r2 = latdist[k] * latdist[k] + londist[k] * londist[k];
+				wts[k] = ( r2 < epsilonDistSq )? lookup(r2) : INVALID_WEIGHT;
+			}
+		}
+	}
+	
+	@Override
+	public double getMaxDistance(){
+		return Math.sqrt(epsilonDistSq);
+	}
+	
 	public static void main(String[] args) throws Exception {
 		PointObservations data = DailyRainfall.read(DailyRainfall.TN_Oct2010);
 		
@@ -47,7 +99,22 @@ public class GaussWeighting implements WeightFunction {
 		System.out.println("Objectively analyzing " + data.getPoints().length + " pts with a mean separation of " + sigma);
 		WeightFunction wtFunc = new GaussWeighting(sigma);
 		WeightedAverage analyzer = new WeightedAverage(wtFunc, 0.01, 0.01, 1);
+		long startTime = System.nanoTime();
 		LatLonGrid grid = analyzer.analyze(data);
+		System.out.println("Took " + (System.nanoTime() - startTime)/(1000*1000.0*1000) + " seconds");
+		
+		// weights from a lookup table
+		WeightedAverage tableAnalyzer = new WeightedAverage(new GaussWeighting(sigma, DEFAULT_TABLE_SIZE), 0.01, 0.01, 1);
+		startTime = System.nanoTime();
+		LatLonGrid tableGrid = tableAnalyzer.analyze(data);
+		System.out.println("With lookup table took " + (System.nanoTime() - startTime)/(1000*1000.0*1000) + " seconds");
+		int numdiff = 0;
+		for (int i=0; i < grid.getNumLat(); ++i) for (int j=0; j < grid.getNumLon(); ++j){
+			if (grid.getValue(i,j) != tableGrid.getValue(i,j)){
+				++numdiff;
+			}
+		}
+		System.out.println(numdiff + " pixels differ when using the lookup table");
 		
 		// write output
 		File out = OutputDirectory.getDefault("gaussoban");
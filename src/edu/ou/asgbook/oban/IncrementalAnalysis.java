@@ -0,0 +1,214 @@
+/**
+ *
+ */
+package edu.ou.asgbook.oban;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.ou.asgbook.core.LatLon;
+import edu.ou.asgbook.core.LatLonGrid;
+import edu.ou.asgbook.core.PointObservations;
+import edu.ou.asgbook.dataset.MadisTemperature;
+import edu.ou.asgbook.io.KmlWriter;
+import edu.ou.asgbook.io.OutputDirectory;
+import edu.ou.asgbook.io.PngWriter;
+
+/**
+ * Objective analysis of observations that arrive one at a time.  The
+ * weighted sums at every grid point are kept, so that adding, changing or
+ * removing an observation requires updating only the grid points within its
+ * radius of influence.  Only the part of the grid that has changed since it was
+ * last retrieved needs to be recomputed.
+ *
+ * This is a single-pass analysis; the result is the same as that of
+ * WeightedAverageOptimized with one pass on the same grid, except for round-off.
+ *
+ * @author Valliappa.Lakshmanan
+ *
+ */
+public class IncrementalAnalysis {
+	private final double[][] wtKernel;
+	private final int minPoints;
+	private final int obsMissing;
+	private final LatLonGrid analysis;
+	private final int nx;
+	private final int ny;
+	private final double[] sum;
+	private final double[] sumwt;
+	private final int[] numpts;
+	private final Map<String, PointObservations.ObservationPoint> stations = new HashMap<String, PointObservations.ObservationPoint>();
+	// the rectangle that has changed: empty if minRow > maxRow
+	private int minRow, maxRow, minCol, maxCol;
+
+	/**
+	 * @param domain the grid to fill in; its values are not used, and its missing value marks unanalyzed pixels
+	 * @param obsMissing the value of an observation that is missing, usually PointObservations.getMissing()
+	 */
+	public IncrementalAnalysis(LatLonGrid domain, WeightFunction wtFunc, int minPoints, int obsMissing) {
+		this.wtKernel = WeightedAverageOptimized.computeWeightKernel(wtFunc, domain.getLatRes(), domain.getLonRes());
+		this.minPoints = minPoints;
+		this.obsMissing = obsMissing;
+		this.nx = domain.getNumLat();
+		this.ny = domain.getNumLon();
+		this.analysis = LatLonGrid.newFlatInstance(nx, ny, domain.getMissing(), domain.getNwCorner(), domain.getLatRes(), domain.getLonRes());
+		this.analysis.fill(analysis.getMissing());
+		this.sum = new double[nx * ny];
+		this.sumwt = new double[nx * ny];
+		this.numpts = new int[nx * ny];
+		clearDirty();
+	}
+
+	/**
+	 * Adds the observation at the station, replacing any earlier observation
+	 * from the same station.  An observation with the missing value is the same
+	 * as removing the station.
+	 */
+	public synchronized void put(String stationId, PointObservations.ObservationPoint point){
+		remove(stationId);
+		if ( point.getValue() != obsMissing ){
+			accumulate(point, 1);
+			stations.put(stationId, point);
+		}
+	}
+
+	/**
+	 * Removes the last observation from the station, if there is one.
+	 */
+	public synchronized void remove(String stationId){
+		PointObservations.ObservationPoint old = stations.remove(stationId);
+		if ( old != null ){
+			accumulate(old, -1);
+		}
+	}
+
+	public synchronized int getNumStations(){
+		return stations.size();
+	}
+
+	private void accumulate(PointObservations.ObservationPoint point, int sign){
+		final int row = analysis.getRow(point);
+		final int col = analysis.getCol(point);
+		final int half_rows = wtKernel.length / 2;
+		final int half_cols = wtKernel[0].length / 2;
+		final int istart = Math.max(0, row - half_rows);
+		final int iend = Math.min(nx - 1, row + half_rows);
+		final int jstart = Math.max(0, col - half_cols);
+		final int jend = Math.min(ny - 1, col + half_cols);
+		if ( istart > iend || jstart > jend ){
+			return;
+		}
+		for (int i=istart; i <= iend; ++i){
+			final double[] wts = wtKernel[i - row + half_rows];
+			for (int j=jstart; j <= jend; ++j){
+				final double wt = wts[j - col + half_cols];
+				if ( wt > 0 ){
+					final int p = i*ny + j;
+					numpts[p] += sign;
+					if ( numpts[p] == 0 ){
+						// avoid leaving behind round-off
+						sum[p] = 0;
+						sumwt[p] = 0;
+					} else {
+						sum[p] += sign * point.getValue() * wt;
+						sumwt[p] += sign * wt;
+					}
+				}
+			}
+		}
+		minRow = Math.min(minRow, istart);
+		maxRow = Math.max(maxRow, iend);
+		minCol = Math.min(minCol, jstart);
+		maxCol = Math.max(maxCol, jend);
+	}
+
+	/**
+	 * The part of the analysis that has changed since the last call to this
+	 * method or to getAnalysis(), located by its own corner, or null if nothing has changed.
+	 */
+	public synchronized LatLonGrid getDirtyRegion(){
+		if ( minRow > maxRow ){
+			return null;
+		}
+		update();
+		LatLonGrid result = analysis.crop(minRow, minCol, maxRow - minRow + 1, maxCol - minCol + 1);
+		clearDirty();
+		return result;
+	}
+
+	/**
+	 * A copy of the complete analysis.
+	 */
+	public synchronized LatLonGrid getAnalysis(){
+		if ( minRow <= maxRow ){
+			update();
+			clearDirty();
+		}
+		return LatLonGrid.copyOf(analysis);
+	}
+
+	private void update(){
+		int[] row = new int[ny];
+		for (int i=minRow; i <= maxRow; ++i){
+			analysis.getRowValues(i, row);
+			for (int j=minCol; j <= maxCol; ++j){
+				final int p = i*ny + j;
+				if ( numpts[p] >= minPoints && numpts[p] > 0 ){
+					row[j] = (int) Math.round(sum[p]/sumwt[p]);
+				} else {
+					row[j] = analysis.getMissing();
+				}
+			}
+			analysis.setRowValues(i, row);
+		}
+	}
+
+	private void clearDirty(){
+		minRow = minCol = Integer.MAX_VALUE;
+		maxRow = maxCol = Integer.MIN_VALUE;
+	}
+
+	public static void main(String[] args) throws Exception {
+		File out = OutputDirectory.getDefault("incroban");
+		PointObservations data = MadisTemperature.read(MadisTemperature.TN_Oct2010);
+		double meansep = ObjectiveAnalysisUtils.computeMeanDistance(data);
+		WeightFunction wtFunc = new CressmanWeighting(3*meansep);
+		LatLonGrid domain = ObjectiveAnalysisUtils.createBoundingGrid(data, 0.01, 0.01);
+		IncrementalAnalysis incr = new IncrementalAnalysis(domain, wtFunc, 1, data.getMissing());
+
+		// the reports arrive one at a time
+		PointObservations.ObservationPoint[] points = data.getPoints();
+		long startTime = System.nanoTime();
+		for (int k=0; k < points.length; ++k){
+			incr.put("stn" + k, points[k]);
+			LatLonGrid changed = incr.getDirtyRegion();
+			System.out.println("Report " + k + " changed a " + changed.getNumLat() + "x" + changed.getNumLon() + " region");
+		}
+		System.out.println("Took " + (System.nanoTime() - startTime)/(1000*1000.0*1000) + " seconds for " + points.length + " reports");
+
+		// a late correction to one station and the retraction of another
+		PointObservations.ObservationPoint p = points[0];
+		incr.put("stn0", new PointObservations.ObservationPoint(p.getLat(), p.getLon(), p.getValue() + 50));
+		incr.remove("stn1");
+		LatLonGrid changed = incr.getDirtyRegion();
+		System.out.println("Correction and retraction changed a " + changed.getNumLat() + "x" + changed.getNumLon() + " region of the " + domain.getNumLat() + "x" + domain.getNumLon() + " grid");
+
+		// compare with analyzing from scratch
+		PointObservations.ObservationPoint[] modified = new PointObservations.ObservationPoint[points.length - 1];
+		modified[0] = new PointObservations.ObservationPoint(p.getLat(), p.getLon(), p.getValue() + 50);
+		System.arraycopy(points, 2, modified, 1, points.length - 2);
+		LatLonGrid full = new WeightedAverageOptimized(wtFunc, 0.01, 0.01, 1).analyze(new PointObservations(modified, data.getMissing()));
+		LatLonGrid grid = incr.getAnalysis();
+		int numdiff = 0;
+		for (int i=0; i < grid.getNumLat(); ++i) for (int j=0; j < grid.getNumLon(); ++j){
+			// the bounding grid of the modified points may be smaller
+			LatLon loc = grid.getLocation(i, j);
+			if (full.isValid(full.getRow(loc), full.getCol(loc)) && grid.getValue(i,j) != full.getValue(loc)){
+				++numdiff;
+			}
+		}
+		System.out.println(numdiff + " pixels differ from a complete analysis");
+		KmlWriter.write(grid, out, "Temperature", PngWriter.createCoolToWarmColormap());
+	}
+}
@@ -5,6 +5,7 @@ package edu.ou.asgbook.oban;
 
 import edu.ou.asgbook.core.LatLon;
 import edu.ou.asgbook.core.LatLonGrid;
+import edu.ou.asgbook.core.PointIndex;
 import edu.ou.asgbook.core.PointObservations;
 
 /**
@@ -63,18 +64,15 @@ public class ObjectiveAnalysisUtils {
 			throw new IllegalArgumentException("Number of points has be greater than one");
 		}
 		
+		PointIndex index = new PointIndex(points);
 		double totdist = 0;
 		for (int i=0; i < points.length; ++i){
 			double mindistsq = Double.MAX_VALUE;
-			for (int j=0; j < points.length; ++j){
-				if ( j != i ){
-					double latdist = points[i].getLat() - points[j].getLat();
-					double londist = points[i].getLon() - points[j].getLon();
-					double distsq = (latdist*latdist + londist*londist);
-					if ( distsq < mindistsq ){
-						mindistsq = distsq;
-					}
-				}
+			int j = index.findNearest(points[i].getLat(), points[i].getLon(), i);
+			if ( j >= 0 ){
+				double latdist = points[i].getLat() - points[j].getLat();
+				double londist = points[i].getLon() - points[j].getLon();
+				mindistsq = (latdist*latdist + londist*londist);
 			}
 			totdist += Math.sqrt(mindistsq);
 		}
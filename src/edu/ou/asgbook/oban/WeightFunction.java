@@ -13,4 +13,23 @@ public interface WeightFunction {
 	 * the point will be considered too far away and not used in weighting.
 	 */
 	public abstract double computeWt(double latdist, double londist);
+
+	/**
+	 * Same as calling computeWt() on the first n pairs of distances, placing the results in wts.
+	 * Subclasses can override this with a loop that the compiler can vectorize.
+	 */
+	public default void computeWts(double[] latdist, double[] londist, int n, double[] wts){
+		for (int k=0; k < n; ++k){
+			wts[k] = computeWt(latdist[k], londist[k]);
+		}
+	}
+
+	/**
+	 * The distance in degrees beyond which computeWt() returns a -ve value.
+	 * Weighting functions that do not know such a distance need not override
+	 * this, and all the points will be considered.
+	 */
+	public default double getMaxDistance(){
+		return Double.POSITIVE_INFINITY;
+	}
 }
@@ -7,6 +7,7 @@ import java.io.File;
 
 import edu.ou.asgbook.core.LatLon;
 import edu.ou.asgbook.core.LatLonGrid;
+import edu.ou.asgbook.core.PointIndex;
 import edu.ou.asgbook.core.PointObservations;
 import edu.ou.asgbook.dataset.DailyRainfall;
 import edu.ou.asgbook.io.KmlWriter;
@@ -30,20 +31,48 @@ public class WeightedAverage {
 	public LatLonGrid analyze(PointObservations data){
 		LatLonGrid grid = ObjectiveAnalysisUtils.createBoundingGrid(data, latres, lonres);
 		PointObservations.ObservationPoint[] points = data.getPoints();
+		// only points within the radius of influence need to be considered; the extra
+		// bit is so that round-off does not drop points right at the edge.  If the
+		// weighting function has no such radius, all the points are considered.
+		final double radius = wtFunc.getMaxDistance() * (1 + 1e-9);
+		PointIndex index = null;
+		int[] allPoints = null;
+		if ( Double.isInfinite(radius) ){
+			allPoints = new int[points.length];
+			for (int k=0; k < points.length; ++k){
+				allPoints[k] = k;
+			}
+		} else {
+			index = new PointIndex(points);
+		}
+		double[] latdist = new double[points.length];
+		double[] londist = new double[points.length];
+		double[] wts = new double[points.length];
+		int[] values = new int[points.length];
 		for (int i=0; i < grid.getNumLat(); ++i){
 			for (int j=0; j < grid.getNumLon(); ++j){
 				LatLon gridpt = grid.getLocation(i, j);
+				// compute the weights of all the nearby points at once
+				int npts = 0;
+				int[] nearby = (index == null)? allPoints : index.findWithin(gridpt.getLat(), gridpt.getLon(), radius);
+				for (int k : nearby){
+					if ( points[k].getValue() != data.getMissing() ){
+						latdist[npts] = points[k].getLat() - gridpt.getLat();
+						londist[npts] = points[k].getLon() - gridpt.getLon();
+						values[npts] = points[k].getValue();
+						++npts;
+					}
+				}
+				wtFunc.computeWts(latdist, londist, npts, wts);
 				double sum = 0;
 				double sumwt = 0;
 				int n = 0;
-				for (int k=0; k < points.length; ++k){
-					if ( points[k].getValue() != data.getMissing() ){
-						double wt = wtFunc.computeWt( points[k].getLat() - gridpt.getLat(), points[k].getLon() - gridpt.getLon());
-						if ( wt > 0 ){
-							sum += wt * points[k].getValue();
-							sumwt += wt;
-							++n;
-						}
+				for (int k=0; k < npts; ++k){
+					double wt = wts[k];
+					if ( wt > 0 ){
+						sum += wt * values[k];
+						sumwt += wt;
+						++n;
 					}
 				}
 				if ( n >= minPoints ){
@@ -79,17 +108,22 @@ public class WeightedAverage {
 	}
 	
 	private void add(LatLonGrid result, final LatLonGrid delta, int physicalMin, int physicalMax){
+		int[] resultRow = new int[result.getNumLon()];
+		int[] deltaRow = new int[delta.getNumLon()];
 		for (int i=0; i < result.getNumLat(); ++i){
+			result.getRowValues(i, resultRow);
+			delta.getRowValues(i, deltaRow);
 			for (int j=0; j < result.getNumLon(); ++j){
-				int a = result.getData()[i][j];
-				int b = delta.getData()[i][j];
+				int a = resultRow[j];
+				int b = deltaRow[j];
 				if ( a != result.getMissing() && b != delta.getMissing() ){
 					int v = a + b;
 					if ( v < physicalMin ) v = physicalMin;
 					if ( v > physicalMax ) v = physicalMax;
-					result.getData()[i][j] = v;
+					resultRow[j] = v;
 				}
 			}
+			result.setRowValues(i, resultRow);
 		}
 	}
 
@@ -4,7 +4,15 @@
 package edu.ou.asgbook.oban;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import edu.ou.asgbook.core.LatLon;
 import edu.ou.asgbook.core.LatLonGrid;
 import edu.ou.asgbook.core.PointObservations;
 import edu.ou.asgbook.dataset.DailyRainfall;
@@ -14,54 +22,176 @@ import edu.ou.asgbook.io.OutputDirectory;
 import edu.ou.asgbook.io.PngWriter;
 
 /**
+ * Objective analysis by spreading the weights of each point onto the grid
+ * using weights precomputed for every grid offset within the radius of
+ * influence.  Each pass can have its own weight function, so that the radius
+ * can be made smaller in every pass as in the Barnes technique.  The rows of
+ * the grid are divided into bands that are filled in in parallel, and the
+ * correction at each point is found by bilinear interpolation of the analysis
+ * carried out so far.
+ * 
  * @author Valliappa.Lakshmanan
  *
  */
 public class WeightedAverageOptimized extends WeightedAverage {
-	private final double[][] wtKernel;
+	// one per pass; the last one is used for any further passes
+	private final double[][][] wtKernels;
 	
 	@Override
 	public LatLonGrid analyze(PointObservations data){
-		LatLonGrid grid = ObjectiveAnalysisUtils.createBoundingGrid(data, latres, lonres);
-		double[][] sum = new double[grid.getNumLat()][grid.getNumLon()];
-		double[][] sumwt = new double[grid.getNumLat()][grid.getNumLon()];
-		int[][] numpts = new int[grid.getNumLat()][grid.getNumLon()];
-		PointObservations.ObservationPoint[] points = data.getPoints();
-		
-		final int half_rows = wtKernel.length / 2;
-		final int half_cols = wtKernel.length / 2;
+		return analyze(data, 1, Integer.MIN_VALUE, Integer.MAX_VALUE);
+	}
+	
+	@Override
+	public LatLonGrid analyze(PointObservations data, int numPasses, final int physicalMin, final int physicalMax){
+		final LatLonGrid grid = ObjectiveAnalysisUtils.createBoundingGrid(data, latres, lonres);
+		final int nx = grid.getNumLat();
+		final int ny = grid.getNumLon();
+		final PointObservations.ObservationPoint[] points = data.getPoints();
+		final int[] rows = new int[points.length];
+		final int[] cols = new int[points.length];
+		final double[] values = new double[points.length];
 		for (int k=0; k < points.length; ++k){
-			final int row = grid.getRow(points[k]);
-			final int col = grid.getCol(points[k]);
-			if ( points[k].getValue() != data.getMissing() ){
-				for (int m=-half_rows; m <= half_rows; ++m){
-					for (int n=-half_cols; n <= half_cols; ++n){
-						final int i = row + m;
-						final int j = col + n;
-						final double wt = wtKernel[m+half_rows][n+half_rows];
-						if ( wt > 0 && grid.isValid(i, j)){	
-							sum[i][j] += points[k].getValue() * wt;
-							sumwt[i][j] += wt;
-							numpts[i][j] ++;
+			rows[k] = grid.getRow(points[k]);
+			cols[k] = grid.getCol(points[k]);
+			values[k] = (points[k].getValue() == data.getMissing())? Double.NaN : points[k].getValue();
+		}
+		
+		// the same buffers are used in every pass; NaN where the analysis is missing
+		final double[] analysis = new double[nx * ny];
+		final double[] sum = new double[nx * ny];
+		final double[] sumwt = new double[nx * ny];
+		final int[] numpts = new int[nx * ny];
+		final double[] obs = new double[points.length];
+		
+		for (int pass=0; pass < numPasses; ++pass){
+			final boolean firstPass = (pass == 0);
+			final double[][] wtKernel = wtKernels[Math.min(pass, wtKernels.length-1)];
+			if (firstPass){
+				System.arraycopy(values, 0, obs, 0, obs.length);
+			} else {
+				// the error at each point
+				for (int k=0; k < points.length; ++k){
+					double b = interpolate(analysis, nx, ny, grid.getNwCorner().getLat(), grid.getNwCorner().getLon(), points[k]);
+					obs[k] = Double.isNaN(b)? 0 : values[k] - b;
+				}
+			}
+			
+			// spread the values onto the grid and add to the analysis, a band of rows at a time
+			final int numTasks = Math.min(nx, 4 * ForkJoinPool.commonPool().getParallelism());
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for (int t=0; t < numTasks; ++t){
+				final int start = (int) ((long) nx * t / numTasks);
+				final int end = (int) ((long) nx * (t+1) / numTasks);
+				tasks.add(new Callable<Void>(){
+					@Override
+					public Void call() {
+						accumulate(wtKernel, rows, cols, obs, start, end, ny, sum, sumwt, numpts);
+						for (int p=start*ny; p < end*ny; ++p){
+							double v = (numpts[p] >= minPoints)? sum[p]/sumwt[p] : Double.NaN;
+							if (firstPass){
+								analysis[p] = v;
+							} else if (!Double.isNaN(analysis[p]) && !Double.isNaN(v)){
+								analysis[p] = Math.max(physicalMin, Math.min(physicalMax, analysis[p] + v));
+							}
 						}
+						return null;
 					}
-				}
+				});
 			}
+			invokeAll(tasks);
 		}
 		
-		for (int i=0; i < grid.getNumLat(); ++i){
-			for (int j=0; j < grid.getNumLon(); ++j){
-				if ( numpts[i][j] >= minPoints ){
-					grid.setValue(i, j, (int) Math.round(sum[i][j]/sumwt[i][j]));
-				} else {
-					grid.setValue(i, j, grid.getMissing());
-				}
+		for (int i=0; i < nx; ++i){
+			for (int j=0; j < ny; ++j){
+				double v = analysis[i*ny + j];
+				grid.setValue(i, j, Double.isNaN(v)? grid.getMissing() : (int) Math.round(v));
 			}
 		}
 		return grid;
 	}
+	
+	/**
+	 * Weighted sum of the values of all the points at the grid rows [start,end).
+	 * Values that are NaN are skipped.
+	 */
+	private static void accumulate(double[][] wtKernel, int[] rows, int[] cols, double[] values, int start, int end, int ny, double[] sum, double[] sumwt, int[] numpts){
+		Arrays.fill(sum, start*ny, end*ny, 0);
+		Arrays.fill(sumwt, start*ny, end*ny, 0);
+		Arrays.fill(numpts, start*ny, end*ny, 0);
+		final int half_rows = wtKernel.length / 2;
+		final int half_cols = wtKernel[0].length / 2;
+		for (int k=0; k < values.length; ++k){
+			final int row = rows[k];
+			final int col = cols[k];
+			if ( Double.isNaN(values[k]) || row + half_rows < start || row - half_rows >= end ){
+				continue;
+			}
+			final int mstart = Math.max(-half_rows, start - row);
+			final int mend = Math.min(half_rows, end - 1 - row);
+			final int nstart = Math.max(-half_cols, -col);
+			final int nend = Math.min(half_cols, ny - 1 - col);
+			for (int m=mstart; m <= mend; ++m){
+				final double[] wts = wtKernel[m+half_rows];
+				final int off = (row + m)*ny + col;
+				for (int n=nstart; n <= nend; ++n){
+					final double wt = wts[n+half_cols];
+					if ( wt > 0 ){
+						sum[off+n] += values[k] * wt;
+						sumwt[off+n] += wt;
+						numpts[off+n] ++;
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Bilinear interpolation between the centers of the four grid points around
+	 * the location, using only those that are not missing.  NaN if all four are missing.
+	 */
+	private double interpolate(double[] analysis, int nx, int ny, double nwlat, double nwlon, LatLon location){
+		double x = (nwlat - location.getLat())/latres - 0.5;
+		double y = (location.getLon() - nwlon)/lonres - 0.5;
+		x = Math.max(0, Math.min(nx-1, x));
+		y = Math.max(0, Math.min(ny-1, y));
+		final int i0 = Math.max(0, Math.min((int) x, nx-2));
+		final int j0 = Math.max(0, Math.min((int) y, ny-2));
+		final double fx = x - i0;
+		final double fy = y - j0;
+		double tot = 0;
+		double totwt = 0;
+		for (int m=0; m < 2; ++m){
+			for (int n=0; n < 2; ++n){
+				final int i = Math.min(i0 + m, nx-1);
+				final int j = Math.min(j0 + n, ny-1);
+				final double wt = (m == 0? 1-fx : fx) * (n == 0? 1-fy : fy);
+				final double v = analysis[i*ny + j];
+				if ( wt > 0 && !Double.isNaN(v) ){
+					tot += wt * v;
+					totwt += wt;
+				}
+			}
+		}
+		return (totwt > 0)? tot/totwt : Double.NaN;
+	}
+	
+	private static void invokeAll(List<Callable<Void>> tasks) {
+		try {
+			for (Future<Void> result : ForkJoinPool.commonPool().invokeAll(tasks)){
+				result.get();
+			}
+		} catch (InterruptedException e){
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e){
+			if (e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
 
-	private static double[][] computeWeightKernel(WeightFunction wtFunc, double latres, double lonres){
+	static double[][] computeWeightKernel(WeightFunction wtFunc, double latres, double lonres){
 		// find size of kernel
 		int half_rows, half_cols;
 		for (half_rows = 0; ; ++half_rows){
@@ -78,20 +208,44 @@ public class WeightedAverageOptimized extends WeightedAverage {
 		}
 		// form  kernel and compute weights
 		double[][] kernel = new double[2*half_rows+1][2*half_cols+1];
+		double[] latdist = new double[kernel[0].length];
+		double[] londist = new double[kernel[0].length];
+		for (int j=0; j < kernel[0].length; ++j){
+			londist[j] = lonres*(j - half_cols);
+		}
 		for (int i=0; i < kernel.length; ++i){
-			for (int j=0; j < kernel[0].length; ++j){
-				double latdist = latres*(i - half_rows);
-				double londist = lonres*(j - half_cols);
-				kernel[i][j] = wtFunc.computeWt(latdist, londist);
-			}
+			Arrays.fill(latdist, latres*(i - half_rows));
+			wtFunc.computeWts(latdist, londist, kernel[i].length, kernel[i]);
 		}
 		System.out.println("Precomputed " + kernel.length + "x" + kernel[0].length + " weights");
 		return kernel;
 	}
 	
 	public WeightedAverageOptimized(WeightFunction wtFunc, double latres, double lonres,int minPoints) {
-		super(wtFunc, latres, lonres, minPoints);
-		this.wtKernel = computeWeightKernel(wtFunc, latres, lonres);
+		this(new WeightFunction[]{ wtFunc }, latres, lonres, minPoints);
+	}
+	
+	/**
+	 * @param passFuncs the weight function to use in each pass; the last one is used for any further passes
+	 */
+	public WeightedAverageOptimized(WeightFunction[] passFuncs, double latres, double lonres,int minPoints) {
+		super(passFuncs[0], latres, lonres, minPoints);
+		this.wtKernels = new double[passFuncs.length][][];
+		for (int pass=0; pass < passFuncs.length; ++pass){
+			this.wtKernels[pass] = computeWeightKernel(passFuncs[pass], latres, lonres);
+		}
+	}
+	
+	/**
+	 * Weight functions for the Barnes technique: Gaussians whose variance is
+	 * multiplied by gamma (between 0 and 1) in every pass after the first.
+	 */
+	public static WeightFunction[] createBarnesWeights(double sigma, double gamma, int numPasses){
+		WeightFunction[] result = new WeightFunction[numPasses];
+		for (int pass=0; pass < numPasses; ++pass){
+			result[pass] = new GaussWeighting(sigma * Math.sqrt(Math.pow(gamma, pass)));
+		}
+		return result;
 	}
 	
 	public static void main(String[] args) throws Exception {
@@ -101,6 +255,15 @@ public class WeightedAverageOptimized extends WeightedAverage {
 		run(MadisTemperature.read(MadisTemperature.TN_Oct2010), out, "Temperature_pass2", 2);
 		run(MadisTemperature.read(MadisTemperature.TN_Oct2010), out, "Temperature_pass3", 3);
 		run(MadisTemperature.read(MadisTemperature.TN_Oct2010), out, "Temperature_pass10", 10);
+		
+		// Barnes: the radius shrinks with every pass
+		PointObservations data = MadisTemperature.read(MadisTemperature.TN_Oct2010);
+		double meansep = ObjectiveAnalysisUtils.computeMeanDistance(data);
+		WeightedAverageOptimized barnes = new WeightedAverageOptimized(createBarnesWeights(meansep, 0.3, 3), 0.01, 0.01, 1);
+		long startTime = System.nanoTime();
+		LatLonGrid grid = barnes.analyze(data, 3, 0, data.getMaxValue());
+		System.out.println("Barnes took " + (System.nanoTime() - startTime)/(1000*1000.0*1000) + " seconds");
+		KmlWriter.write(grid, out, "Temperature_barnes", PngWriter.createCoolToWarmColormap());
 	}
 	
 	private static void run(PointObservations data, File out, String name, int numPasses) throws Exception {
@@ -0,0 +1,251 @@
+/**
+ *
+ */
+package edu.ou.asgbook.segmentation;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import edu.ou.asgbook.core.LatLonGrid;
+import edu.ou.asgbook.dataset.GlobalPopulation;
+import edu.ou.asgbook.io.KmlWriter;
+import edu.ou.asgbook.io.OutputDirectory;
+import edu.ou.asgbook.io.PngWriter;
+
+/**
+ * Labels connected components in two passes using a union-find forest held
+ * in a primitive array instead of growing each region from a stack of pixels.
+ * In the first pass, each pixel above the threshold is joined to those of
+ * its neighbors above and to the left that are also above the threshold.  The
+ * root of every tree is the pixel with the smallest index, so a single sweep
+ * through the pixels in order finds the root of every pixel.
+ *
+ * The first pass is carried out in parallel on bands of rows, and the trees
+ * are then joined across the seams between bands.
+ *
+ * Labels are assigned in the order that RegionGrowing-based segmenters find
+ * their seeds, so the result is identical to theirs.
+ *
+ * @author v.lakshmanan
+ *
+ */
+public class ConnectedComponentLabeler {
+	private static final int MIN_BAND_ROWS = 64;
+	private static final byte BACKGROUND = 0;
+	private static final byte LOW = 1;
+	private static final byte HIGH = 2;
+	private final boolean eightConnected;
+	private final ForkJoinPool pool;
+
+	/**
+	 * Uses the common fork-join pool.
+	 *
+	 * @param eightConnected whether diagonal neighbors are connected
+	 */
+	public ConnectedComponentLabeler(boolean eightConnected) {
+		this(eightConnected, ForkJoinPool.commonPool());
+	}
+
+	public ConnectedComponentLabeler(boolean eightConnected, ForkJoinPool pool) {
+		this.eightConnected = eightConnected;
+		this.pool = pool;
+	}
+
+	/**
+	 * All pixels > thresh are part of an object.
+	 */
+	public LabelResult label(LatLonGrid data, int thresh){
+		return label(data, thresh, thresh);
+	}
+
+	/**
+	 * Objects consist of pixels that are > lowThresh and are connected to at
+	 * least one pixel > highThresh.  Background pixels are set to 0 and the
+	 * objects are numbered 1,2,3... in the order in which their first pixel
+	 * > highThresh is encountered.  The thresholds are swapped if highThresh < lowThresh.
+	 */
+	public LabelResult label(final LatLonGrid data, int thresh1, int thresh2){
+		final int highThresh = Math.max(thresh1, thresh2);
+		final int lowThresh = Math.min(thresh1, thresh2);
+		final int nrows = data.getNumLat();
+		final int ncols = data.getNumLon();
+		final byte[] type = new byte[nrows * ncols];
+		final int[] parent = new int[nrows * ncols];
+		final int[] label = new int[nrows * ncols];
+		final int numBands = Math.max(1, Math.min(4 * pool.getParallelism(), nrows / MIN_BAND_ROWS));
+		final int[] bandStart = new int[numBands + 1];
+		for (int b=0; b <= numBands; ++b){
+			bandStart[b] = (int) ((long) nrows * b / numBands);
+		}
+
+		// first pass: join pixels within each band
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int b=0; b < numBands; ++b){
+			final int start = bandStart[b];
+			final int end = bandStart[b+1];
+			tasks.add(new Callable<Void>(){
+				@Override
+				public Void call() {
+					int[] row = new int[ncols];
+					for (int i=start; i < end; ++i){
+						data.getRowValues(i, row);
+						for (int j=0, p=i*ncols; j < ncols; ++j, ++p){
+							if (row[j] > lowThresh){
+								type[p] = (row[j] > highThresh)? HIGH : LOW;
+								parent[p] = p;
+								if (j > 0){
+									join(p, p-1, type, parent);
+								}
+								if (i > start){
+									joinAbove(p, j, ncols, type, parent);
+								}
+							}
+						}
+					}
+					return null;
+				}
+			});
+		}
+		invokeAll(tasks);
+
+		// join across the seams between bands
+		for (int b=1; b < numBands; ++b){
+			final int i = bandStart[b];
+			for (int j=0, p=i*ncols; j < ncols; ++j, ++p){
+				if (type[p] != BACKGROUND){
+					joinAbove(p, j, ncols, type, parent);
+				}
+			}
+		}
+
+		// point every pixel at its root, and number the roots in the order their first HIGH pixel is seen
+		int regno = 0;
+		for (int p=0; p < parent.length; ++p){
+			if (type[p] != BACKGROUND){
+				final int root = parent[parent[p]];
+				parent[p] = root;
+				if (type[p] == HIGH && label[root] == 0){
+					label[root] = ++regno;
+				}
+			}
+		}
+
+		// second pass: copy the number of the root to every pixel
+		tasks.clear();
+		for (int b=0; b < numBands; ++b){
+			final int start = bandStart[b] * ncols;
+			final int end = bandStart[b+1] * ncols;
+			tasks.add(new Callable<Void>(){
+				@Override
+				public Void call() {
+					for (int p=start; p < end; ++p){
+						if (type[p] != BACKGROUND && parent[p] != p){
+							label[p] = label[parent[p]];
+						}
+					}
+					return null;
+				}
+			});
+		}
+		invokeAll(tasks);
+
+		System.out.println("Found " + (regno+1) + " objects");
+		LatLonGrid result = new LatLonGrid(label, nrows, ncols, 0, data.getNwCorner(), data.getLatRes(), data.getLonRes());
+		return new LabelResult(result, regno);
+	}
+
+	/**
+	 * Joins pixel p, at column j, to its neighbors in the row above.
+	 */
+	private void joinAbove(int p, int j, int ncols, byte[] type, int[] parent){
+		final int above = p - ncols;
+		join(p, above, type, parent);
+		if (eightConnected){
+			if (j > 0){
+				join(p, above-1, type, parent);
+			}
+			if (j < ncols-1){
+				join(p, above+1, type, parent);
+			}
+		}
+	}
+
+	private static void join(int p, int q, byte[] type, int[] parent){
+		if (type[q] == BACKGROUND){
+			return;
+		}
+		int rp = find(p, parent);
+		int rq = find(q, parent);
+		// the smaller index is always the root
+		if (rp < rq){
+			parent[rq] = rp;
+		} else if (rq < rp){
+			parent[rp] = rq;
+		}
+	}
+
+	private static int find(int p, int[] parent){
+		while (parent[p] != p){
+			parent[p] = parent[parent[p]]; // path halving
+			p = parent[p];
+		}
+		return p;
+	}
+
+	private void invokeAll(List<Callable<Void>> tasks) {
+		try {
+			for (Future<Void> result : pool.invokeAll(tasks)){
+				result.get();
+			}
+		} catch (InterruptedException e){
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e){
+			if (e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		File out = OutputDirectory.getDefault("cclabel");
+		LatLonGrid grid = GlobalPopulation.read(GlobalPopulation.NORTHAMERICA, new GlobalPopulation.LinearScaling());
+
+		// compare against growing regions one at a time
+		for (int thresh = 10; thresh <= 30; thresh += 10){
+			long start = System.currentTimeMillis();
+			LabelResult a = new ConnectedComponentLabeler(true).label(grid, thresh, thresh-5);
+			long mid = System.currentTimeMillis();
+			LabelResult b = labelByRegionGrowing(grid, thresh, thresh-5);
+			long end = System.currentTimeMillis();
+			int numdiff = 0;
+			for (int i=0; i < grid.getNumLat(); ++i) for (int j=0; j < grid.getNumLon(); ++j){
+				if (a.label.getValue(i,j) != b.label.getValue(i,j)){
+					++numdiff;
+				}
+			}
+			System.out.println("thresh=" + thresh + ": union-find " + (mid-start) + " ms; region growing " + (end-mid) + " ms; "
+					+ a.maxlabel + " vs " + b.maxlabel + " objects; " + numdiff + " pixels differ");
+			KmlWriter.write(a.label, out, "cities_" + thresh, PngWriter.createRandomColormap());
+		}
+	}
+
+	private static LabelResult labelByRegionGrowing(LatLonGrid data, int t1, int t2){
+		int nrows = data.getNumLat();
+		int ncols = data.getNumLon();
+		LatLonGrid label = new LatLonGrid(nrows,ncols,0,data.getNwCorner(),data.getLatRes(),data.getLonRes());
+		int regno = 0;
+		for (int i=0; i < nrows; ++i) for (int j=0; j < ncols; ++j){
+			if ( data.getValue(i, j) > t1 && label.getValue(i, j) == 0 ){
+				++regno;
+				RegionGrowing.growRegion(i,j, data, t2, label, regno);
+			}
+		}
+		return new LabelResult(label, regno);
+	}
+}
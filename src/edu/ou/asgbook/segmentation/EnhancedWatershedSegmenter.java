@@ -5,6 +5,7 @@ package edu.ou.asgbook.segmentation;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import edu.ou.asgbook.core.LatLonGrid;
@@ -28,7 +29,6 @@ public class EnhancedWatershedSegmenter implements Segmenter {
 	private final int maxThresh;
 	private static final int UNMARKED = -1;
 	private static final int GLOBBED = -3; // not UNMARKED
-	private static final int TOOSMALL = -4;
 
 	/**
 	 * @param minThresh: minimum pixel value for a pixel to be part of a region
@@ -56,15 +56,74 @@ public class EnhancedWatershedSegmenter implements Segmenter {
 		Pixels asglob;
 	}
 
-	private boolean isClosest(Pixel p, Pixel center, List<Pixel>[] otherCenters, LatLonGrid data){
+	/**
+	 * Is there no maximum at least half as high as the center that is closer to p?
+	 */
+	private boolean isClosest(Pixel p, Pixel center, CenterIndex otherCenters){
 		final int mybin  = center.getValue();
 		final int binthresh = mybin / 2;  // half the height
 		final int mydist = p.getDistanceSquared(center);
-		for (int obin = binthresh; obin < otherCenters.length; ++obin)
-			for (int i=0; i < otherCenters[obin].size(); ++i)
-				if (p.getDistanceSquared(otherCenters[obin].get(i)) < mydist)
-					return false;
-		return true;
+		return !otherCenters.hasCloser(p.getX(), p.getY(), binthresh, mydist);
+	}
+
+	/**
+	 * The maxima, bucketed by location so that those near a pixel can be found
+	 * without looking at all of them.
+	 */
+	private static class CenterIndex {
+		private static final int CELL_SIZE = 16;
+		private final int ncellx;
+		private final int ncelly;
+		// ids of the centers in each cell
+		private final int[][] cells;
+		private final int[] cellCount;
+		private int[] xs = new int[16];
+		private int[] ys = new int[16];
+		private int[] bins = new int[16];
+		private int n = 0;
+
+		CenterIndex(int numx, int numy){
+			ncellx = numx / CELL_SIZE + 1;
+			ncelly = numy / CELL_SIZE + 1;
+			cells = new int[ncellx * ncelly][];
+			cellCount = new int[ncellx * ncelly];
+		}
+
+		void add(int x, int y, int bin){
+			if (n == xs.length){
+				xs = Arrays.copyOf(xs, 2*n);
+				ys = Arrays.copyOf(ys, 2*n);
+				bins = Arrays.copyOf(bins, 2*n);
+			}
+			xs[n] = x; ys[n] = y; bins[n] = bin;
+			final int cell = (x / CELL_SIZE) * ncelly + (y / CELL_SIZE);
+			if (cells[cell] == null){
+				cells[cell] = new int[4];
+			} else if (cellCount[cell] == cells[cell].length){
+				cells[cell] = Arrays.copyOf(cells[cell], 2*cellCount[cell]);
+			}
+			cells[cell][cellCount[cell]++] = n;
+			++n;
+		}
+
+		/** Is there a center with bin >= binthresh whose squared distance from (x,y) is less than distsq? */
+		boolean hasCloser(int x, int y, int binthresh, int distsq){
+			final int r = (int) Math.ceil(Math.sqrt(distsq));
+			for (int cx = Math.max(0, (x-r)/CELL_SIZE); cx <= Math.min(ncellx-1, (x+r)/CELL_SIZE); ++cx){
+				for (int cy = Math.max(0, (y-r)/CELL_SIZE); cy <= Math.min(ncelly-1, (y+r)/CELL_SIZE); ++cy){
+					final int cell = cx * ncelly + cy;
+					for (int k=0; k < cellCount[cell]; ++k){
+						final int c = cells[cell][k];
+						final int dx = xs[c] - x;
+						final int dy = ys[c] - y;
+						if (bins[c] >= binthresh && dx*dx + dy*dy < distsq){
+							return true;
+						}
+					}
+				}
+			}
+			return false;
+		}
 	}
 
 	/** @return whether this maximum has been captured */
@@ -132,10 +191,7 @@ public class EnhancedWatershedSegmenter implements Segmenter {
 	}
 
 	private void removeFoothills( LatLonGrid data, LatLonGrid marked, int bin, int bin_lower,
-			List<Pixel>[] centers, List<Glob> toglob ){
-		// anything marked too small, set it back to UNMARKED, so that
-		// a lower pixel will take care of it
-		marked.replace( TOOSMALL, UNMARKED );
+			CenterIndex centers, List<Glob> toglob ){
 		for (int g = 0; g < toglob.size(); ++g){
 			Pixel center = toglob.get(g).center;
 			Pixels asglob = toglob.get(g).asglob;
@@ -154,7 +210,7 @@ public class EnhancedWatershedSegmenter implements Segmenter {
 							Pixel pn = new Pixel(i,j, data.getValue(i,j));
 							// will let in even minor peaks
 							if ( data.getValue(i,j) >= 0 && data.getValue(i,j) < bin_lower &&
-									(data.getValue(i,j) <= data.getValue(x,y) || isClosest(pn, center, centers, data)) )
+									(data.getValue(i,j) <= data.getValue(x,y) || isClosest(pn, center, centers)) )
 								asglob.add(pn);
 						}
 					}
@@ -166,70 +222,75 @@ public class EnhancedWatershedSegmenter implements Segmenter {
 	private LatLonGrid findLocalMaxima(LatLonGrid dataval){
 		// quantize: set data to the bin number
 		final int maxbin = (maxThresh - minThresh)/dataIncr;
-		Pixels[] pixels = new Pixels[ maxbin+1 ];
-		for (int i=0; i < pixels.length; ++i){
-			pixels[i] = new Pixels();
-		}
-		LatLonGrid data = LatLonGrid.copyOf(dataval);
-		data.fill(-1);
-		int numx = data.getNumLat();
-		int numy = data.getNumLon();
-		for (int i=0; i < numx; ++i) for (int j=0; j < numy; ++j){
-			int in = dataval.getValue(i,j);
-			if ( in != dataval.getMissing() ){
-				int bin = (in - minThresh) / dataIncr;
-				if ( bin > maxbin ) bin = maxbin;
+		final int numx = dataval.getNumLat();
+		final int numy = dataval.getNumLon();
+		final int[] binOf = new int[numx * numy];
+		// counting sort of the pixels by bin: pixels in bin b are sorted[binStart[b]] to sorted[binStart[b+1]-1]
+		final int[] binStart = new int[maxbin+2];
+		int[] row = new int[numy];
+		for (int i=0; i < numx; ++i){
+			dataval.getRowValues(i, row);
+			for (int j=0, p=i*numy; j < numy; ++j, ++p){
+				int bin = -1;
+				if ( row[j] != dataval.getMissing() ){
+					bin = (row[j] - minThresh) / dataIncr;
+					if ( bin > maxbin ) bin = maxbin;
+					if ( bin < 0 ) bin = -1;
+				}
+				binOf[p] = bin;
 				if ( bin >= 0 ){
-					data.setValue(i,j, bin);
-					Pixel p = new Pixel( i,j,bin );
-					pixels[bin].add(p);
+					++binStart[bin+1];
 				}
 			}
 		}
+		for (int bin=0; bin <= maxbin; ++bin){
+			binStart[bin+1] += binStart[bin];
+		}
+		final int[] sorted = new int[binStart[maxbin+1]];
+		int[] next = Arrays.copyOf(binStart, maxbin+1);
+		for (int p=0; p < binOf.length; ++p){
+			if ( binOf[p] >= 0 ){
+				sorted[next[binOf[p]]++] = p;
+			}
+		}
+		LatLonGrid data = new LatLonGrid(binOf, numx, numy, dataval.getMissing(), dataval.getNwCorner(), dataval.getLatRes(), dataval.getLonRes());
 
 		// Find the maxima. These are high-values with enough clearance
-		// around them
+		// around them.  The square of influence of a candidate is taken row by
+		// row, each row only up to the first pixel that is off the grid or
+		// already taken.  The candidate is a maximum if the last row of its
+		// square is entirely free; otherwise, nothing it took is kept.
 		@SuppressWarnings("unchecked")
 		List<Pixel>[] centers = new List[ maxbin+1 ];
 		for (int i = 0; i < centers.length; ++i){
 			centers[i] = new ArrayList<Pixel>();
 		}
-		List<Pixel> markedsofar = new ArrayList<Pixel>();  
-		LatLonGrid marked = LatLonGrid.copyOf(data);
-		marked.fill(UNMARKED);
+		final CenterIndex centerIndex = new CenterIndex(numx, numy);
+		final boolean[] taken = new boolean[numx * numy];
 		final int MIN_INFL = (int) Math.round(1 + 0.5*Math.sqrt(myMinSize));
 		final int MAX_INFL = 2 * MIN_INFL;
 
 		for (int bin=maxbin; bin >= 0; --bin){
 			final int infl_dist = MIN_INFL + (int)Math.round(((double)bin)/maxbin * (MAX_INFL-MIN_INFL));
-			for (Pixel p : pixels[bin]){
-				if ( marked.getValue(p) == UNMARKED ){
-					boolean ok = false;
-					markedsofar.clear();
-					for (int ii=p.getX()-infl_dist; ii <= p.getX()+infl_dist; ++ii)
-						for (int jj=p.getY()-infl_dist; jj <= p.getY()+infl_dist; ++jj){
-							int i=ii; int j=jj;
-							ok = data.isValid(i,j);
-							if (ok && marked.getValue(i,j) == UNMARKED){
-								marked.setValue(i,j, bin);
-								markedsofar.add( new Pixel(i,j,data.getValue(i,j)) );
-							} else{
-								// neighborhood already taken ...
-								ok = false;
-								break;
-							}
-						}
-					if (ok){
-						// highest point in its neighborhood
-						centers[bin].add(p);
-					} else {
-						for (Pixel m : markedsofar){
-							marked.setValue( m.getX() , m.getY() , UNMARKED);
-						}
+			for (int k=binStart[bin]; k < binStart[bin+1]; ++k){
+				final int x = sorted[k] / numy;
+				final int y = sorted[k] % numy;
+				if ( taken[sorted[k]] || !isRowFree(taken, numx, numy, x + infl_dist, y - infl_dist, y + infl_dist) ){
+					continue;
+				}
+				// highest point in its neighborhood
+				for (int i=x-infl_dist; i <= x+infl_dist; ++i){
+					if ( i < 0 || i >= numx ) continue;
+					for (int j=y-infl_dist; j <= y+infl_dist; ++j){
+						if ( j < 0 || j >= numy || taken[i*numy + j] ) break;
+						taken[i*numy + j] = true;
 					}
 				}
+				centerIndex.add(x, y, bin);
+				centers[bin].add(new Pixel(x, y, bin));
 			}
 		}
+		LatLonGrid marked = LatLonGrid.copyOf(data);
 		marked.fill(UNMARKED);
 
 		int starting_delta = 0;
@@ -257,13 +318,26 @@ public class EnhancedWatershedSegmenter implements Segmenter {
 				}// all centers
 				System.out.println("Finished processing " + tot_centers + " potential maxima at bin=" + bin + " and delta=" + delta);
 				// this is the last one for this bin
-				removeFoothills( data, marked, bin, bin_lower, centers, foothills );
+				removeFoothills( data, marked, bin, bin_lower, centerIndex, foothills );
 			} // all bins
 		} // all deltas
 
 		return marked;
 	}
 
+	/** Are columns [jstart, jend] of row i within the grid and not taken? */
+	private static boolean isRowFree(boolean[] taken, int numx, int numy, int i, int jstart, int jend){
+		if ( i < 0 || i >= numx || jstart < 0 || jend >= numy ){
+			return false;
+		}
+		for (int j=jstart; j <= jend; ++j){
+			if ( taken[i*numy + j] ){
+				return false;
+			}
+		}
+		return true;
+	}
+	
 	public LabelResult label(LatLonGrid dataval){
 	   LatLonGrid marked = findLocalMaxima(dataval);
 	   LabelResult initial = new ThresholdSegmenter(0).label(marked);
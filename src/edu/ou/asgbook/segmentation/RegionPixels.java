@@ -0,0 +1,170 @@
+/**
+ *
+ */
+package edu.ou.asgbook.segmentation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import edu.ou.asgbook.core.LatLonGrid;
+
+/**
+ * The pixels that belong to each region, held as the linear indices
+ * (row*ncols + col) of the pixels sorted by region rather than as a
+ * Pixel object for every pixel.  Within a region, the pixels are in
+ * raster order.
+ *
+ * The label grid is counted and then copied in parallel on bands of rows.
+ * Each band keeps a count for every region, so there are fewer bands when
+ * there are many regions.
+ *
+ * @author v.lakshmanan
+ *
+ */
+public class RegionPixels {
+	private static final int MIN_BAND_ROWS = 64;
+	private static final int MIN_PIXELS_PER_ENTRY = 8;
+	private final int ncols;
+	// the pixels in region r are pixels[start[r]] to pixels[start[r+1]-1]
+	private final int[] start;
+	private final int[] pixels;
+
+	public RegionPixels(LabelResult objects) {
+		final LatLonGrid label = objects.label;
+		final int nrows = label.getNumLat();
+		final int ncols = label.getNumLon();
+		final int numRegions = objects.maxlabel + 1;
+		final int numBands = getNumBands(nrows, ncols, numRegions);
+		final int[] bandStart = new int[numBands + 1];
+		for (int b=0; b <= numBands; ++b){
+			bandStart[b] = (int) ((long) nrows * b / numBands);
+		}
+		this.ncols = ncols;
+
+		// number of pixels of each region in each band
+		final int[][] next = new int[numBands][numRegions];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int b=0; b < numBands; ++b){
+			final int[] count = next[b];
+			final int rowStart = bandStart[b];
+			final int rowEnd = bandStart[b+1];
+			tasks.add(new Callable<Void>(){
+				@Override
+				public Void call() {
+					int[] row = new int[ncols];
+					for (int i=rowStart; i < rowEnd; ++i){
+						label.getRowValues(i, row);
+						for (int j=0; j < ncols; ++j){
+							if (row[j] > 0){
+								++count[row[j]];
+							}
+						}
+					}
+					return null;
+				}
+			});
+		}
+		invokeAll(tasks);
+
+		// where each band starts writing the pixels of each region
+		this.start = new int[numRegions + 1];
+		int total = 0;
+		for (int reg=1; reg < numRegions; ++reg){
+			start[reg] = total;
+			for (int b=0; b < numBands; ++b){
+				int count = next[b][reg];
+				next[b][reg] = total;
+				total += count;
+			}
+		}
+		start[numRegions] = total;
+		this.pixels = new int[total];
+
+		tasks.clear();
+		for (int b=0; b < numBands; ++b){
+			final int[] pos = next[b];
+			final int rowStart = bandStart[b];
+			final int rowEnd = bandStart[b+1];
+			tasks.add(new Callable<Void>(){
+				@Override
+				public Void call() {
+					int[] row = new int[ncols];
+					for (int i=rowStart; i < rowEnd; ++i){
+						label.getRowValues(i, row);
+						for (int j=0, p=i*ncols; j < ncols; ++j, ++p){
+							if (row[j] > 0){
+								pixels[pos[row[j]]++] = p;
+							}
+						}
+					}
+					return null;
+				}
+			});
+		}
+		invokeAll(tasks);
+	}
+
+	/**
+	 * The number of bands of rows to process in parallel when every band keeps
+	 * an entry for each region: one band per thread, but no more than keep
+	 * those entries to a fraction of the number of pixels.
+	 */
+	static int getNumBands(int nrows, int ncols, int numRegions){
+		long numBands = Math.min(ForkJoinPool.commonPool().getParallelism(), nrows / MIN_BAND_ROWS);
+		numBands = Math.min(numBands, (long) nrows * ncols / (MIN_PIXELS_PER_ENTRY * Math.max(1, numRegions)));
+		return (int) Math.max(1, numBands);
+	}
+
+	/** regions are numbered 1 through getMaxLabel() */
+	public int getMaxLabel(){
+		return start.length - 2;
+	}
+
+	public int getSize(int reg){
+		return start[reg+1] - start[reg];
+	}
+
+	/** index of the first pixel of the region */
+	public int getStart(int reg){
+		return start[reg];
+	}
+
+	/** one past the index of the last pixel of the region */
+	public int getEnd(int reg){
+		return start[reg+1];
+	}
+
+	/** row*ncols + col of the k-th pixel */
+	public int getIndex(int k){
+		return pixels[k];
+	}
+
+	/** row of the k-th pixel */
+	public int getX(int k){
+		return pixels[k] / ncols;
+	}
+
+	/** column of the k-th pixel */
+	public int getY(int k){
+		return pixels[k] % ncols;
+	}
+
+	private static void invokeAll(List<Callable<Void>> tasks) {
+		try {
+			for (Future<Void> result : ForkJoinPool.commonPool().invokeAll(tasks)){
+				result.get();
+			}
+		} catch (InterruptedException e){
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e){
+			if (e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+}
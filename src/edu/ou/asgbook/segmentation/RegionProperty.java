@@ -5,12 +5,16 @@ package edu.ou.asgbook.segmentation;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import edu.ou.asgbook.core.LatLon;
 import edu.ou.asgbook.core.LatLonGrid;
 import edu.ou.asgbook.core.Pixel;
-import edu.ou.asgbook.core.ScalarStatistic;
 import edu.ou.asgbook.dataset.GlobalPopulation;
 import edu.ou.asgbook.geocode.UsaZipcode;
 import edu.ou.asgbook.io.KmlWriter;
@@ -26,28 +30,132 @@ import edu.ou.asgbook.io.PngWriter;
  *
  */
 public class RegionProperty {
-	private ScalarStatistic xstat = new ScalarStatistic();
-	private ScalarStatistic ystat = new ScalarStatistic();
-	private ScalarStatistic valstat = new ScalarStatistic();
-	private ScalarStatistic xystat = new ScalarStatistic();
-	private void update(int x, int y, int val){
-		xstat.update(x);
-		ystat.update(y);
-		valstat.update(val);
-		xystat.update(x*y);
+	private final int size;
+	private final long sumx, sumy, sumval, sumxx, sumyy, sumxy;
+	private final int minx, maxx, miny, maxy, minval, maxval;
+
+	private RegionProperty(Moments m, int reg){
+		size = m.count[reg];
+		sumx = m.sumx[reg];
+		sumy = m.sumy[reg];
+		sumval = m.sumval[reg];
+		sumxx = m.sumxx[reg];
+		sumyy = m.sumyy[reg];
+		sumxy = m.sumxy[reg];
+		// zero for an empty region
+		minx = (size > 0)? m.minx[reg] : 0;
+		maxx = (size > 0)? m.maxx[reg] : 0;
+		miny = (size > 0)? m.miny[reg] : 0;
+		maxy = (size > 0)? m.maxy[reg] : 0;
+		minval = (size > 0)? m.minval[reg] : 0;
+		maxval = (size > 0)? m.maxval[reg] : 0;
 	}
-	
+
+	private double mean(long sum){
+		return (size > 0)? ((double) sum) / size : 0;
+	}
+
 	public double getCx() {
-		return xstat.getMean();
+		return mean(sumx);
 	}
 	public double getCy() {
-		return ystat.getMean();
+		return mean(sumy);
 	}
 	public double getCval() {
-		return valstat.getMean();
+		return mean(sumval);
 	}
 	public int getSize() {
-		return xstat.getNumSamples();
+		return size;
+	}
+	public int getMinVal() {
+		return minval;
+	}
+	public int getMaxVal() {
+		return maxval;
+	}
+	/** the bounding box is minx..maxx (rows) and miny..maxy (columns), inclusive */
+	public int getMinX() {
+		return minx;
+	}
+	public int getMaxX() {
+		return maxx;
+	}
+	public int getMinY() {
+		return miny;
+	}
+	public int getMaxY() {
+		return maxy;
+	}
+
+	/**
+	 * Sums of powers of the pixel coordinates and values for every region,
+	 * each moment held in its own array indexed by region number.  The sums
+	 * are integers, so adding up partial sums in any order gives the same result.
+	 */
+	private static class Moments {
+		final int[] count;
+		final long[] sumx, sumy, sumval, sumxx, sumyy, sumxy;
+		final int[] minx, maxx, miny, maxy, minval, maxval;
+
+		Moments(int numRegions){
+			count = new int[numRegions];
+			sumx = new long[numRegions];
+			sumy = new long[numRegions];
+			sumval = new long[numRegions];
+			sumxx = new long[numRegions];
+			sumyy = new long[numRegions];
+			sumxy = new long[numRegions];
+			minx = filled(numRegions, Integer.MAX_VALUE);
+			maxx = filled(numRegions, Integer.MIN_VALUE);
+			miny = filled(numRegions, Integer.MAX_VALUE);
+			maxy = filled(numRegions, Integer.MIN_VALUE);
+			minval = filled(numRegions, Integer.MAX_VALUE);
+			maxval = filled(numRegions, Integer.MIN_VALUE);
+		}
+
+		private static int[] filled(int n, int value){
+			int[] result = new int[n];
+			Arrays.fill(result, value);
+			return result;
+		}
+
+		void add(int reg, int x, int y, int val){
+			++count[reg];
+			sumx[reg] += x;
+			sumy[reg] += y;
+			sumval[reg] += val;
+			sumxx[reg] += (long) x * x;
+			sumyy[reg] += (long) y * y;
+			sumxy[reg] += (long) x * y;
+			minx[reg] = Math.min(minx[reg], x);
+			maxx[reg] = Math.max(maxx[reg], x);
+			miny[reg] = Math.min(miny[reg], y);
+			maxy[reg] = Math.max(maxy[reg], y);
+			minval[reg] = Math.min(minval[reg], val);
+			maxval[reg] = Math.max(maxval[reg], val);
+		}
+
+		/** adds the moments of regions [from, to) in other to this */
+		void add(Moments other, int from, int to){
+			for (int reg=from; reg < to; ++reg){
+				if (other.count[reg] == 0){
+					continue;
+				}
+				count[reg] += other.count[reg];
+				sumx[reg] += other.sumx[reg];
+				sumy[reg] += other.sumy[reg];
+				sumval[reg] += other.sumval[reg];
+				sumxx[reg] += other.sumxx[reg];
+				sumyy[reg] += other.sumyy[reg];
+				sumxy[reg] += other.sumxy[reg];
+				minx[reg] = Math.min(minx[reg], other.minx[reg]);
+				maxx[reg] = Math.max(maxx[reg], other.maxx[reg]);
+				miny[reg] = Math.min(miny[reg], other.miny[reg]);
+				maxy[reg] = Math.max(maxy[reg], other.maxy[reg]);
+				minval[reg] = Math.min(minval[reg], other.minval[reg]);
+				maxval[reg] = Math.max(maxval[reg], other.maxval[reg]);
+			}
+		}
 	}
 	
 	public static class Ellipse {
@@ -84,11 +192,11 @@ public class RegionProperty {
 	}
 	
 	public Ellipse getEllipseFit() {
-		final double cx = xstat.getMean();
-		final double cy = ystat.getMean();
-		final double s11 = xstat.getVariance();
-		final double s22 = ystat.getVariance();
-		final double s12 = xystat.getMean() - cx*cy;
+		final double cx = getCx();
+		final double cy = getCy();
+		final double s11 = mean(sumxx) - cx*cx;
+		final double s22 = mean(sumyy) - cy*cy;
+		final double s12 = mean(sumxy) - cx*cy;
 		double tmp = (s11 - s22) * (s11 - s22) + 4 * s12 * s12;
 		if (tmp >= 0.00001) {
 			tmp = Math.sqrt(tmp);
@@ -110,44 +218,87 @@ public class RegionProperty {
 
 	}
 	
-	public static RegionProperty[] compute(LabelResult label, LatLonGrid data){
-		RegionProperty[] props = new RegionProperty[label.maxlabel+1];
-		for (int i=1; i < props.length; ++i){
-			props[i] = new RegionProperty();
+	/**
+	 * The moments are accumulated in parallel on bands of rows and the
+	 * partial sums of the bands are then added up, also in parallel, on
+	 * ranges of regions.  Every band keeps the moments of all the regions, so
+	 * there are fewer bands when there are many regions.
+	 */
+	public static RegionProperty[] compute(final LabelResult label, final LatLonGrid data){
+		final int numRegions = label.maxlabel+1;
+		final int nrows = label.label.getNumLat();
+		final int ncols = label.label.getNumLon();
+		final int numBands = RegionPixels.getNumBands(nrows, ncols, numRegions);
+		final Moments[] partial = new Moments[numBands];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int b=0; b < numBands; ++b){
+			final int band = b;
+			final int start = (int) ((long) nrows * b / numBands);
+			final int end = (int) ((long) nrows * (b+1) / numBands);
+			tasks.add(new Callable<Void>(){
+				@Override
+				public Void call() {
+					Moments m = new Moments(numRegions);
+					int[] labels = new int[ncols];
+					for (int i=start; i < end; ++i){
+						label.label.getRowValues(i, labels);
+						for (int j=0; j < ncols; ++j){
+							if (labels[j] > 0){
+								m.add(labels[j], i, j, data.getValue(i,j));
+							}
+						}
+					}
+					partial[band] = m;
+					return null;
+				}
+			});
 		}
-		int nrows = label.label.getNumLat();
-		int ncols = label.label.getNumLon();
-		for (int i=0; i < nrows; ++i) for (int j=0; j < ncols; ++j){
-			if (label.label.getValue(i,j) > 0){
-				props[ label.label.getValue(i,j) ].update(i, j, data.getValue(i,j));
+		invokeAll(tasks);
+		final Moments total = partial[0];
+		if (numBands > 1){
+			tasks.clear();
+			for (int b=0; b < numBands; ++b){
+				final int from = (int) ((long) numRegions * b / numBands);
+				final int to = (int) ((long) numRegions * (b+1) / numBands);
+				tasks.add(new Callable<Void>(){
+					@Override
+					public Void call() {
+						for (int p=1; p < numBands; ++p){
+							total.add(partial[p], from, to);
+						}
+						return null;
+					}
+				});
 			}
+			invokeAll(tasks);
+		}
+
+		RegionProperty[] props = new RegionProperty[numRegions];
+		for (int i=1; i < props.length; ++i){
+			props[i] = new RegionProperty(total, i);
 		}
 		return props;
 	}
 	
 	/**
 	 * All the pixels for each region. The array is organized as
-	 * pixels[regno][pixelno]
+	 * pixels[regno][pixelno].  RegionPixels holds the same information
+	 * without creating an object for every pixel.
 	 * @param data1
 	 * @param objects1
 	 * @return
 	 */
 	public static Pixel[][] getPixelsInRegions(LatLonGrid data1, LabelResult objects1) {
-		@SuppressWarnings("unchecked")
-		List<Pixel>[] regions = new List[objects1.maxlabel+1];
-		for (int reg=1; reg < regions.length; ++reg){
-			regions[reg] = new ArrayList<Pixel>();
-		}
-		for (int i=0; i < data1.getNumLat(); ++i) for (int j=0; j < data1.getNumLon(); ++j){
-			int reg = objects1.label.getValue(i,j);
-			if (reg > 0){
-				regions[reg].add(new Pixel(i,j,data1.getValue(i,j)));
+		RegionPixels regions = new RegionPixels(objects1);
+		Pixel[][] result = new Pixel[objects1.maxlabel+1][];
+		for (int reg=1; reg < result.length; ++reg){
+			result[reg] = new Pixel[regions.getSize(reg)];
+			for (int k=regions.getStart(reg); k < regions.getEnd(reg); ++k){
+				int x = regions.getX(k);
+				int y = regions.getY(k);
+				result[reg][k - regions.getStart(reg)] = new Pixel(x, y, data1.getValue(x,y));
 			}
 		}
-		Pixel[][] result = new Pixel[regions.length][];
-		for (int i=1; i < result.length; ++i){
-			result[i] = regions[i].toArray(new Pixel[0]);
-		}
 		return result;
 	}
 
@@ -203,6 +354,21 @@ public class RegionProperty {
 		return new LabelResult(newLabel, numRegions);
 	}
 	
+	private static void invokeAll(List<Callable<Void>> tasks) {
+		try {
+			for (Future<Void> result : ForkJoinPool.commonPool().invokeAll(tasks)){
+				result.get();
+			}
+		} catch (InterruptedException e){
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e){
+			if (e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
 	public static void main(String[] args) throws Exception {
 		File out = OutputDirectory.getDefault("regionproperty");
 		
@@ -129,7 +129,7 @@ public class SnakeActiveContour {
 		
 		public double computeEnergy(int candx, int candy, SnakeNode current, SnakeNode previous, SnakeNode next){
 			double E_total, E_edgestrength, E_smoothness, E_continuity ; 
-			E_edgestrength = gradient.getData()[candx][candy];
+			E_edgestrength = gradient.getValue(candx, candy);
 			E_smoothness = Math.pow(previous.getX() - 2 * candx + next.getX(), 2) + Math.pow(previous.getY() - 2 * candy + next.getY(), 2);
 			E_continuity = Math.abs( Math.sqrt(previous.getDistanceSquared(candx,candy)) - SNAKE_DIST_BETWEEN_PTS );
 			E_total =  current.alpha * E_continuity + current.beta * E_smoothness - current.gamma * E_edgestrength;
@@ -150,8 +150,8 @@ public class SnakeActiveContour {
 			SnakeNode nextPt = nodes.get(next);
 
 			int distsq = (nextPt.getX()-curPt.getX())*(nextPt.getX()-curPt.getX())+(nextPt.getX()-curPt.getX())*(nextPt.getY()-curPt.getY());
-			boolean currNotOnGradient = gradient.getData()[curPt.getX()][curPt.getY()] < 30;
-			boolean nextNotOnGradient = gradient.getData()[nextPt.getX()][nextPt.getY()] < 30;
+			boolean currNotOnGradient = gradient.getValue(curPt.getX(), curPt.getY()) < 30;
+			boolean nextNotOnGradient = gradient.getValue(nextPt.getX(), nextPt.getY()) < 30;
 			
 			boolean remove = numNodes > SNAKE_LENGTH && ( (distsq < 20) || (distsq < 80 && nextNotOnGradient));
 			if (remove) {
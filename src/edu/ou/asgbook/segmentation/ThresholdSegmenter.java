@@ -32,20 +32,7 @@ public class ThresholdSegmenter implements Segmenter {
 	 * part of an object.
 	 */
 	public LabelResult label(LatLonGrid data){
-		final int UNSET = 0;
-		int nrows = data.getNumLat();
-		int ncols = data.getNumLon();
-		LatLonGrid label = new LatLonGrid(nrows,ncols,0,data.getNwCorner(),data.getLatRes(),data.getLonRes());
-		// label.fill(UNSET); java default is to zero-out arrays
-		int regno = 0;
-		for (int i=0; i < nrows; ++i) for (int j=0; j < ncols; ++j){
-			if ( data.getValue(i, j) > thresh && label.getValue(i, j) == UNSET ){
-				++regno;
-				RegionGrowing.growRegion(i,j, data, thresh, label, regno);
-			}
-		}
-		System.out.println("Found " + (regno+1) + " objects");
-		return new LabelResult(label, regno);
+		return new ConnectedComponentLabeler(true).label(data, thresh);
 	}
 	
 	public static void main(String[] args) throws Exception {
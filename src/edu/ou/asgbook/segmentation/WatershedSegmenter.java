@@ -4,15 +4,11 @@
 package edu.ou.asgbook.segmentation;
 
 import java.io.File;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Queue;
+import java.util.Arrays;
 
 import edu.ou.asgbook.core.LatLonGrid;
-import edu.ou.asgbook.core.Pixel;
 import edu.ou.asgbook.dataset.GlobalPopulation;
 import edu.ou.asgbook.filters.ConvolutionFilter;
-import edu.ou.asgbook.filters.MaxValueFilter;
 import edu.ou.asgbook.io.KmlWriter;
 import edu.ou.asgbook.io.OutputDirectory;
 import edu.ou.asgbook.io.PngWriter;
@@ -40,215 +36,233 @@ public class WatershedSegmenter implements Segmenter {
 		return vincent_segment(data);
 	}
 
-	private boolean neighbor_is_tagged(LatLonGrid img, int x, int y) {
-		for (int i = x - 1; i <= x + 1; ++i)
-			for (int j = y - 1; j <= y + 1; ++j)
-				if ((i != x || j != y) && img.isValid(i, j))
-					if (img.getValue(i, j) >= 0)
-						return true;
-		return false;
-	}
-
 	private LabelResult vincent_segment(LatLonGrid img) {
 		// Vincent/Soille, from IEEE PAMI June 1991.
-		// initialize
-		// The result image is the output image; we will slowly fill it with the
-		// watershed labels
+		// Pixels are referred to by their index row*dimy+col into flat arrays,
+		// so that no objects are created per pixel.
 		final int WSHED = 0;
 		final int INIT = -1;
 		final int MASK = -2;
+		final int FICTITIOUS = -1;
 		final int min_valid = thresh;
-		final int max_valid = new MaxValueFilter().findHighestValued(img).value;
 		final int dimx = img.getNumLat();
 		final int dimy = img.getNumLon();
-		LatLonGrid result = LatLonGrid.copyOf(img);
-		result.fill(INIT);
 
+		// sort the pixels by value (counting sort, so that pixels with the
+		// same value stay in raster order), so as to be able to get at all the
+		// pixels corresponding to particular value easily.
+		int max_valid = min_valid - 1;
+		int numValid = 0;
+		int[] row = new int[dimy];
+		for (int i = 0; i < dimx; ++i) {
+			img.getRowValues(i, row);
+			for (int j = 0; j < dimy; ++j) {
+				if (row[j] >= min_valid) {
+					max_valid = Math.max(max_valid, row[j]);
+					++numValid;
+				}
+			}
+		}
+		// pixels with value min_valid+v are sorted[level_start[v]] to sorted[level_start[v+1]-1]
+		final int[] level_start = new int[max_valid - min_valid + 2];
+		for (int i = 0; i < dimx; ++i) {
+			img.getRowValues(i, row);
+			for (int j = 0; j < dimy; ++j) {
+				if (row[j] >= min_valid) {
+					++level_start[row[j] - min_valid + 1];
+				}
+			}
+		}
+		int max_level_size = 0;
+		for (int v = 1; v < level_start.length; ++v) {
+			max_level_size = Math.max(max_level_size, level_start[v]);
+			level_start[v] += level_start[v-1];
+		}
+		final int[] sorted = new int[numValid];
+		final int[] next = new int[level_start.length];
+		System.arraycopy(level_start, 0, next, 0, next.length);
+		for (int i = 0; i < dimx; ++i) {
+			img.getRowValues(i, row);
+			for (int j = 0; j < dimy; ++j) {
+				if (row[j] >= min_valid) {
+					sorted[next[row[j] - min_valid]++] = i * dimy + j;
+				}
+			}
+		}
+
+		// The result is the output image; we will slowly fill it with the watershed labels
+		final int[] result = new int[dimx * dimy];
+		Arrays.fill(result, INIT);
 		// the label is the region id
 		int curr_label = 0;
 		// distances is the work image that contains how far away a pixel that
 		// is being processed at this level is from an already tagged pixel.
-		int[][] distances = new int[img.getNumLat()][img.getNumLon()];
-
-		// sort the pixels, so as to be able to get at all the pixels
-		// corresponding to particular value easily.
-		@SuppressWarnings("serial")
-		class PixelArray extends ArrayList<Pixel> {
-		}
-		PixelArray[] sorted_list = new PixelArray[max_valid - min_valid + 1];
-		for (int i=0; i < sorted_list.length; ++i){
-			sorted_list[i] = new PixelArray();
-		}
-		for (int i = 0; i < dimx; ++i)
-			for (int j = 0; j < dimy; ++j)
-				if (img.isValid(i, j) && img.getValue(i, j) >= min_valid) {
-					// add this pixel to the appropriate pixel array
-					int pos = img.getValue(i, j) - min_valid;
-					sorted_list[pos].add(new Pixel(i, j, img.getValue(i, j)));
-				}
+		final int[] distances = new int[dimx * dimy];
+		// every pixel of a level is in the queue at most once, plus the fictitious pixel
+		final IntQueue fifo = new IntQueue(max_level_size + 1);
 
 		for (int val = max_valid; val >= min_valid; --val) {
-			PixelArray this_list = sorted_list[val - min_valid];
-			// a new queue for this processing this pixel
-			Queue<Pixel> fifo = new ArrayDeque<Pixel>();
+			final int first = level_start[val - min_valid];
+			final int last = level_start[val - min_valid + 1];
 
 			// add pixels to the queue if their neighbors have been tagged since
 			// that is information that can be used to tag those pixels also
-			for (int p = 0; p < this_list.size(); ++p) {
+			for (int k = first; k < last; ++k) {
 				// In any case, set the pixel to the MASK in the output image,
 				// meaning that this pixel has to be set to WSHED or a label
 				// in this iteration.
-				result.setValue(this_list.get(p).getX(), this_list.get(p)
-						.getY(), MASK);
-				if (neighbor_is_tagged(result, this_list.get(p).getX(),
-						this_list.get(p).getY())) {
-					distances[this_list.get(p).getX()][this_list.get(p).getY()] = 1;
-					fifo.add(this_list.get(p));
+				final int p = sorted[k];
+				result[p] = MASK;
+				if (neighbor_is_tagged(result, p, dimx, dimy)) {
+					distances[p] = 1;
+					fifo.add(p);
 				}
 			}
 			// Start at dist=1, then slowly work up, processing pixels that are
-			// at
-			// the same distance from processed pixels at the same time.
+			// at the same distance from processed pixels at the same time.
 			int curr_dist = 1;
 
 			// push in a fictitious pixel so that the first pop() works.
 			// even if there were no neighbors tagged.
 			// we'll use this fictitious pixel to update curr_dist
-			fifo.add(new Pixel(-1, -1, -1));
+			fifo.add(FICTITIOUS);
 
 			while (true) { // until queue is empty
-				Pixel p = fifo.remove();
-				if (p.getX() < 0) { // if it isn't valid, it is fictitious
+				int p = fifo.remove();
+				if (p == FICTITIOUS) {
 					// If the queue is empty now, it means that every pixel at
-					// this
-					// level has been tagged. So, we can go to the next level.
-					if (fifo.size() == 0){
+					// this level has been tagged. So, we can go to the next level.
+					if (fifo.isEmpty()){
 						break;
 					} else {
 						// We have come full circle; so increment distance and
-						// try again.
+						// put the fictitious pixel back so that we can detect
+						// the full-circle again.  The next pop will yield a valid pixel.
 						++curr_dist;
-						// Put the fictitious pixel back so that we can detect
-						// the
-						// full-circle again.
-						fifo.add(new Pixel(-1, -1, -1));
-						// Start processing with the next one.
-						// Since there is only fictitious pixel and the queue
-						// was not
-						// empty when we pushed it back in, the next pop will
-						// yield a
-						// valid pixel.
+						fifo.add(FICTITIOUS);
 						p = fifo.remove();
 					}
 				}
 
 				// process the pixel from the queue
-				for (int i = p.getX() - 1; i <= p.getX() + 1; ++i){
-					for (int j = p.getY() - 1; j <= p.getY() + 1; ++j){
-						if ((i != p.getX() || j != p.getY()) && img.isValid(i, j)) {
-							// if a neighbor (closer than curr_dist) has a label
-							if (distances[i][j] < curr_dist
-									&& result.getValue(i, j) > 0) {
-								// CASE a:
-								// if we are untagged at this level but should
-								// be tagged now
-								// CASE b:
-								// if we have been set earlier to WSHED in the
-								// plateau test (e)
-								// CASE a or b:
-								// we take our neighbor's label.
-								if (result.getValue(p) == MASK
-										|| result.getValue(p) == WSHED){
-									result.setValue(p.getX(), p.getY(),
-											result.getValue(i, j));
-								} else {
-									// CASE c:
-									// if we are tagged already, we are normally
-									// okay.
-									// retain old label, except for WSHED test ( d )
-									// CASE d:
-									// but if our tag is not the same as our
-									// neighbor's,
-									// tag ourselves a watershed point
-									if (result.getValue(p) != result.getValue(i, j)){
-										result.setValue(p.getX(), p.getY(), WSHED);
-									}
-								}
-							} else
-							// CASE e:
-							// if we might be part of a plateau
+				final int x = p / dimy;
+				final int y = p % dimy;
+				for (int i = Math.max(0, x - 1); i <= Math.min(dimx - 1, x + 1); ++i){
+					for (int j = Math.max(0, y - 1); j <= Math.min(dimy - 1, y + 1); ++j){
+						final int q = i * dimy + j;
+						if (q == p) {
+							continue;
+						}
+						if (distances[q] < curr_dist && result[q] > 0) {
+							// CASE a: if we are untagged at this level but should be tagged now
+							// CASE b: if we have been set earlier to WSHED in the plateau test (e)
+							// CASE a or b: we take our neighbor's label.
+							if (result[p] == MASK || result[p] == WSHED){
+								result[p] = result[q];
+							} else if (result[p] != result[q]){
+								// CASE c: if we are tagged already, we retain our old label
+								// CASE d: but if our tag is not the same as our neighbor's,
+								// tag ourselves a watershed point
+								result[p] = WSHED;
+							}
+						} else if (result[q] == WSHED && result[p] == MASK){
+							// CASE e: if we might be part of a plateau
 							// the neighbor is WSHED and we are untagged.
 							// so, we tag ourselves as WSHED
-							if (result.getValue(i, j) == WSHED
-									&& result.getValue(p) == MASK){
-								result.setValue(p.getX(), p.getY(), WSHED);
-							} else {
-								// CASE f:
-								// our neighbor doesn't know about himself either.
-								// there is nothing we can do. We should put this
-								// pixel
-								// back on the queue and wait; maybe we will get a
-								// better
-								// deal the next time around, i.e. if some other
-								// neighbor
-								// can come to our rescue and take us out of the
-								// queue.
-								if (result.getValue(i, j) == MASK
-									&& distances[i][j] == 0) {
-									// this far away from already processed pixel
-									distances[i][j] = curr_dist + 1;
-									fifo.add(new Pixel(i, j, img.getValue(i, j)));
-								}
-							}
-						} // neighborhood of pixel, p
+							result[p] = WSHED;
+						} else if (result[q] == MASK && distances[q] == 0) {
+							// CASE f: our neighbor doesn't know about himself either.
+							// Put it on the queue and wait; maybe some other neighbor
+							// can come to its rescue the next time around.
+							distances[q] = curr_dist + 1;
+							fifo.add(q);
+						}
 					}
 				}
 			} // infinite loop, continues until queue is empty
 
 			// Check if we have a new maximum
-			for (int p_i = 0; p_i < this_list.size(); ++p_i) {
-				Pixel p = this_list.get(p_i);
+			for (int k = first; k < last; ++k) {
+				final int p = sorted[k];
 				// reset distance to zero for every point
-				distances[p.getX()][p.getY()] = 0;
-				if (result.getValue(p) == MASK) {
-					// If the pixel p was
-					// not set by all the processing above,
-					// we consider it a new minimum and update the label
+				distances[p] = 0;
+				if (result[p] == MASK) {
+					// If the pixel p was not set by all the processing above,
+					// we consider it a new minimum and update the label.
+					// We use the (now empty) queue to spread the label to all
+					// the neighbors that are still MASK.
 					++curr_label;
-					// add it to a queue which is now empty.
-					// we will use the queue to update our neighbors
-					Queue<Pixel> fifo2 = new ArrayDeque<Pixel>();
-					fifo2.add(p);
-					result.setValue(p.getX(), p.getY(), curr_label);
-					// we'll do this recursively by adding the neighbor to the
-					// queue
-					// until we reach a point where the neighbor is not MASK
-					// and so can not be processed along with this pixel.
-					while (fifo2.size() != 0) {
-						Pixel p1 = fifo2.remove();
-						for (int i = p1.getX() - 1; i <= p1.getX() + 1; ++i)
-							for (int j = p1.getY() - 1; j <= p1.getY() + 1; ++j)
-								if ((i != p1.getX() || j != p1.getY())
-										&& img.isValid(i, j)) {
-									// is a neighbor of p1
-									if (result.getValue(i, j) == MASK) {
-										fifo2.add(new Pixel(i, j, img.getValue(
-												i, j)));
-										result.setValue(i, j, curr_label);
-									}
-								} // for every p2 a neighbor of p1
+					fifo.add(p);
+					result[p] = curr_label;
+					while (!fifo.isEmpty()) {
+						final int p1 = fifo.remove();
+						final int x = p1 / dimy;
+						final int y = p1 % dimy;
+						for (int i = Math.max(0, x - 1); i <= Math.min(dimx - 1, x + 1); ++i) {
+							for (int j = Math.max(0, y - 1); j <= Math.min(dimy - 1, y + 1); ++j) {
+								final int q = i * dimy + j;
+								if (result[q] == MASK) {
+									fifo.add(q);
+									result[q] = curr_label;
+								}
+							}
+						}
 					} // until queue is empty
 				} // if pixel is still not labeled
 			} // if a new minimum
 
 		} // for every value in the range
 
-		for (int i=0; i < dimx; ++i) for (int j=0; j < dimy; ++j){
-			if ( result.getValue(i,j) < 0 ){
-				result.setValue(i,j, 0);
+		for (int p = 0; p < result.length; ++p){
+			if ( result[p] < 0 ){
+				result[p] = 0;
+			}
+		}
+		return new LabelResult( new LatLonGrid(result, dimx, dimy, img.getMissing(),
+				img.getNwCorner(), img.getLatRes(), img.getLonRes()), curr_label );
+	}
+
+	private static boolean neighbor_is_tagged(int[] result, int p, int dimx, int dimy) {
+		final int x = p / dimy;
+		final int y = p % dimy;
+		for (int i = Math.max(0, x - 1); i <= Math.min(dimx - 1, x + 1); ++i)
+			for (int j = Math.max(0, y - 1); j <= Math.min(dimy - 1, y + 1); ++j)
+				if ((i != x || j != y) && result[i * dimy + j] >= 0)
+					return true;
+		return false;
+	}
+
+	/**
+	 * A FIFO of pixel indices in a fixed-size ring buffer.
+	 */
+	private static class IntQueue {
+		private final int[] buffer;
+		private int head = 0;
+		private int size = 0;
+
+		IntQueue(int capacity) {
+			buffer = new int[Math.max(1, capacity)];
+		}
+
+		void add(int value) {
+			if (size == buffer.length) {
+				throw new IllegalStateException("Queue is full: " + size);
 			}
+			int tail = head + size;
+			buffer[(tail < buffer.length)? tail : tail - buffer.length] = value;
+			++size;
+		}
+
+		int remove() {
+			int value = buffer[head];
+			head = (head + 1 == buffer.length)? 0 : head + 1;
+			--size;
+			return value;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
 		}
-		return new LabelResult( result, curr_label );
 	}
 	
 	
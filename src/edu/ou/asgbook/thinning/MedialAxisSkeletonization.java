@@ -7,7 +7,7 @@ import java.io.File;
 
 import edu.ou.asgbook.core.LatLonGrid;
 import edu.ou.asgbook.dataset.GlobalPopulation;
-import edu.ou.asgbook.distance.EuclideanDTSaito;
+import edu.ou.asgbook.distance.EuclideanDTMeijster;
 import edu.ou.asgbook.filters.DilateErodeFilter;
 import edu.ou.asgbook.filters.ErodeDilateFilter;
 import edu.ou.asgbook.filters.Inverter;
@@ -33,7 +33,7 @@ public class MedialAxisSkeletonization {
 		binaryImage = new Inverter(1).invert(binaryImage);
 		
 		// compute distance to pts > 0 i.e. boundary pixels
-		LatLonGrid edt = new EuclideanDTSaito().getDistanceTransform(binaryImage, 0);
+		LatLonGrid edt = new EuclideanDTMeijster().getDistanceTransform(binaryImage, 0);
 		if (out != null){
 			KmlWriter.write(edt, out, "edt", PngWriter.createCoolToWarmColormap());
 		}
@@ -7,7 +7,6 @@ import edu.ou.asgbook.core.LatLonGrid;
 import edu.ou.asgbook.core.Pixel;
 import edu.ou.asgbook.dataset.GlobalPopulation;
 import edu.ou.asgbook.filters.SobelEdgeFilter;
-import edu.ou.asgbook.transforms.FFT.Complex;
 
 /**
  * Estimate the degree of spatial displacement between two similar grids.
@@ -27,7 +26,10 @@ public class AlignmentEstimator {
 		this.MAXV = maxv;
 		
 		// a
-		Complex[][] in1 = FFT2D.fft(FFT2D.zeropad(a));
+		final int nrows = FFT2D.getPaddedSize(a.getNumLat());
+		final int ncols = FFT2D.getPaddedSize(a.getNumLon());
+		ComplexGrid in1 = ComplexGrid.zeropad(a, nrows, ncols);
+		FFT2D.fftReal(in1, a.getNumLat());
 		
 		// zero-out an area of thickness MAXU/MAXV around the boundary to avoid boundary issues
 		LatLonGrid centerb = LatLonGrid.copyOf(b);
@@ -42,38 +44,38 @@ public class AlignmentEstimator {
 				}
 			}
 		}
-		Complex[][] in2 = FFT2D.fft(FFT2D.zeropad(centerb));
+		ComplexGrid in2 = ComplexGrid.zeropad(centerb, nrows, ncols);
+		FFT2D.fftReal(in2, centerb.getNumLat());
 		
 		// find phase shift at this point
-		for (int i=0; i < in1.length; ++i) for (int j=0; j < in1[0].length; ++j){
-			in1[i][j] = in1[i][j].multiply(in2[i][j].conjugate());
-			in1[i][j] = in1[i][j].multiply( 1.0 / in1[i][j].norm() );
-		}
-		// take ifft
-		Complex[][] result = FFT2D.ifft(in1);
+		in1.multiplyByConjugate(in2);
+		in1.normalize();
+		// take ifft; the result is real
+		ComplexGrid result = in1;
+		FFT2D.ifftReal(result, nrows);
 		
 		// find location at which the convolved result is maximum
 		double bestValue = Integer.MIN_VALUE;
-		int startx = 0; // result.length/2 - MAXU;
-		int starty = 0; // result[0].length/2 - MAXV;
-		int endx = result.length; // /2 + MAXU;
-		int endy = result[0].length; // /2 + MAXV;
+		int startx = 0; // result.getNumRows()/2 - MAXU;
+		int starty = 0; // result.getNumCols()/2 - MAXV;
+		int endx = result.getNumRows(); // /2 + MAXU;
+		int endy = result.getNumCols(); // /2 + MAXV;
 		for (int i=startx; i < endx; ++i) for (int j=starty; j < endy; ++j){
-			if ( result[i][j].normsq() > bestValue ){
-				bestValue = result[i][j].real;
+			if ( result.normsq(i,j) > bestValue ){
+				bestValue = result.getReal(i,j);
 				motNS = -i;
 				motEW = -j;
 			}
 		}
 		
 		// we don't want a 345-degree phase shift; we want it to be 15-degrees
-		if ( Math.abs(motNS) > result.length/2 ){
-			if (motNS < 0) motNS += result.length;
-			else motNS -= result.length;
+		if ( Math.abs(motNS) > result.getNumRows()/2 ){
+			if (motNS < 0) motNS += result.getNumRows();
+			else motNS -= result.getNumRows();
 		}
-		if ( Math.abs(motEW) > result[0].length/2 ){
-			if (motEW < 0) motEW += result[0].length;
-			else motEW -= result[0].length;
+		if ( Math.abs(motEW) > result.getNumCols()/2 ){
+			if (motEW < 0) motEW += result.getNumCols();
+			else motEW -= result.getNumCols();
 		}
 	}
 
@@ -0,0 +1,126 @@
+/**
+ *
+ */
+package edu.ou.asgbook.transforms;
+
+import edu.ou.asgbook.core.LatLonGrid;
+
+/**
+ * A grid of complex numbers held as interleaved (real, imaginary) pairs in
+ * a single row-major double[], so that a 2D FFT does not need an object per value.
+ * The value at (row,col) is at getData()[2*(row*getNumCols()+col)].
+ *
+ * @author valliappa.lakshmanan
+ *
+ */
+public class ComplexGrid {
+	private final int nrows;
+	private final int ncols;
+	private final double[] data;
+
+	/** All zero */
+	public ComplexGrid(int nrows, int ncols) {
+		this.nrows = nrows;
+		this.ncols = ncols;
+		this.data = new double[2 * nrows * ncols];
+	}
+
+	/**
+	 * The values of the grid, as real numbers, in the top-left corner of a
+	 * larger grid of zeros.  Missing values are not treated specially.
+	 */
+	public static ComplexGrid zeropad(LatLonGrid input, int nrows, int ncols){
+		ComplexGrid result = new ComplexGrid(nrows, ncols);
+		int[] row = new int[input.getNumLon()];
+		for (int i=0; i < input.getNumLat(); ++i){
+			input.getRowValues(i, row);
+			int k = 2*i*ncols;
+			for (int j=0; j < row.length; ++j, k += 2){
+				result.data[k] = row[j];
+			}
+		}
+		return result;
+	}
+
+	/** @see #zeropad(LatLonGrid, int, int) */
+	public static ComplexGrid zeropad(double[][] input, int nrows, int ncols){
+		ComplexGrid result = new ComplexGrid(nrows, ncols);
+		for (int i=0; i < input.length; ++i){
+			int k = 2*i*ncols;
+			for (int j=0; j < input[i].length; ++j, k += 2){
+				result.data[k] = input[i][j];
+			}
+		}
+		return result;
+	}
+
+	public int getNumRows() {
+		return nrows;
+	}
+
+	public int getNumCols() {
+		return ncols;
+	}
+
+	/** The underlying array; changes to it change the grid. */
+	public double[] getData() {
+		return data;
+	}
+
+	public double getReal(int row, int col){
+		return data[2*(row*ncols+col)];
+	}
+
+	public double getImag(int row, int col){
+		return data[2*(row*ncols+col) + 1];
+	}
+
+	public double normsq(int row, int col){
+		int k = 2*(row*ncols+col);
+		return data[k]*data[k] + data[k+1]*data[k+1];
+	}
+
+	public void set(int row, int col, double real, double imag){
+		int k = 2*(row*ncols+col);
+		data[k] = real;
+		data[k+1] = imag;
+	}
+
+	/** Multiplies every value of this grid by the conjugate of the corresponding value of the other grid. */
+	public void multiplyByConjugate(ComplexGrid other){
+		final double[] b = other.data;
+		for (int k=0; k < data.length; k += 2){
+			double re = data[k] * b[k] + data[k+1] * b[k+1];
+			double im = data[k+1] * b[k] - data[k] * b[k+1];
+			data[k] = re;
+			data[k+1] = im;
+		}
+	}
+
+	/** Divides every value by its magnitude, leaving only the phase.  Zeros remain zero. */
+	public void normalize(){
+		for (int k=0; k < data.length; k += 2){
+			double norm = Math.sqrt(data[k]*data[k] + data[k+1]*data[k+1]);
+			if (norm > 0){
+				data[k] /= norm;
+				data[k+1] /= norm;
+			}
+		}
+	}
+
+	/**
+	 * The real parts of the top-left corner, rounded off, in a grid shaped like the template.
+	 */
+	public LatLonGrid toLatLonGrid(LatLonGrid template){
+		LatLonGrid out = LatLonGrid.copyOf(template);
+		int[] row = new int[out.getNumLon()];
+		for (int i=0; i < out.getNumLat(); ++i){
+			int k = 2*i*ncols;
+			for (int j=0; j < row.length; ++j, k += 2){
+				row[j] = (int) Math.round(data[k]);
+			}
+			out.setRowValues(i, row);
+		}
+		return out;
+	}
+}
@@ -0,0 +1,276 @@
+/**
+ *
+ */
+package edu.ou.asgbook.transforms;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import Jama.Matrix;
+import Jama.SingularValueDecomposition;
+import edu.ou.asgbook.core.LatLon;
+import edu.ou.asgbook.core.LatLonGrid;
+import edu.ou.asgbook.dataset.GlobalPopulation;
+import edu.ou.asgbook.filters.ConvolutionFilter;
+import edu.ou.asgbook.filters.LocalSpatialFilter;
+import edu.ou.asgbook.filters.SeparableConvolutionFilter;
+import edu.ou.asgbook.io.KmlWriter;
+import edu.ou.asgbook.io.OutputDirectory;
+import edu.ou.asgbook.io.PngWriter;
+
+/**
+ * Convolves an image by a window, choosing whichever of direct convolution,
+ * separable convolution and FFT convolution is expected to be fastest.
+ * The window is separable if it has rank 1, i.e., if it is the outer product
+ * of a column and a row.  The expected time of each method is the number of
+ * operations it carries out times the time per operation, measured once by
+ * timing each method on a small grid.  The method chosen for each shape of
+ * grid and window is remembered.
+ *
+ * The result is that of ConvolutionFilter.convolve(): missing values
+ * contribute nothing and pixels within the half-size of the edge are missing.
+ * Because the methods add up the products in different orders, a few pixels
+ * may be off by one.
+ *
+ * @author valliappa.lakshmanan
+ *
+ */
+public class ConvolutionPlanner implements LocalSpatialFilter {
+	public enum Method {
+		DIRECT, SEPARABLE, FFT
+	}
+
+	private static final ConcurrentHashMap<String, Method> plans = new ConcurrentHashMap<String, Method>();
+
+	private final double[][] coeffs;
+	private final ConvolutionFilter direct;
+	private final SeparableConvolutionFilter separable;
+	private final FFTConvolutionFilter fft;
+
+	public ConvolutionPlanner(double[][] coeffs) {
+		this.coeffs = coeffs;
+		this.direct = new ConvolutionFilter(coeffs); // checks the dimensions
+		this.separable = factorize(coeffs);
+		this.fft = new FFTConvolutionFilter(coeffs, FFTConvolutionFilter.DEFAULT_TILE_SIZE);
+	}
+
+	/**
+	 * The coefficients as the outer product of two vectors, or null if the
+	 * coefficients are not of rank 1.
+	 */
+	private static SeparableConvolutionFilter factorize(double[][] coeffs){
+		final int nrows = coeffs.length;
+		final int ncols = coeffs[0].length;
+		// the decomposition needs at least as many rows as columns
+		boolean transpose = (nrows < ncols);
+		Matrix m = new Matrix(coeffs);
+		SingularValueDecomposition svd = (transpose? m.transpose() : m).svd();
+		double[] s = svd.getSingularValues();
+		if (s[0] <= 0 || (s.length > 1 && s[1] > 1.0e-9 * s[0])){
+			return null;
+		}
+		Matrix u = transpose? svd.getV() : svd.getU();
+		Matrix v = transpose? svd.getU() : svd.getV();
+		double scale = Math.sqrt(s[0]);
+		double[] cx = new double[nrows];
+		double[] cy = new double[ncols];
+		for (int i=0; i < nrows; ++i){
+			cx[i] = scale * u.get(i, 0);
+		}
+		for (int j=0; j < ncols; ++j){
+			cy[j] = scale * v.get(j, 0);
+		}
+		return new SeparableConvolutionFilter(cx, cy);
+	}
+
+	public boolean isSeparable(){
+		return separable != null;
+	}
+
+	/**
+	 * The method that will be used to convolve a grid of this size.
+	 */
+	public Method getMethod(int nrows, int ncols){
+		final int krows = coeffs.length;
+		final int kcols = coeffs[0].length;
+		String shape = nrows + "x" + ncols + ":" + krows + "x" + kcols + (isSeparable()? ":sep" : "");
+		Method method = plans.get(shape);
+		if (method == null){
+			method = Method.DIRECT;
+			double best = Calibration.DIRECT * getDirectCost(nrows, ncols, krows, kcols);
+			if (isSeparable()){
+				double cost = Calibration.SEPARABLE * getSeparableCost(nrows, ncols, krows, kcols);
+				if (cost < best){
+					method = Method.SEPARABLE;
+					best = cost;
+				}
+			}
+			if (nrows > krows && ncols > kcols){
+				double cost = Calibration.FFT * FFTConvolutionFilter.getCost(nrows, ncols, krows, kcols, FFTConvolutionFilter.DEFAULT_TILE_SIZE);
+				if (cost < best){
+					method = Method.FFT;
+					best = cost;
+				}
+			}
+			plans.put(shape, method);
+		}
+		return method;
+	}
+
+	private static double getDirectCost(int nrows, int ncols, int krows, int kcols){
+		return (double) Math.max(0, nrows - krows + 1) * Math.max(0, ncols - kcols + 1) * krows * kcols;
+	}
+
+	private static double getSeparableCost(int nrows, int ncols, int krows, int kcols){
+		return (double) nrows * ncols * (krows + kcols + 1);
+	}
+
+	public LatLonGrid convolve(LatLonGrid input){
+		switch (getMethod(input.getNumLat(), input.getNumLon())){
+		case SEPARABLE:
+			return separable.convolve(input);
+		case FFT:
+			return convolveByFFT(fft, input);
+		default:
+			return direct.convolve(input);
+		}
+	}
+
+	/**
+	 * The FFT convolution does not skip missing values and places the result
+	 * at the top-left of the window rather than at its center.
+	 */
+	private static LatLonGrid convolveByFFT(FFTConvolutionFilter fft, LatLonGrid input){
+		final int hx = fft.getFilterNumRows() / 2;
+		final int hy = fft.getFilterNumCols() / 2;
+		final int nx = input.getNumLat();
+		final int ny = input.getNumLon();
+		LatLonGrid zeroed = LatLonGrid.copyOf(input);
+		zeroed.replace(input.getMissing(), 0);
+		LatLonGrid result = fft.convolve(zeroed);
+
+		LatLonGrid output = LatLonGrid.copyOf(input);
+		output.fill(output.getMissing());
+		int[] in = new int[ny];
+		int[] out = new int[ny];
+		for (int i=hx; i < (nx-hx); ++i){
+			result.getRowValues(i-hx, in);
+			output.getRowValues(i, out);
+			System.arraycopy(in, 0, out, hy, ny - 2*hy);
+			output.setRowValues(i, out);
+		}
+		return output;
+	}
+
+	@Override
+	public int getHaloRows() {
+		return coeffs.length / 2;
+	}
+
+	@Override
+	public int getHaloCols() {
+		return coeffs[0].length / 2;
+	}
+
+	@Override
+	public LatLonGrid filter(LatLonGrid input) {
+		return convolve(input);
+	}
+
+	/**
+	 * Time per operation of each method, measured the first time a plan is made.
+	 */
+	private static class Calibration {
+		static final double DIRECT, SEPARABLE, FFT;
+		static {
+			final int size = 128;
+			final int ksize = 9;
+			int[][] data = new int[size][size];
+			Random random = new Random(0);
+			for (int i=0; i < size; ++i){
+				for (int j=0; j < size; ++j){
+					data[i][j] = random.nextInt(1000);
+				}
+			}
+			final LatLonGrid grid = new LatLonGrid(data, -1, new LatLon(0, 0), 0.01, 0.01);
+			double[][] coeffs = ConvolutionFilter.gauss(ksize, ksize);
+			final ConvolutionFilter direct = new ConvolutionFilter(coeffs);
+			final SeparableConvolutionFilter separable = SeparableConvolutionFilter.gauss(ksize, ksize);
+			final FFTConvolutionFilter fft = new FFTConvolutionFilter(coeffs, FFTConvolutionFilter.DEFAULT_TILE_SIZE);
+
+			double directTime = time(new Runnable(){
+				@Override
+				public void run() {
+					direct.convolve(grid);
+				}
+			});
+			double separableTime = time(new Runnable(){
+				@Override
+				public void run() {
+					separable.convolve(grid);
+				}
+			});
+			double fftTime = time(new Runnable(){
+				@Override
+				public void run() {
+					convolveByFFT(fft, grid);
+				}
+			});
+			DIRECT = directTime / getDirectCost(size, size, ksize, ksize);
+			SEPARABLE = separableTime / getSeparableCost(size, size, ksize, ksize);
+			FFT = fftTime / FFTConvolutionFilter.getCost(size, size, ksize, ksize, FFTConvolutionFilter.DEFAULT_TILE_SIZE);
+		}
+
+		/** shortest of several runs, after warming up */
+		private static double time(Runnable task){
+			for (int i=0; i < 10; ++i){
+				task.run();
+			}
+			long best = Long.MAX_VALUE;
+			for (int i=0; i < 5; ++i){
+				long start = System.nanoTime();
+				task.run();
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			return best;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		// create output directory
+		File out = OutputDirectory.getDefault("convplanner");
+
+		// read input
+		LatLonGrid popdensity = GlobalPopulation.read(GlobalPopulation.NORTHAMERICA, new GlobalPopulation.LogScaling()).crop(600, 2000, 512, 512);
+
+		for (int size=3; size <= 81; size *= 3){
+			// a separable Gaussian and a non-separable difference of Gaussians
+			double[][] gauss = ConvolutionFilter.gauss(size, size);
+			double[][] dog = ConvolutionFilter.gauss(size, size, size/4.0, size/4.0);
+			for (int i=0; i < size; ++i){
+				for (int j=0; j < size; ++j){
+					dog[i][j] -= gauss[i][j];
+				}
+			}
+			for (double[][] coeffs : new double[][][]{ gauss, dog }){
+				String name = (coeffs == gauss? "gauss" : "dog") + size;
+				long start = System.currentTimeMillis();
+				ConvolutionPlanner planner = new ConvolutionPlanner(coeffs);
+				LatLonGrid a = planner.convolve(popdensity);
+				long mid = System.currentTimeMillis();
+				LatLonGrid b = new ConvolutionFilter(coeffs).convolve(popdensity);
+				long end = System.currentTimeMillis();
+				int numdiff = 0;
+				for (int i=0; i < a.getNumLat(); ++i) for (int j=0; j < a.getNumLon(); ++j){
+					if (a.getValue(i,j) != b.getValue(i,j)){
+						++numdiff;
+					}
+				}
+				System.out.println(name + ": " + planner.getMethod(popdensity.getNumLat(), popdensity.getNumLon())
+						+ " took " + (mid-start) + " ms; direct convolution " + (end-mid) + " ms; " + numdiff + " pixels differ");
+				KmlWriter.write(a, out, name, PngWriter.createCoolToWarmColormap());
+			}
+		}
+	}
+}
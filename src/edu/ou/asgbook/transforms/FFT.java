@@ -7,7 +7,9 @@ import java.text.DecimalFormat;
 
 
 /**
- * FFT based on Sedgewick and Wayne
+ * FFT of arrays of Complex numbers.  The transform itself is carried out
+ * by an FFTPlan; use that directly, with ComplexGrid for 2D data, to avoid
+ * creating an object per value.
  * 
  * @author v.lakshmanan
  * 
@@ -52,56 +54,33 @@ public class FFT {
 	
 	/** Computes FFT of array whose length is a power of 2 */
 	public static Complex[] fft(Complex[] x) {
-		int N = x.length;
-
-		if (N == 1){
-			return new Complex[] { x[0] };
-		} else if (N % 2 != 0) {
-			throw new IllegalArgumentException("N is not a power of 2");
-		}
-
-		// Break the array down into two parts and perform FFT of each piece
-		Complex[] part = new Complex[N / 2];
-		for (int k = 0; k < N / 2; k++) {
-			part[k] = x[2 * k]; // even terms
-		}
-		Complex[] evenfft = fft(part);
-		for (int k = 0; k < N / 2; k++) {
-			part[k] = x[2 * k + 1]; // odd terms
-		}
-		Complex[] oddfft = fft(part);
-
-		// combine
-		Complex[] y = new Complex[N];
-		for (int k = 0; k < N / 2; k++) {
-			double kth = -2 * k * Math.PI / N;
-			Complex wk = new Complex(Math.cos(kth), Math.sin(kth));
-			y[k] = evenfft[k].add(wk.multiply(oddfft[k]));
-			y[k + N / 2] = evenfft[k].subtract(wk.multiply(oddfft[k]));
-		}
-		return y;
+		double[] a = toArray(x);
+		FFTPlan.getInstance(x.length).forward(a, 0);
+		return toComplex(a);
 	}
 
 	/** compute inverse FFT of array whose length is a power of 2 */
 	public static Complex[] ifft(Complex[] x) {
-		int N = x.length;
+		double[] a = toArray(x);
+		FFTPlan.getInstance(x.length).inverse(a, 0);
+		return toComplex(a);
+	}
 
-		// Conjugate x
-		Complex[] y = new Complex[N];
-		for (int i = 0; i < N; i++) {
-			y[i] = x[i].conjugate();
+	private static double[] toArray(Complex[] x) {
+		double[] a = new double[2 * x.length];
+		for (int i = 0; i < x.length; i++) {
+			a[2 * i] = x[i].real;
+			a[2 * i + 1] = x[i].imag;
 		}
+		return a;
+	}
 
-		// compute forward FFT
-		y = fft(y);
-
-		// Conjugate result and divide by N
-		for (int i = 0; i < N; i++) {
-			y[i] = y[i].conjugate().divide(N);
+	private static Complex[] toComplex(double[] a) {
+		Complex[] y = new Complex[a.length / 2];
+		for (int i = 0; i < y.length; i++) {
+			y[i] = new Complex(a[2 * i], a[2 * i + 1]);
 		}
-
 		return y;
-
 	}
 
 	public static void main(String[] args){
@@ -1,6 +1,12 @@
 package edu.ou.asgbook.transforms;
 
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import edu.ou.asgbook.core.LatLonGrid;
 import edu.ou.asgbook.transforms.FFT.Complex;
@@ -99,6 +105,261 @@ public class FFT2D {
 		return result;
 	}
 
+	/** Number of columns that are transformed together; see transformColumns */
+	private static final int STRIP_WIDTH = 16;
+	/** Enough complex numbers to make it worthwhile to hand a task to another thread */
+	private static final int MIN_TASK_SIZE = 1 << 15;
+
+	/**
+	 * Forward FFT of the grid, in place.  Rows, and then columns, are
+	 * transformed in parallel on the common fork-join pool.
+	 */
+	public static void fft(ComplexGrid grid){
+		final int ncols = grid.getNumCols();
+		final double[] a = grid.getData();
+		final FFTPlan rowPlan = FFTPlan.getInstance(ncols);
+		forEachRange(grid.getNumRows(), ncols, new RangeTask(){
+			@Override
+			public void run(int start, int end) {
+				for (int i=start; i < end; ++i){
+					rowPlan.forward(a, 2*i*ncols);
+				}
+			}
+		});
+		transformColumns(grid, true);
+	}
+
+	/**
+	 * Inverse FFT of the grid, in place.
+	 */
+	public static void ifft(ComplexGrid grid){
+		final int ncols = grid.getNumCols();
+		final double[] a = grid.getData();
+		transformColumns(grid, false);
+		final FFTPlan rowPlan = FFTPlan.getInstance(ncols);
+		forEachRange(grid.getNumRows(), ncols, new RangeTask(){
+			@Override
+			public void run(int start, int end) {
+				for (int i=start; i < end; ++i){
+					rowPlan.inverse(a, 2*i*ncols);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Forward FFT, in place, of a grid whose values are all real and whose rows
+	 * from numRows onwards are all zero (such as a zero-padded LatLonGrid).
+	 * Pairs of real rows are transformed together as the real and imaginary
+	 * parts of one complex row and then separated using the symmetry of the FFT
+	 * of real data; the rows of zeros are not transformed at all.
+	 */
+	public static void fftReal(ComplexGrid grid, int numRows){
+		final int ncols = grid.getNumCols();
+		final int nrows = Math.min(numRows, grid.getNumRows());
+		final double[] a = grid.getData();
+		final FFTPlan rowPlan = FFTPlan.getInstance(ncols);
+		forEachRange((nrows+1)/2, 2*ncols, new RangeTask(){
+			@Override
+			public void run(int start, int end) {
+				for (int i=2*start; i < 2*end && i < nrows; i += 2){
+					if (i+1 < nrows){
+						forwardRealPair(a, 2*i*ncols, ncols, rowPlan);
+					} else {
+						rowPlan.forward(a, 2*i*ncols);
+					}
+				}
+			}
+		});
+		transformColumns(grid, true);
+	}
+
+	/**
+	 * Forward FFT of the real rows that start at a[off] and the next row.
+	 */
+	private static void forwardRealPair(double[] a, int off, int ncols, FFTPlan rowPlan){
+		// the second row becomes the imaginary part of the first
+		final int off2 = off + 2*ncols;
+		for (int j=0; j < ncols; ++j){
+			a[off + 2*j + 1] = a[off2 + 2*j];
+		}
+		rowPlan.forward(a, off);
+		// X[k] = (Z[k] + conj(Z[N-k]))/2 and Y[k] = (Z[k] - conj(Z[N-k]))/2i
+		for (int k=0; k <= ncols/2; ++k){
+			final int m = (ncols - k) % ncols;
+			final double zr = a[off + 2*k], zi = a[off + 2*k + 1];
+			final double mr = a[off + 2*m], mi = a[off + 2*m + 1];
+			a[off + 2*k] = (zr + mr)/2;
+			a[off + 2*k + 1] = (zi - mi)/2;
+			a[off2 + 2*k] = (zi + mi)/2;
+			a[off2 + 2*k + 1] = (mr - zr)/2;
+			if (m != k){
+				a[off + 2*m] = (mr + zr)/2;
+				a[off + 2*m + 1] = (mi - zi)/2;
+				a[off2 + 2*m] = (mi + zi)/2;
+				a[off2 + 2*m + 1] = (zr - mr)/2;
+			}
+		}
+	}
+
+	/**
+	 * Inverse FFT, in place, of a grid whose inverse is known to be real, such
+	 * as the product of the FFTs of two real grids.  Only the first numRows
+	 * rows of the result are computed, and they are left in the real parts.
+	 * Pairs of rows are inverted together as one complex row.
+	 */
+	public static void ifftReal(ComplexGrid grid, int numRows){
+		final int ncols = grid.getNumCols();
+		final int nrows = Math.min(numRows, grid.getNumRows());
+		final double[] a = grid.getData();
+		transformColumns(grid, false);
+		final FFTPlan rowPlan = FFTPlan.getInstance(ncols);
+		forEachRange((nrows+1)/2, 2*ncols, new RangeTask(){
+			@Override
+			public void run(int start, int end) {
+				for (int i=2*start; i < 2*end && i < nrows; i += 2){
+					if (i+1 < nrows){
+						inverseRealPair(a, 2*i*ncols, ncols, rowPlan);
+					} else {
+						rowPlan.inverse(a, 2*i*ncols);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Inverse FFT of the row that starts at a[off] and the next row, both of whose inverses are real.
+	 */
+	private static void inverseRealPair(double[] a, int off, int ncols, FFTPlan rowPlan){
+		// Z = X + iY, whose inverse is x + iy because x and y are real
+		final int off2 = off + 2*ncols;
+		for (int j=0; j < ncols; ++j){
+			final int p = off + 2*j;
+			final int q = off2 + 2*j;
+			a[p] -= a[q+1];
+			a[p+1] += a[q];
+		}
+		rowPlan.inverse(a, off);
+		for (int j=0; j < ncols; ++j){
+			a[off2 + 2*j] = a[off + 2*j + 1];
+			a[off2 + 2*j + 1] = 0;
+			a[off + 2*j + 1] = 0;
+		}
+	}
+
+	/**
+	 * FFT of every column.  Rather than gather one column at a time, which
+	 * touches a different cache line for every value, strips of columns are
+	 * transposed into a contiguous buffer, transformed, and transposed back,
+	 * so that every cache line that is read is used for a whole strip.
+	 * Strips are transformed in parallel.
+	 */
+	private static void transformColumns(ComplexGrid grid, final boolean forward){
+		final int nrows = grid.getNumRows();
+		final int ncols = grid.getNumCols();
+		final double[] a = grid.getData();
+		final FFTPlan colPlan = FFTPlan.getInstance(nrows);
+		final int numStrips = (ncols + STRIP_WIDTH - 1) / STRIP_WIDTH;
+		forEachRange(numStrips, STRIP_WIDTH * nrows, new RangeTask(){
+			@Override
+			public void run(int start, int end) {
+				double[] buf = new double[2 * STRIP_WIDTH * nrows];
+				for (int strip=start; strip < end; ++strip){
+					final int c0 = strip * STRIP_WIDTH;
+					final int width = Math.min(STRIP_WIDTH, ncols - c0);
+					for (int i=0; i < nrows; ++i){
+						final int k = 2*(i*ncols + c0);
+						for (int b=0; b < width; ++b){
+							buf[2*(b*nrows + i)] = a[k + 2*b];
+							buf[2*(b*nrows + i) + 1] = a[k + 2*b + 1];
+						}
+					}
+					for (int b=0; b < width; ++b){
+						if (forward){
+							colPlan.forward(buf, 2*b*nrows);
+						} else {
+							colPlan.inverse(buf, 2*b*nrows);
+						}
+					}
+					for (int i=0; i < nrows; ++i){
+						final int k = 2*(i*ncols + c0);
+						for (int b=0; b < width; ++b){
+							a[k + 2*b] = buf[2*(b*nrows + i)];
+							a[k + 2*b + 1] = buf[2*(b*nrows + i) + 1];
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/** Work on the items in [start,end) of some range */
+	private interface RangeTask {
+		void run(int start, int end);
+	}
+
+	/**
+	 * Splits the range [0,count) among tasks on the common fork-join pool.
+	 * @param itemSize number of complex values in each item, used to avoid
+	 *   creating tasks too small to be worth sending to another thread
+	 */
+	private static void forEachRange(final int count, int itemSize, final RangeTask body){
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		final int maxTasks = (int) Math.min(4 * pool.getParallelism(), ((long) count * itemSize) / MIN_TASK_SIZE);
+		if (maxTasks <= 1){
+			body.run(0, count);
+			return;
+		}
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		final int numTasks = Math.min(maxTasks, count);
+		for (int t=0; t < numTasks; ++t){
+			final int start = (int) ((long) count * t / numTasks);
+			final int end = (int) ((long) count * (t+1) / numTasks);
+			tasks.add(new Callable<Void>(){
+				@Override
+				public Void call() {
+					body.run(start, end);
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Void> result : pool.invokeAll(tasks)){
+				result.get();
+			}
+		} catch (InterruptedException e){
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e){
+			if (e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * The size to which a dimension of n pixels is padded for the FFT: the
+	 * size, no smaller than n and no larger than the next power of 2, whose
+	 * transform is estimated to be the fastest.  Such sizes have no prime factors
+	 * other than 2, 3, 5 and 7, so they are never much larger than n.
+	 */
+	public static int getPaddedSize(int n) {
+		final int maxSize = getNextPowerOf2(n);
+		int best = maxSize;
+		double bestCost = FFTPlan.getCost(best);
+		for (int m = n; m < maxSize; ++m){
+			if (FFTPlan.isSmooth(m)){
+				double cost = FFTPlan.getCost(m);
+				if (cost < bestCost){
+					best = m;
+					bestCost = cost;
+				}
+			}
+		}
+		return best;
+	}
+
 	private static int getNextPowerOf2(int n) {
 		return (int) Math.round( Math.pow(2, Math.ceil(Math.log(n) / Math.log(2))) );
 	}
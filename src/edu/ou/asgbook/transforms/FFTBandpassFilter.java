@@ -8,7 +8,6 @@ import edu.ou.asgbook.filters.SpatialFilter;
 import edu.ou.asgbook.io.KmlWriter;
 import edu.ou.asgbook.io.OutputDirectory;
 import edu.ou.asgbook.io.PngWriter;
-import edu.ou.asgbook.transforms.FFT.Complex;
 
 /**
  * Removes noise (high frequencies) and the gross signal (low frequencies).
@@ -33,38 +32,33 @@ public class FFTBandpassFilter extends FFT2D implements SpatialFilter {
 	}
 	
 	public LatLonGrid convolve(LatLonGrid data){
-		Complex[][] in1 = zeropad(data);
-		final int nrows = in1.length;
-		final int ncols = in1[0].length;
+		final int nrows = getPaddedSize(data.getNumLat());
+		final int ncols = getPaddedSize(data.getNumLon());
+		ComplexGrid in1 = ComplexGrid.zeropad(data, nrows, ncols);
 
 		// compute the fft
-		in1 = fft(in1);
+		fftReal(in1, data.getNumLat());
 		
 		// the fft is arranged in quadrants, so we need to be careful
 		// to remove the corresponding data in all the quadrants
-		Complex zero = new Complex(0,0);
 		double diag = Math.sqrt(nrows*nrows+ncols*ncols)/4;
 		for (int i=0; i < nrows/2; ++i){
 			for (int j=0; j < ncols/2; ++j){
 				double r = Math.sqrt(i*i + j*j)/diag;
 				if (r < minr || r > maxr){
-					in1[i][j] = zero; // 1st quadrant
-					in1[nrows-i-1][j] = zero; // 3rd quadrant
-					in1[i][ncols-j-1] = zero; // 2nd quandrant
-					in1[nrows-i-1][ncols-i-1] = zero; // 4th quadrant
+					in1.set(i, j, 0, 0); // 1st quadrant
+					in1.set(nrows-i-1, j, 0, 0); // 3rd quadrant
+					in1.set(i, ncols-j-1, 0, 0); // 2nd quandrant
+					in1.set(nrows-i-1, ncols-j-1, 0, 0); // 4th quadrant
 				}
 			}
 		}
 		
 		// take ifft
-		Complex[][] result = ifft(in1);
+		ifft(in1);
 		
 		// return real part, rounded off
-		LatLonGrid out = LatLonGrid.copyOf(data);
-		for (int i=0; i < out.getNumLat(); ++i) for (int j=0; j < out.getNumLon(); ++j){
-			out.setValue(i,j, (int)Math.round(result[i][j].real));
-		}
-		return out;
+		return in1.toLatLonGrid(data);
 	}
 	
 	public static void main(String[] args) throws Exception {
@@ -1,6 +1,13 @@
 package edu.ou.asgbook.transforms;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import edu.ou.asgbook.core.LatLonGrid;
 import edu.ou.asgbook.dataset.GlobalPopulation;
@@ -9,44 +16,184 @@ import edu.ou.asgbook.filters.SpatialFilter;
 import edu.ou.asgbook.io.KmlWriter;
 import edu.ou.asgbook.io.OutputDirectory;
 import edu.ou.asgbook.io.PngWriter;
-import edu.ou.asgbook.transforms.FFT.Complex;
 
 /**
  * An optimization for convolution using FFTs.
  * 
+ * If a tile size is specified, grids larger than a tile are convolved tile by
+ * tile (overlap-save): each tile of the output needs only the input
+ * under it plus a border the size of the kernel, so the working memory of
+ * each task is bounded by the tile size rather than by the size of the grid,
+ * and bands of tiles are convolved in parallel.  The output grid itself is
+ * as large as the input.  The spectrum of the kernel is computed only once per
+ * FFT size.
+ * 
  * @author valliappa.lakshmanan
  *
  */
 public class FFTConvolutionFilter extends FFT2D implements SpatialFilter {
+	public static final int DEFAULT_TILE_SIZE = 512;
 	private double[][] coeffs;
+	private final int tileSize;
+	private ComplexGrid kernelSpectrum;
 	
+	/**
+	 * Convolves the whole grid at once.
+	 */
 	public FFTConvolutionFilter(double[][] coeffs){
+		this(coeffs, 0);
+	}
+	
+	/**
+	 * @param tileSize the number of rows and columns of output computed by each FFT; 0 to convolve the whole grid at once
+	 */
+	public FFTConvolutionFilter(double[][] coeffs, int tileSize){
 		this.coeffs = coeffs;
+		this.tileSize = tileSize;
+	}
+	
+	public int getFilterNumRows(){
+		return coeffs.length;
+	}
+	
+	public int getFilterNumCols(){
+		return coeffs[0].length;
 	}
 	
 	public LatLonGrid convolve(LatLonGrid data){
-		Complex[][] in1 = zeropad(data);
-		int nrows = in1.length;
-		int ncols = in1[0].length;
-		Complex[][] in2 = zeropad(coeffs, nrows, ncols );
+		if (tileSize > 0 && (data.getNumLat() > tileSize || data.getNumLon() > tileSize)){
+			return convolveInTiles(data);
+		}
 		
-		// compute their ffts
-		in1 = fft(in1);
-		in2 = fft(in2);
+		// pad enough that the convolution does not wrap around
+		final int nrows = getPaddedSize(data.getNumLat() + coeffs.length - 1);
+		final int ncols = getPaddedSize(data.getNumLon() + coeffs[0].length - 1);
+		ComplexGrid in1 = ComplexGrid.zeropad(data, nrows, ncols);
+		
+		// compute its fft
+		fftReal(in1, data.getNumLat());
 		
 		// multiply point by point (this by the conjugate of other)
-		for (int i=0; i < nrows; ++i) for (int j=0; j < ncols; ++j){
-			in1[i][j] = in1[i][j].multiply(in2[i][j].conjugate());
-		}
-		// take ifft
-		Complex[][] result = ifft(in1);
+		in1.multiplyByConjugate(getKernelSpectrum(nrows, ncols));
+		
+		// take ifft; the result is real
+		ifftReal(in1, data.getNumLat());
 		
 		// return real part, rounded off
-		LatLonGrid out = LatLonGrid.copyOf(data);
-		for (int i=0; i < out.getNumLat(); ++i) for (int j=0; j < out.getNumLon(); ++j){
-			out.setValue(i,j, (int)Math.round(result[i][j].real));
+		return in1.toLatLonGrid(data);
+	}
+	
+	/**
+	 * Convolves the grid in bands of tileSize rows, each band a tile at a time.
+	 * The result is the same as that of convolving the whole grid at once
+	 * except for round-off, and is always a flat grid.
+	 */
+	public LatLonGrid convolveInTiles(final LatLonGrid data){
+		final int nrows = data.getNumLat();
+		final int ncols = data.getNumLon();
+		final int krows = coeffs.length;
+		final int kcols = coeffs[0].length;
+		
+		// each FFT yields as many rows and columns of output as fit without wrapping around
+		final int fftrows = getPaddedSize(Math.min(tileSize, nrows) + krows - 1);
+		final int fftcols = getPaddedSize(Math.min(tileSize, ncols) + kcols - 1);
+		final int outrows = fftrows - krows + 1;
+		final int outcols = fftcols - kcols + 1;
+		final ComplexGrid kernel = getKernelSpectrum(fftrows, fftcols);
+		final int[] result = new int[nrows * ncols];
+		
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int r=0; r < nrows; r += outrows){
+			final int r0 = r;
+			tasks.add(new Callable<Void>(){
+				@Override
+				public Void call() {
+					// the rows of input needed by this band of output
+					final int numout = Math.min(outrows, nrows - r0);
+					final int numin = Math.min(nrows - r0, numout + krows - 1);
+					int[] inRow = new int[Math.min(ncols, outcols + kcols - 1)];
+					ComplexGrid tile = new ComplexGrid(fftrows, fftcols);
+					double[] a = tile.getData();
+					for (int c0=0; c0 < ncols; c0 += outcols){
+						final int numoutcols = Math.min(outcols, ncols - c0);
+						final int numincols = Math.min(ncols - c0, numoutcols + kcols - 1);
+						Arrays.fill(a, 0);
+						for (int i=0; i < numin; ++i){
+							// only the columns under this tile
+							data.getRowValues(r0 + i, c0, numincols, inRow);
+							for (int j=0, k=2*i*fftcols; j < numincols; ++j, k += 2){
+								a[k] = inRow[j];
+							}
+						}
+						fftReal(tile, numin);
+						tile.multiplyByConjugate(kernel);
+						ifftReal(tile, numout);
+						for (int i=0; i < numout; ++i){
+							int off = (r0 + i)*ncols + c0;
+							for (int j=0, k=2*i*fftcols; j < numoutcols; ++j, k += 2){
+								result[off + j] = (int) Math.round(a[k]);
+							}
+						}
+					}
+					return null;
+				}
+			});
+		}
+		invokeAll(tasks);
+		
+		return new LatLonGrid(result, nrows, ncols, data.getMissing(),
+				data.getNwCorner(), data.getLatRes(), data.getLonRes());
+	}
+	
+	/**
+	 * Relative number of operations, in the units of FFTPlan.getCost(), to
+	 * convolve an nrows x ncols grid by a krows x kcols kernel whose spectrum has already been computed.
+	 */
+	public static double getCost(int nrows, int ncols, int krows, int kcols, int tileSize){
+		int fftrows, fftcols, numtiles;
+		if (tileSize > 0 && (nrows > tileSize || ncols > tileSize)){
+			fftrows = getPaddedSize(Math.min(tileSize, nrows) + krows - 1);
+			fftcols = getPaddedSize(Math.min(tileSize, ncols) + kcols - 1);
+			int rowtiles = (nrows + fftrows - krows) / (fftrows - krows + 1);
+			int coltiles = (ncols + fftcols - kcols) / (fftcols - kcols + 1);
+			numtiles = rowtiles * coltiles;
+		} else {
+			fftrows = getPaddedSize(nrows + krows - 1);
+			fftcols = getPaddedSize(ncols + kcols - 1);
+			numtiles = 1;
+		}
+		// forward and inverse transforms plus the point-by-point multiply
+		double perTile = 2 * ((double) fftcols * FFTPlan.getCost(fftrows) + (double) fftrows * FFTPlan.getCost(fftcols))
+				+ 4.0 * fftrows * fftcols;
+		return numtiles * perTile;
+	}
+	
+	/**
+	 * The FFT of the kernel, zero-padded to the given size.  Kept for the next
+	 * call since a filter is usually applied to many grids or tiles of the same size.
+	 */
+	private synchronized ComplexGrid getKernelSpectrum(int nrows, int ncols){
+		if (kernelSpectrum == null || kernelSpectrum.getNumRows() != nrows || kernelSpectrum.getNumCols() != ncols){
+			ComplexGrid spectrum = ComplexGrid.zeropad(coeffs, nrows, ncols);
+			fftReal(spectrum, coeffs.length);
+			kernelSpectrum = spectrum;
+		}
+		return kernelSpectrum;
+	}
+	
+	private static void invokeAll(List<Callable<Void>> tasks) {
+		try {
+			for (Future<Void> result : ForkJoinPool.commonPool().invokeAll(tasks)){
+				result.get();
+			}
+		} catch (InterruptedException e){
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e){
+			if (e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
 		}
-		return out;
 	}
 	
 	@Override
@@ -76,6 +223,23 @@ public class FFTConvolutionFilter extends FFT2D implements SpatialFilter {
 		
 		double improvement = 100*((double)(spatialtime - ffttime))/spatialtime;
 		System.out.println("The FFT technique took " + ffttime + "ms whereas the spatial technique took " + spatialtime + " ms. FFT is " + improvement + "% faster");
+		
+		// tile by tile, on the whole continent
+		LatLonGrid continent = GlobalPopulation.read(GlobalPopulation.NORTHAMERICA, new GlobalPopulation.LogScaling());
+		timer = System.currentTimeMillis();
+		LatLonGrid whole = new FFTConvolutionFilter(coeffs).convolve(continent);
+		long wholetime = System.currentTimeMillis() - timer;
+		timer = System.currentTimeMillis();
+		LatLonGrid tiled = new FFTConvolutionFilter(coeffs, DEFAULT_TILE_SIZE).convolve(continent);
+		long tiledtime = System.currentTimeMillis() - timer;
+		int numdiff = 0;
+		for (int i=0; i < whole.getNumLat(); ++i) for (int j=0; j < whole.getNumLon(); ++j){
+			if (whole.getValue(i,j) != tiled.getValue(i,j)){
+				++numdiff;
+			}
+		}
+		System.out.println("On the " + continent.getNumLat() + "x" + continent.getNumLon() + " grid, the whole-grid FFT took " + wholetime + " ms and the tiled FFT " + tiledtime + " ms; " + numdiff + " pixels differ");
+		KmlWriter.write(tiled, out, "fftgauss_tiled", PngWriter.createCoolToWarmColormap());
 	}
 
 }
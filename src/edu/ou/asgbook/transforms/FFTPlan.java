@@ -0,0 +1,507 @@
+/**
+ *
+ */
+package edu.ou.asgbook.transforms;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An FFT of a fixed length that works in place on complex numbers stored as
+ * interleaved (real, imaginary) pairs in a double[].  The permutations and
+ * twiddle factors are computed once when the plan is created, and plans are
+ * cached by length, so that repeated transforms of the same length (such as
+ * the rows of a grid) do no trigonometry and allocate nothing.
+ *
+ * Powers of 2 use an in-place radix-2 algorithm.  Lengths whose only prime
+ * factors are 2, 3, 5 and 7 use a mixed-radix Stockham algorithm, which
+ * needs a scratch array but no permutation.  Any other length is computed,
+ * using Bluestein's method, as a convolution of power-of-2 length.
+ *
+ * @author v.lakshmanan
+ *
+ */
+public final class FFTPlan {
+	private static final ConcurrentHashMap<Integer, FFTPlan> plans = new ConcurrentHashMap<Integer, FFTPlan>();
+	private static final int[] RADICES = { 4, 2, 3, 5, 7 };
+	// relative time per element of a pass of each radix
+	private static final double[] PASS_COST = { 0, 0, 2.5, 3, 4, 4.5, 0, 10 };
+
+	private final int n;
+
+	// powers of 2
+	private final int[] bitrev;
+
+	// mixed radix
+	private final int[] factors;
+
+	// twiddle factors: n/2 of them for powers of 2, n for mixed radix
+	private final double[] cos;
+	private final double[] sin;
+
+	// Bluestein
+	private final FFTPlan convPlan;
+	private final double[] chirp;
+	private final double[] chirpFFT;
+
+	private final ThreadLocal<double[]> scratch;
+
+	/**
+	 * Returns the cached plan for transforms of length n, creating it if necessary.
+	 */
+	public static FFTPlan getInstance(int n){
+		FFTPlan plan = plans.get(n);
+		if (plan == null){
+			plan = new FFTPlan(n);
+			FFTPlan existing = plans.putIfAbsent(n, plan);
+			if (existing != null){
+				plan = existing;
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * Whether the length has no prime factors other than 2, 3, 5 and 7,
+	 * so that it can be transformed without Bluestein's method.
+	 */
+	public static boolean isSmooth(int n){
+		if (n < 1){
+			return false;
+		}
+		for (int p = 2; p <= 7; ++p){
+			while (n % p == 0){
+				n /= p;
+			}
+		}
+		return n == 1;
+	}
+
+	/**
+	 * Estimated time, in arbitrary units, of a transform of length n.  This is
+	 * n times the cost per element of each pass, as measured for each radix.
+	 */
+	public static double getCost(int n){
+		if ((n & (n-1)) == 0){
+			return n * 1.9 * Integer.numberOfTrailingZeros(n);
+		}
+		if (!isSmooth(n)){
+			int m = Integer.highestOneBit(2*n - 1) * 2;
+			return 2 * getCost(m) + 4 * n;
+		}
+		double perElement = 0;
+		int rest = n;
+		for (int p : RADICES){
+			while (rest % p == 0){
+				perElement += PASS_COST[p];
+				rest /= p;
+			}
+		}
+		return n * perElement;
+	}
+	private FFTPlan(int n) {
+		if (n < 1){
+			throw new IllegalArgumentException("FFT length has to be positive: " + n);
+		}
+		this.n = n;
+		if ((n & (n-1)) == 0){
+			this.bitrev = new int[n];
+			int bits = Integer.numberOfTrailingZeros(n);
+			for (int i=0; i < n; ++i){
+				bitrev[i] = (bits == 0)? 0 : Integer.reverse(i) >>> (32 - bits);
+			}
+			this.factors = null;
+			this.cos = new double[n/2];
+			this.sin = new double[n/2];
+			this.convPlan = null;
+			this.chirp = this.chirpFFT = null;
+			this.scratch = null;
+		} else if (isSmooth(n)){
+			this.bitrev = null;
+			int[] f = new int[32];
+			int numFactors = 0;
+			int rest = n;
+			for (int p : RADICES){
+				while (rest % p == 0){
+					f[numFactors++] = p;
+					rest /= p;
+				}
+			}
+			this.factors = Arrays.copyOf(f, numFactors);
+			this.cos = new double[n];
+			this.sin = new double[n];
+			this.convPlan = null;
+			this.chirp = this.chirpFFT = null;
+			this.scratch = newScratch(2*n);
+		} else {
+			this.bitrev = null;
+			this.factors = null;
+			this.cos = this.sin = null;
+			int m = Integer.highestOneBit(2*n - 1);
+			if (m < 2*n - 1){
+				m *= 2;
+			}
+			this.convPlan = getInstance(m);
+			// chirp[k] = exp(-i pi k^2 / n), with k^2 reduced modulo 2n to keep the angle accurate
+			this.chirp = new double[2*n];
+			for (int k=0; k < n; ++k){
+				double angle = Math.PI * (((long) k * k) % (2L * n)) / n;
+				chirp[2*k] = Math.cos(angle);
+				chirp[2*k+1] = -Math.sin(angle);
+			}
+			// FFT of the conjugate chirp, wrapped around so that negative k are at the end
+			this.chirpFFT = new double[2*m];
+			for (int k=0; k < n; ++k){
+				chirpFFT[2*k] = chirp[2*k];
+				chirpFFT[2*k+1] = -chirp[2*k+1];
+				if (k > 0){
+					chirpFFT[2*(m-k)] = chirp[2*k];
+					chirpFFT[2*(m-k)+1] = -chirp[2*k+1];
+				}
+			}
+			convPlan.forward(chirpFFT, 0);
+			this.scratch = newScratch(2*m);
+		}
+		if (cos != null){
+			for (int k=0; k < cos.length; ++k){
+				double kth = -2 * k * Math.PI / n;
+				cos[k] = Math.cos(kth);
+				sin[k] = Math.sin(kth);
+			}
+		}
+	}
+
+	private static ThreadLocal<double[]> newScratch(final int size){
+		return new ThreadLocal<double[]>(){
+			@Override
+			protected double[] initialValue() {
+				return new double[size];
+			}
+		};
+	}
+
+	/** Length of the transform, in complex numbers. */
+	public int getSize() {
+		return n;
+	}
+
+	/**
+	 * Forward FFT of the n complex numbers that start at a[offset].
+	 */
+	public void forward(double[] a, int offset){
+		transform(a, offset, 1);
+	}
+
+	/**
+	 * Inverse FFT, including the division by n, of the n complex numbers that start at a[offset].
+	 */
+	public void inverse(double[] a, int offset){
+		transform(a, offset, -1);
+		final double scale = 1.0 / n;
+		for (int k=offset; k < offset + 2*n; ++k){
+			a[k] *= scale;
+		}
+	}
+
+	/**
+	 * @param sign  1 for the forward transform, -1 for the inverse
+	 */
+	private void transform(double[] a, int offset, int sign){
+		if (bitrev != null){
+			transformRadix2(a, offset, sign);
+		} else if (factors != null){
+			transformMixedRadix(a, offset, sign);
+		} else if (sign > 0){
+			transformBluestein(a, offset);
+		} else {
+			// the inverse is the conjugate of the forward transform of the conjugate
+			for (int k=offset+1; k < offset + 2*n; k += 2){
+				a[k] = -a[k];
+			}
+			transformBluestein(a, offset);
+			for (int k=offset+1; k < offset + 2*n; k += 2){
+				a[k] = -a[k];
+			}
+		}
+	}
+
+	/**
+	 * Iterative radix-2 decimation in time.
+	 */
+	private void transformRadix2(double[] a, int offset, int sign){
+		// bit-reversed order
+		for (int i=0; i < n; ++i){
+			int j = bitrev[i];
+			if (i < j){
+				int p = offset + 2*i;
+				int q = offset + 2*j;
+				double tr = a[p], ti = a[p+1];
+				a[p] = a[q]; a[p+1] = a[q+1];
+				a[q] = tr; a[q+1] = ti;
+			}
+		}
+
+		if (n < 2){
+			return;
+		}
+
+		// the first stage needs no multiplications
+		for (int p=offset; p < offset + 2*n; p += 4){
+			double tr = a[p+2], ti = a[p+3];
+			a[p+2] = a[p] - tr; a[p+3] = a[p+1] - ti;
+			a[p] += tr; a[p+1] += ti;
+		}
+
+		for (int len=4; len <= n; len <<= 1){
+			final int half = len / 2;
+			final int step = n / len;
+			for (int start=0; start < n; start += len){
+				for (int k=0; k < half; ++k){
+					final double wr = cos[k*step];
+					final double wi = sign * sin[k*step];
+					int p = offset + 2*(start + k);
+					int q = p + 2*half;
+					double tr = wr * a[q] - wi * a[q+1];
+					double ti = wr * a[q+1] + wi * a[q];
+					a[q] = a[p] - tr; a[q+1] = a[p+1] - ti;
+					a[p] += tr; a[p+1] += ti;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stockham decimation in frequency.  At each stage, the data is viewed as
+	 * s interleaved sequences of length len = p*m; a p-point DFT combines
+	 * elements m apart, and the results, multiplied by the twiddle factors,
+	 * are written in sorted order into the other array.
+	 */
+	private void transformMixedRadix(double[] a, int offset, int sign){
+		double[] y = scratch.get();
+		double[] src = a, dst = y;
+		int srcOff = offset, dstOff = 0;
+		int len = n;
+		int s = 1;
+		for (int p : factors){
+			final int m = len / p;
+			switch (p){
+			case 2: pass2(src, srcOff, dst, dstOff, m, s, sign); break;
+			case 3: pass3(src, srcOff, dst, dstOff, m, s, sign); break;
+			case 4: pass4(src, srcOff, dst, dstOff, m, s, sign); break;
+			case 5: pass5(src, srcOff, dst, dstOff, m, s, sign); break;
+			default: passOdd(p, src, srcOff, dst, dstOff, m, s, sign); break;
+			}
+			double[] tmp = src; src = dst; dst = tmp;
+			int tmpOff = srcOff; srcOff = dstOff; dstOff = tmpOff;
+			len = m;
+			s *= p;
+		}
+		if (src != a){
+			System.arraycopy(src, srcOff, a, offset, 2*n);
+		}
+	}
+
+	// In the passes below, input k of the DFT for (j,q) is at 2*(q + s*(j + k*m))
+	// and output u goes, after multiplication by exp(-2 pi i u j s / n), to 2*(q + s*(p*j + u)).
+
+	private void pass2(double[] x, int xo, double[] y, int yo, int m, int s, int sign){
+		final int in = 2*s*m;
+		for (int j=0; j < m; ++j){
+			final double w1r = cos[j*s], w1i = sign * sin[j*s];
+			for (int q=0; q < s; ++q){
+				final int i = xo + 2*(q + s*j);
+				final int o = yo + 2*(q + 2*s*j);
+				final double a0r = x[i], a0i = x[i+1], a1r = x[i+in], a1i = x[i+in+1];
+				y[o] = a0r + a1r;
+				y[o+1] = a0i + a1i;
+				final double dr = a0r - a1r, di = a0i - a1i;
+				y[o+2*s] = dr * w1r - di * w1i;
+				y[o+2*s+1] = dr * w1i + di * w1r;
+			}
+		}
+	}
+
+	private void pass3(double[] x, int xo, double[] y, int yo, int m, int s, int sign){
+		final int in = 2*s*m;
+		final int out = 2*s;
+		final double c = -0.5;
+		final double sn = -sign * Math.sqrt(3) / 2;
+		for (int j=0; j < m; ++j){
+			final double w1r = cos[j*s], w1i = sign * sin[j*s];
+			final double w2r = cos[2*j*s], w2i = sign * sin[2*j*s];
+			for (int q=0; q < s; ++q){
+				final int i = xo + 2*(q + s*j);
+				final int o = yo + 2*(q + 3*s*j);
+				final double a0r = x[i], a0i = x[i+1];
+				final double a1r = x[i+in], a1i = x[i+in+1];
+				final double a2r = x[i+2*in], a2i = x[i+2*in+1];
+				final double br = a1r + a2r, bi = a1i + a2i;
+				final double dr = a1r - a2r, di = a1i - a2i;
+				final double tr = a0r + c * br, ti = a0i + c * bi;
+				// i * sn * d
+				final double er = -sn * di, ei = sn * dr;
+				y[o] = a0r + br;
+				y[o+1] = a0i + bi;
+				mul(y, o+out, tr + er, ti + ei, w1r, w1i);
+				mul(y, o+2*out, tr - er, ti - ei, w2r, w2i);
+			}
+		}
+	}
+
+	private void pass4(double[] x, int xo, double[] y, int yo, int m, int s, int sign){
+		final int in = 2*s*m;
+		final int out = 2*s;
+		for (int j=0; j < m; ++j){
+			final double w1r = cos[j*s], w1i = sign * sin[j*s];
+			final double w2r = cos[2*j*s], w2i = sign * sin[2*j*s];
+			final double w3r = cos[3*j*s], w3i = sign * sin[3*j*s];
+			for (int q=0; q < s; ++q){
+				final int i = xo + 2*(q + s*j);
+				final int o = yo + 2*(q + 4*s*j);
+				final double a0r = x[i], a0i = x[i+1];
+				final double a1r = x[i+in], a1i = x[i+in+1];
+				final double a2r = x[i+2*in], a2i = x[i+2*in+1];
+				final double a3r = x[i+3*in], a3i = x[i+3*in+1];
+				final double ar = a0r + a2r, ai = a0i + a2i;
+				final double br = a0r - a2r, bi = a0i - a2i;
+				final double cr = a1r + a3r, ci = a1i + a3i;
+				// -i * sign * (a1 - a3)
+				final double dr = sign * (a1i - a3i), di = -sign * (a1r - a3r);
+				y[o] = ar + cr;
+				y[o+1] = ai + ci;
+				mul(y, o+out, br + dr, bi + di, w1r, w1i);
+				mul(y, o+2*out, ar - cr, ai - ci, w2r, w2i);
+				mul(y, o+3*out, br - dr, bi - di, w3r, w3i);
+			}
+		}
+	}
+
+	private void pass5(double[] x, int xo, double[] y, int yo, int m, int s, int sign){
+		final int in = 2*s*m;
+		final int out = 2*s;
+		final double c1 = Math.cos(2*Math.PI/5), c2 = Math.cos(4*Math.PI/5);
+		final double s1 = -sign * Math.sin(2*Math.PI/5), s2 = -sign * Math.sin(4*Math.PI/5);
+		for (int j=0; j < m; ++j){
+			final double w1r = cos[j*s], w1i = sign * sin[j*s];
+			final double w2r = cos[2*j*s], w2i = sign * sin[2*j*s];
+			final double w3r = cos[3*j*s], w3i = sign * sin[3*j*s];
+			final double w4r = cos[4*j*s], w4i = sign * sin[4*j*s];
+			for (int q=0; q < s; ++q){
+				final int i = xo + 2*(q + s*j);
+				final int o = yo + 2*(q + 5*s*j);
+				final double a0r = x[i], a0i = x[i+1];
+				final double a1r = x[i+in], a1i = x[i+in+1];
+				final double a2r = x[i+2*in], a2i = x[i+2*in+1];
+				final double a3r = x[i+3*in], a3i = x[i+3*in+1];
+				final double a4r = x[i+4*in], a4i = x[i+4*in+1];
+				final double b1r = a1r + a4r, b1i = a1i + a4i;
+				final double b2r = a2r + a3r, b2i = a2i + a3i;
+				final double d1r = a1r - a4r, d1i = a1i - a4i;
+				final double d2r = a2r - a3r, d2i = a2i - a3i;
+				final double t1r = a0r + c1 * b1r + c2 * b2r, t1i = a0i + c1 * b1i + c2 * b2i;
+				final double t2r = a0r + c2 * b1r + c1 * b2r, t2i = a0i + c2 * b1i + c1 * b2i;
+				// i * (s1 d1 + s2 d2) and i * (s2 d1 - s1 d2)
+				final double e1r = -(s1 * d1i + s2 * d2i), e1i = s1 * d1r + s2 * d2r;
+				final double e2r = -(s2 * d1i - s1 * d2i), e2i = s2 * d1r - s1 * d2r;
+				y[o] = a0r + b1r + b2r;
+				y[o+1] = a0i + b1i + b2i;
+				mul(y, o+out, t1r + e1r, t1i + e1i, w1r, w1i);
+				mul(y, o+2*out, t2r + e2r, t2i + e2i, w2r, w2i);
+				mul(y, o+3*out, t2r - e2r, t2i - e2i, w3r, w3i);
+				mul(y, o+4*out, t1r - e1r, t1i - e1i, w4r, w4i);
+			}
+		}
+	}
+
+	/**
+	 * Any odd radix, by a direct p-point DFT that combines inputs k and p-k
+	 * so that each pair needs only real multiplications.
+	 */
+	private void passOdd(int p, double[] x, int xo, double[] y, int yo, int m, int s, int sign){
+		final int in = 2*s*m;
+		final int out = 2*s;
+		final int h = p / 2;
+		// c[u][k] = cos(2 pi u k / p) and sn[u][k] = -sign sin(2 pi u k / p), for u,k in 1..h
+		final double[][] c = new double[h+1][h+1];
+		final double[][] sn = new double[h+1][h+1];
+		for (int u=1; u <= h; ++u){
+			for (int k=1; k <= h; ++k){
+				c[u][k] = Math.cos(2 * Math.PI * u * k / p);
+				sn[u][k] = -sign * Math.sin(2 * Math.PI * u * k / p);
+			}
+		}
+		final double[] br = new double[h+1], bi = new double[h+1], dr = new double[h+1], di = new double[h+1];
+		final double[] wr = new double[p], wi = new double[p];
+		for (int j=0; j < m; ++j){
+			for (int u=1; u < p; ++u){
+				wr[u] = cos[u*j*s];
+				wi[u] = sign * sin[u*j*s];
+			}
+			for (int q=0; q < s; ++q){
+				final int i = xo + 2*(q + s*j);
+				final int o = yo + 2*(q + p*s*j);
+				final double a0r = x[i], a0i = x[i+1];
+				double sumr = a0r, sumi = a0i;
+				for (int k=1; k <= h; ++k){
+					final int ik = i + k*in;
+					final int il = i + (p-k)*in;
+					br[k] = x[ik] + x[il];
+					bi[k] = x[ik+1] + x[il+1];
+					dr[k] = x[ik] - x[il];
+					di[k] = x[ik+1] - x[il+1];
+					sumr += br[k];
+					sumi += bi[k];
+				}
+				y[o] = sumr;
+				y[o+1] = sumi;
+				for (int u=1; u <= h; ++u){
+					double tr = a0r, ti = a0i, er = 0, ei = 0;
+					for (int k=1; k <= h; ++k){
+						tr += c[u][k] * br[k];
+						ti += c[u][k] * bi[k];
+						er -= sn[u][k] * di[k];
+						ei += sn[u][k] * dr[k];
+					}
+					mul(y, o + u*out, tr + er, ti + ei, wr[u], wi[u]);
+					mul(y, o + (p-u)*out, tr - er, ti - ei, wr[p-u], wi[p-u]);
+				}
+			}
+		}
+	}
+
+	/** y[o] = (ar + i ai) * (wr + i wi) */
+	private static void mul(double[] y, int o, double ar, double ai, double wr, double wi){
+		y[o] = ar * wr - ai * wi;
+		y[o+1] = ar * wi + ai * wr;
+	}
+
+	/**
+	 * X[k] = chirp[k] * sum_j (x[j] chirp[j]) conj(chirp[k-j]), where the sum is
+	 * a convolution that is carried out with FFTs of power-of-2 length.
+	 */
+	private void transformBluestein(double[] a, int offset){
+		final int m = convPlan.getSize();
+		double[] b = scratch.get();
+		Arrays.fill(b, 0);
+		for (int k=0; k < n; ++k){
+			double xr = a[offset + 2*k], xi = a[offset + 2*k + 1];
+			double wr = chirp[2*k], wi = chirp[2*k+1];
+			b[2*k] = xr * wr - xi * wi;
+			b[2*k+1] = xr * wi + xi * wr;
+		}
+		convPlan.forward(b, 0);
+		for (int k=0; k < m; ++k){
+			double xr = b[2*k], xi = b[2*k+1];
+			double wr = chirpFFT[2*k], wi = chirpFFT[2*k+1];
+			b[2*k] = xr * wr - xi * wi;
+			b[2*k+1] = xr * wi + xi * wr;
+		}
+		convPlan.inverse(b, 0);
+		for (int k=0; k < n; ++k){
+			double xr = b[2*k], xi = b[2*k+1];
+			double wr = chirp[2*k], wi = chirp[2*k+1];
+			a[offset + 2*k] = xr * wr - xi * wi;
+			a[offset + 2*k + 1] = xr * wi + xi * wr;
+		}
+	}
+}
@@ -8,7 +8,7 @@ import java.io.File;
 import edu.ou.asgbook.core.LatLon;
 import edu.ou.asgbook.core.LatLonGrid;
 import edu.ou.asgbook.dataset.GlobalPopulation;
-import edu.ou.asgbook.distance.EuclideanDTSaito;
+import edu.ou.asgbook.distance.EuclideanDTMeijster;
 import edu.ou.asgbook.filters.Inverter;
 import edu.ou.asgbook.filters.SimpleThresholder;
 import edu.ou.asgbook.histogram.Histogram;
@@ -58,7 +58,7 @@ public class Assignment4 {
 		//KmlWriter.write(threshed, outdir, "thresh", PngWriter.createCoolToWarmColormap());
 		
 		// distance to points > thresh
-		LatLonGrid distToCity = new EuclideanDTSaito().getDistanceTransform(conus, popthresh);
+		LatLonGrid distToCity = new EuclideanDTMeijster().getDistanceTransform(conus, popthresh);
 		KmlWriter.write(distToCity, outdir, "distToCity", PngWriter.createCoolToWarmColormap());
 		
 		// optimal threshold on distance